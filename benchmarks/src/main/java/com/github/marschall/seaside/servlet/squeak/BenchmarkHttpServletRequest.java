@@ -0,0 +1,486 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.RequestDispatcher;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpUpgradeHandler;
+import jakarta.servlet.http.Part;
+
+/**
+ * A {@link HttpServletRequest} that serves a fixed request from memory.
+ * <p>
+ * Only the methods {@link ServletNativeRequest} uses are implemented,
+ * everything else throws {@link UnsupportedOperationException}.
+ */
+final class BenchmarkHttpServletRequest implements HttpServletRequest {
+
+  private final Map<String, List<String>> headers;
+  private final Map<String, String[]> parameters;
+  private final Map<String, Object> attributes;
+  private Cookie[] cookies;
+  private String method;
+  private String requestUri;
+  private String queryString;
+  private String contentType;
+  private String body;
+
+  BenchmarkHttpServletRequest() {
+    this.headers = new LinkedHashMap<>();
+    this.parameters = new LinkedHashMap<>();
+    this.attributes = new LinkedHashMap<>();
+    this.method = "GET";
+    this.requestUri = "/";
+  }
+
+  void setMethod(String method) {
+    this.method = method;
+  }
+
+  void setRequestUri(String requestUri) {
+    this.requestUri = requestUri;
+  }
+
+  void setQueryString(String queryString) {
+    this.queryString = queryString;
+  }
+
+  void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  void setBody(String body) {
+    this.body = body;
+  }
+
+  void setCookies(Cookie[] cookies) {
+    this.cookies = cookies;
+  }
+
+  void addHeader(String name, String value) {
+    this.headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+  }
+
+  void addParameter(String name, String value) {
+    String[] values = this.parameters.get(name);
+    if (values == null) {
+      this.parameters.put(name, new String[] {value});
+    } else {
+      String[] newValues = new String[values.length + 1];
+      System.arraycopy(values, 0, newValues, 0, values.length);
+      newValues[values.length] = value;
+      this.parameters.put(name, newValues);
+    }
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return this.attributes.get(name);
+  }
+
+  @Override
+  public Enumeration<String> getAttributeNames() {
+    return Collections.enumeration(this.attributes.keySet());
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return "UTF-8";
+  }
+
+  @Override
+  public void setCharacterEncoding(String env) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int getContentLength() {
+    return this.body == null ? -1 : this.body.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  @Override
+  public long getContentLengthLong() {
+    return this.getContentLength();
+  }
+
+  @Override
+  public String getContentType() {
+    return this.contentType;
+  }
+
+  @Override
+  public ServletInputStream getInputStream() {
+    ByteArrayInputStream inputStream = new ByteArrayInputStream(this.body == null ? new byte[0] : this.body.getBytes(StandardCharsets.UTF_8));
+    return new ServletInputStream() {
+
+      @Override
+      public int read() {
+        return inputStream.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return inputStream.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return inputStream.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        throw new UnsupportedOperationException();
+      }
+
+    };
+  }
+
+  @Override
+  public String getParameter(String name) {
+    String[] values = this.parameters.get(name);
+    return values == null ? null : values[0];
+  }
+
+  @Override
+  public Enumeration<String> getParameterNames() {
+    return Collections.enumeration(this.parameters.keySet());
+  }
+
+  @Override
+  public String[] getParameterValues(String name) {
+    return this.parameters.get(name);
+  }
+
+  @Override
+  public Map<String, String[]> getParameterMap() {
+    return Collections.unmodifiableMap(this.parameters);
+  }
+
+  @Override
+  public String getProtocol() {
+    return "HTTP/1.1";
+  }
+
+  @Override
+  public String getScheme() {
+    return "http";
+  }
+
+  @Override
+  public String getServerName() {
+    return "localhost";
+  }
+
+  @Override
+  public int getServerPort() {
+    return 8080;
+  }
+
+  @Override
+  public BufferedReader getReader() {
+    return new BufferedReader(new StringReader(this.body == null ? "" : this.body));
+  }
+
+  @Override
+  public String getRemoteAddr() {
+    return "127.0.0.1";
+  }
+
+  @Override
+  public String getRemoteHost() {
+    return "localhost";
+  }
+
+  @Override
+  public void setAttribute(String name, Object o) {
+    this.attributes.put(name, o);
+  }
+
+  @Override
+  public void removeAttribute(String name) {
+    this.attributes.remove(name);
+  }
+
+  @Override
+  public Locale getLocale() {
+    return Locale.ROOT;
+  }
+
+  @Override
+  public Enumeration<Locale> getLocales() {
+    return Collections.enumeration(List.of(Locale.ROOT));
+  }
+
+  @Override
+  public boolean isSecure() {
+    return false;
+  }
+
+  @Override
+  public RequestDispatcher getRequestDispatcher(String path) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  @Deprecated
+  public String getRealPath(String path) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int getRemotePort() {
+    return 49152;
+  }
+
+  @Override
+  public String getLocalName() {
+    return "localhost";
+  }
+
+  @Override
+  public String getLocalAddr() {
+    return "127.0.0.1";
+  }
+
+  @Override
+  public int getLocalPort() {
+    return 8080;
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public AsyncContext startAsync() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isAsyncStarted() {
+    return false;
+  }
+
+  @Override
+  public boolean isAsyncSupported() {
+    return false;
+  }
+
+  @Override
+  public AsyncContext getAsyncContext() {
+    throw new IllegalStateException();
+  }
+
+  @Override
+  public DispatcherType getDispatcherType() {
+    return DispatcherType.REQUEST;
+  }
+
+  @Override
+  public String getAuthType() {
+    return null;
+  }
+
+  @Override
+  public Cookie[] getCookies() {
+    return this.cookies;
+  }
+
+  @Override
+  public long getDateHeader(String name) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String getHeader(String name) {
+    for (Map.Entry<String, List<String>> header : this.headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue().get(0);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Enumeration<String> getHeaders(String name) {
+    for (Map.Entry<String, List<String>> header : this.headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return Collections.enumeration(header.getValue());
+      }
+    }
+    return Collections.emptyEnumeration();
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames() {
+    return Collections.enumeration(this.headers.keySet());
+  }
+
+  @Override
+  public int getIntHeader(String name) {
+    String value = this.getHeader(name);
+    return value == null ? -1 : Integer.parseInt(value);
+  }
+
+  @Override
+  public String getMethod() {
+    return this.method;
+  }
+
+  @Override
+  public String getPathInfo() {
+    return this.requestUri;
+  }
+
+  @Override
+  public String getPathTranslated() {
+    return null;
+  }
+
+  @Override
+  public String getContextPath() {
+    return "";
+  }
+
+  @Override
+  public String getQueryString() {
+    return this.queryString;
+  }
+
+  @Override
+  public String getRemoteUser() {
+    return null;
+  }
+
+  @Override
+  public boolean isUserInRole(String role) {
+    return false;
+  }
+
+  @Override
+  public Principal getUserPrincipal() {
+    return null;
+  }
+
+  @Override
+  public String getRequestedSessionId() {
+    return null;
+  }
+
+  @Override
+  public String getRequestURI() {
+    return this.requestUri;
+  }
+
+  @Override
+  public StringBuffer getRequestURL() {
+    return new StringBuffer().append("http://localhost:8080").append(this.requestUri);
+  }
+
+  @Override
+  public String getServletPath() {
+    return "";
+  }
+
+  @Override
+  public HttpSession getSession(boolean create) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public HttpSession getSession() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String changeSessionId() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isRequestedSessionIdValid() {
+    return false;
+  }
+
+  @Override
+  public boolean isRequestedSessionIdFromCookie() {
+    return false;
+  }
+
+  @Override
+  public boolean isRequestedSessionIdFromURL() {
+    return false;
+  }
+
+  @Override
+  @Deprecated
+  public boolean isRequestedSessionIdFromUrl() {
+    return false;
+  }
+
+  @Override
+  public boolean authenticate(HttpServletResponse response) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void login(String username, String password) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void logout() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Collection<Part> getParts() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Part getPart(String name) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) {
+    throw new UnsupportedOperationException();
+  }
+
+}
@@ -0,0 +1,289 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A {@link HttpServletResponse} that keeps status, headers and cookies
+ * in memory and discards the body.
+ */
+final class BenchmarkHttpServletResponse implements HttpServletResponse {
+
+  private final CountingServletOutputStream outputStream;
+  private final Map<String, List<String>> headers;
+  private final List<Cookie> cookies;
+  private PrintWriter writer;
+  private int status;
+  private String contentType;
+  private String characterEncoding;
+  private boolean committed;
+
+  BenchmarkHttpServletResponse() {
+    this.outputStream = new CountingServletOutputStream();
+    this.headers = new LinkedHashMap<>();
+    this.cookies = new ArrayList<>();
+    this.reset();
+  }
+
+  long getBytesWritten() {
+    return this.outputStream.getCount();
+  }
+
+  @Override
+  public String getCharacterEncoding() {
+    return this.characterEncoding;
+  }
+
+  @Override
+  public String getContentType() {
+    return this.contentType;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() {
+    return this.outputStream;
+  }
+
+  @Override
+  public PrintWriter getWriter() {
+    if (this.writer == null) {
+      this.writer = new PrintWriter(new OutputStreamWriter(this.outputStream, StandardCharsets.UTF_8));
+    }
+    return this.writer;
+  }
+
+  @Override
+  public void setCharacterEncoding(String charset) {
+    this.characterEncoding = charset;
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    this.setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    this.setHeader("Content-Length", Long.toString(len));
+  }
+
+  @Override
+  public void setContentType(String type) {
+    this.contentType = type;
+  }
+
+  @Override
+  public void setBufferSize(int size) {
+    // ignore
+  }
+
+  @Override
+  public int getBufferSize() {
+    return 0;
+  }
+
+  @Override
+  public void flushBuffer() {
+    this.committed = true;
+    if (this.writer != null) {
+      this.writer.flush();
+    }
+  }
+
+  @Override
+  public void resetBuffer() {
+    // ignore
+  }
+
+  @Override
+  public boolean isCommitted() {
+    return this.committed;
+  }
+
+  @Override
+  public void reset() {
+    this.outputStream.reset();
+    this.headers.clear();
+    this.cookies.clear();
+    this.writer = null;
+    this.status = SC_OK;
+    this.contentType = null;
+    this.characterEncoding = StandardCharsets.UTF_8.name();
+    this.committed = false;
+  }
+
+  @Override
+  public void setLocale(Locale loc) {
+    // ignore
+  }
+
+  @Override
+  public Locale getLocale() {
+    return Locale.ROOT;
+  }
+
+  @Override
+  public void addCookie(Cookie cookie) {
+    this.cookies.add(cookie);
+  }
+
+  @Override
+  public boolean containsHeader(String name) {
+    return this.headers.containsKey(name);
+  }
+
+  @Override
+  public String encodeURL(String url) {
+    return url;
+  }
+
+  @Override
+  public String encodeRedirectURL(String url) {
+    return url;
+  }
+
+  @Override
+  @Deprecated
+  public String encodeUrl(String url) {
+    return url;
+  }
+
+  @Override
+  @Deprecated
+  public String encodeRedirectUrl(String url) {
+    return url;
+  }
+
+  @Override
+  public void sendError(int sc, String msg) {
+    this.status = sc;
+    this.committed = true;
+  }
+
+  @Override
+  public void sendError(int sc) {
+    this.sendError(sc, null);
+  }
+
+  @Override
+  public void sendRedirect(String location) {
+    this.status = SC_FOUND;
+    this.setHeader("Location", location);
+    this.committed = true;
+  }
+
+  @Override
+  public void setDateHeader(String name, long date) {
+    this.setHeader(name, Long.toString(date));
+  }
+
+  @Override
+  public void addDateHeader(String name, long date) {
+    this.addHeader(name, Long.toString(date));
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    List<String> values = new ArrayList<>(1);
+    values.add(value);
+    this.headers.put(name, values);
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    this.headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    this.setHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    this.addHeader(name, Integer.toString(value));
+  }
+
+  @Override
+  public void setStatus(int sc) {
+    this.status = sc;
+  }
+
+  @Override
+  @Deprecated
+  public void setStatus(int sc, String sm) {
+    this.status = sc;
+  }
+
+  @Override
+  public int getStatus() {
+    return this.status;
+  }
+
+  @Override
+  public String getHeader(String name) {
+    List<String> values = this.headers.get(name);
+    if (values == null) {
+      return null;
+    }
+    return values.get(0);
+  }
+
+  @Override
+  public Collection<String> getHeaders(String name) {
+    return this.headers.getOrDefault(name, List.of());
+  }
+
+  @Override
+  public Collection<String> getHeaderNames() {
+    return this.headers.keySet();
+  }
+
+  static final class CountingServletOutputStream extends ServletOutputStream {
+
+    private long count;
+
+    long getCount() {
+      return this.count;
+    }
+
+    void reset() {
+      this.count = 0L;
+    }
+
+    @Override
+    public void write(int b) {
+      this.count += 1L;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.count += len;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
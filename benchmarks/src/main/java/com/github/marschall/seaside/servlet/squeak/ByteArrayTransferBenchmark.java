@@ -0,0 +1,142 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Measures the throughput in bytes per second of
+ * {@link ServletNativeRequest#setResponseContentsAsByteString(String)}
+ * including writing the buffered body.
+ * <p>
+ * {@code elementWise} is the previous implementation with one polyglot
+ * call per byte and serves as the baseline. The Squeak ByteArray is
+ * simulated with a {@link ProxyArray} which, like a guest array, only
+ * supports array elements.
+ * <p>
+ * {@code byteString} is the shipped path, which is not zero-copy. The
+ * benchmarks run without TruffleSqueak so the two copies made before
+ * the bytes reach Java are modeled: {@code contents asString} copies
+ * the ByteArray into a ByteString in the image, and converting the
+ * guest ByteString to a {@link String} at the polyglot boundary copies
+ * it again. {@code getBytes(ISO_8859_1)} in the snapshot is the third
+ * copy. The interpreter overhead of {@code asString} and of the
+ * conversion is not included, so the result is an upper bound. The
+ * {@code bytes} counter reports the bytes per second.
+ */
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(SECONDS)
+@State(Scope.Thread)
+public class ByteArrayTransferBenchmark {
+
+  @Param({"1024", "65536", "2097152"})
+  public int size;
+
+  private Context context;
+
+  private Value arrayContents;
+
+  private byte[] byteArrayContents;
+
+  private BenchmarkHttpServletResponse response;
+
+  private UploadSpool uploadSpool;
+
+  private ServletNativeRequest nativeRequest;
+
+  private Value nativeRequestValue;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    this.context = Context.newBuilder()
+        .allowAllAccess(true)
+        .option("engine.WarnInterpreterOnly", "false")
+        .build();
+    byte[] bytes = new byte[this.size];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    Object[] elements = new Object[this.size];
+    for (int i = 0; i < bytes.length; i++) {
+      elements[i] = Byte.toUnsignedInt(bytes[i]);
+    }
+    this.arrayContents = this.context.asValue(ProxyArray.fromArray(elements));
+    this.byteArrayContents = bytes;
+    this.response = new BenchmarkHttpServletResponse();
+    this.uploadSpool = new UploadSpool(Files.createTempDirectory("seaside-uploads"), Integer.MAX_VALUE);
+    this.nativeRequest = new ServletNativeRequest(unsupportedRequest(), this.response, this.uploadSpool,
+        new RequestBodyReader(RequestBodyReader.UNLIMITED, false), new UrlParser("", StandardCharsets.UTF_8));
+    this.nativeRequestValue = this.context.asValue(this.nativeRequest);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.uploadSpool.close();
+    this.context.close();
+  }
+
+  private static HttpServletRequest unsupportedRequest() {
+    return (HttpServletRequest) Proxy.newProxyInstance(ByteArrayTransferBenchmark.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> {
+          throw new UnsupportedOperationException(method.getName());
+        });
+  }
+
+  @Benchmark
+  public void elementWise(TransferredBytes transferred) throws IOException {
+    Value contents = this.arrayContents;
+    int arraySize = Math.toIntExact(contents.getArraySize());
+    byte[] value = new byte[arraySize];
+    for (int i = 0; i < arraySize; i++) {
+      value[i] = (byte) contents.getArrayElement(i).asInt();
+    }
+    this.response.getOutputStream().write(value);
+    transferred.bytes += arraySize;
+  }
+
+  @Benchmark
+  public void byteString(TransferredBytes transferred) throws IOException {
+    // contents asString in the image
+    byte[] byteString = Arrays.copyOf(this.byteArrayContents, this.byteArrayContents.length);
+    // guest ByteString to host String at the polyglot boundary
+    String contents = new String(byteString, StandardCharsets.ISO_8859_1);
+    this.nativeRequestValue.invokeMember("setResponseContentsAsByteString", contents);
+    this.nativeRequest.getBufferedResponse().writeTo(this.response);
+    transferred.bytes += this.size;
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class TransferredBytes {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      this.bytes = 0L;
+    }
+
+  }
+
+}
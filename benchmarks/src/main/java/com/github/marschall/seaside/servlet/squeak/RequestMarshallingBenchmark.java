@@ -0,0 +1,278 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Measures the per request marshalling steps between the servlet API
+ * and Squeak.
+ * <p>
+ * The {@code read} benchmarks measure taking the snapshot of a request
+ * that is shaped so that one step dominates. The {@code guest}
+ * benchmarks measure Squeak reading the snapshot one element at a time
+ * through a host only {@link Context}, the {@code joined} benchmarks
+ * measure reading it the way {@code WAJavaSupport} does, as a single
+ * string joined by {@link ServletNativeRequest#join(String[])}.
+ * Run with {@code -prof gc} to see the allocation rate of every step.
+ */
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@State(Scope.Thread)
+public class RequestMarshallingBenchmark {
+
+  /**
+   * Number of headers, fields, cookies and query parameters, the body
+   * has 64 characters per entry.
+   */
+  @Param({"4", "32"})
+  public int entries;
+
+  private Context context;
+
+  private UploadSpool uploadSpool;
+
+  private RequestBodyReader decodingBodyReader;
+
+  private RequestBodyReader rawBodyReader;
+
+  private UrlParser urlParser;
+
+  private BenchmarkHttpServletResponse response;
+
+  private BenchmarkHttpServletRequest headersRequest;
+
+  private BenchmarkHttpServletRequest fieldsRequest;
+
+  private BenchmarkHttpServletRequest cookiesRequest;
+
+  private BenchmarkHttpServletRequest queryRequest;
+
+  private BenchmarkHttpServletRequest bodyRequest;
+
+  private Value headersSnapshot;
+
+  private Value fieldsSnapshot;
+
+  private Value cookiesSnapshot;
+
+  private Value querySnapshot;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, ServletException {
+    this.context = Context.newBuilder()
+        .allowAllAccess(true)
+        .option("engine.WarnInterpreterOnly", "false")
+        .build();
+    this.uploadSpool = new UploadSpool(Files.createTempDirectory("seaside-uploads"), Integer.MAX_VALUE);
+    this.response = new BenchmarkHttpServletResponse();
+    this.decodingBodyReader = new RequestBodyReader(RequestBodyReader.UNLIMITED, false);
+    this.rawBodyReader = new RequestBodyReader(RequestBodyReader.UNLIMITED, true);
+    this.urlParser = new UrlParser("/tests", StandardCharsets.UTF_8);
+
+    this.headersRequest = new BenchmarkHttpServletRequest();
+    for (int i = 0; i < this.entries; i++) {
+      this.headersRequest.addHeader("X-Header-" + i, "value-" + i);
+    }
+
+    this.fieldsRequest = new BenchmarkHttpServletRequest();
+    this.fieldsRequest.setMethod("POST");
+    this.fieldsRequest.setContentType("application/x-www-form-urlencoded");
+    for (int i = 0; i < this.entries; i++) {
+      this.fieldsRequest.addParameter(Integer.toString(i), "value-" + i);
+    }
+
+    this.cookiesRequest = new BenchmarkHttpServletRequest();
+    Cookie[] cookies = new Cookie[this.entries];
+    for (int i = 0; i < this.entries; i++) {
+      cookies[i] = new Cookie("cookie" + i, "value-" + i);
+    }
+    this.cookiesRequest.setCookies(cookies);
+
+    this.queryRequest = new BenchmarkHttpServletRequest();
+    this.queryRequest.setRequestUri("/tests/functional/WALotsaLinksFunctionalTest");
+    StringBuilder queryString = new StringBuilder("_s=_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob");
+    for (int i = 0; i < this.entries; i++) {
+      queryString.append('&').append(i).append("=value-").append(i);
+    }
+    this.queryRequest.setQueryString(queryString.toString());
+
+    this.bodyRequest = new BenchmarkHttpServletRequest();
+    this.bodyRequest.setMethod("POST");
+    this.bodyRequest.setContentType("application/json");
+    this.bodyRequest.setBody("{\"a\":\"" + "x".repeat(this.entries * 64 - 8) + "\"}");
+
+    this.headersSnapshot = this.snapshot(this.headersRequest);
+    this.fieldsSnapshot = this.snapshot(this.fieldsRequest);
+    this.cookiesSnapshot = this.snapshot(this.cookiesRequest);
+    this.querySnapshot = this.snapshot(this.queryRequest);
+  }
+
+  private Value snapshot(BenchmarkHttpServletRequest request) throws IOException, ServletException {
+    return this.context.asValue(this.readRequest(request, this.decodingBodyReader));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.uploadSpool.close();
+    this.context.close();
+  }
+
+  private ServletNativeRequest readRequest(BenchmarkHttpServletRequest request) throws IOException, ServletException {
+    return this.readRequest(request, this.decodingBodyReader);
+  }
+
+  private ServletNativeRequest readRequest(BenchmarkHttpServletRequest request, RequestBodyReader bodyReader) throws IOException, ServletException {
+    ServletNativeRequest nativeRequest = new ServletNativeRequest(request, this.response, this.uploadSpool, bodyReader,
+        this.urlParser);
+    nativeRequest.readRequest();
+    return nativeRequest;
+  }
+
+  @Benchmark
+  public String[] readRequestHeaders() throws IOException, ServletException {
+    return this.readRequest(this.headersRequest).getRequestHeaders();
+  }
+
+  @Benchmark
+  public String[] readRequestFields() throws IOException, ServletException {
+    return this.readRequest(this.fieldsRequest).getRequestFields();
+  }
+
+  @Benchmark
+  public String[] readCookies() throws IOException, ServletException {
+    return this.readRequest(this.cookiesRequest).getCookies();
+  }
+
+  @Benchmark
+  public String[] readUrl() throws IOException, ServletException {
+    return this.readRequest(this.queryRequest).getUrlQuery();
+  }
+
+  @Benchmark
+  public String readRequestBody() throws IOException, ServletException {
+    return this.readRequest(this.bodyRequest).getRequestBodyAsString();
+  }
+
+  @Benchmark
+  public String readRawRequestBody() throws IOException, ServletException {
+    return this.readRequest(this.bodyRequest, this.rawBodyReader).getRequestBody();
+  }
+
+  @Benchmark
+  public void guestRequestHeaders(Blackhole blackhole) {
+    readPairs(this.headersSnapshot.invokeMember("getRequestHeaders"), blackhole);
+  }
+
+  @Benchmark
+  public void guestRequestFields(Blackhole blackhole) {
+    readPairs(this.fieldsSnapshot.invokeMember("getRequestFields"), blackhole);
+  }
+
+  @Benchmark
+  public void guestCookies(Blackhole blackhole) {
+    readPairs(this.cookiesSnapshot.invokeMember("getCookies"), blackhole);
+  }
+
+  @Benchmark
+  public void guestUrl(Blackhole blackhole) {
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlScheme").asString());
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlHost").asString());
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlPort").asInt());
+    readElements(this.querySnapshot.invokeMember("getContextPath"), blackhole);
+    readElements(this.querySnapshot.invokeMember("getUrlPath"), blackhole);
+    readPairs(this.querySnapshot.invokeMember("getUrlQuery"), blackhole);
+  }
+
+  @Benchmark
+  public void joinedRequestHeaders(Blackhole blackhole) {
+    readJoined(this.join(this.headersSnapshot, "getRequestHeaders"), blackhole);
+  }
+
+  @Benchmark
+  public void joinedRequestFields(Blackhole blackhole) {
+    readJoined(this.join(this.fieldsSnapshot, "getRequestFields"), blackhole);
+  }
+
+  @Benchmark
+  public void joinedCookies(Blackhole blackhole) {
+    readJoined(this.join(this.cookiesSnapshot, "getCookies"), blackhole);
+  }
+
+  @Benchmark
+  public void joinedUrl(Blackhole blackhole) {
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlScheme").asString());
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlHost").asString());
+    blackhole.consume(this.querySnapshot.invokeMember("getUrlPort").asInt());
+    readJoined(this.join(this.querySnapshot, "getContextPath"), blackhole);
+    readJoined(this.join(this.querySnapshot, "getUrlPath"), blackhole);
+    readJoined(this.join(this.querySnapshot, "getUrlQuery"), blackhole);
+  }
+
+  /**
+   * Joins an array like {@code aNativeRequest join: aNativeRequest getRequestHeaders}.
+   */
+  private String join(Value snapshot, String getter) {
+    return snapshot.invokeMember("join", snapshot.invokeMember(getter)).asString();
+  }
+
+  /**
+   * Splits joined strings like {@code WAJavaSupport >> #joined:do:}.
+   */
+  private static void readJoined(String joined, Blackhole blackhole) {
+    int position = 0;
+    while (position < joined.length()) {
+      if (joined.charAt(position) == '-') {
+        blackhole.consume(null);
+        position += 1;
+      } else {
+        int colon = joined.indexOf(':', position);
+        // the length is in code points
+        int end = joined.offsetByCodePoints(colon + 1, Integer.parseInt(joined, position, colon, 10));
+        blackhole.consume(joined.substring(colon + 1, end));
+        position = end;
+      }
+    }
+  }
+
+  /**
+   * Reads the elements of an array one at a time.
+   */
+  private static void readElements(Value array, Blackhole blackhole) {
+    long size = array.getArraySize();
+    for (long i = 0L; i < size; i++) {
+      blackhole.consume(array.getArrayElement(i).asString());
+    }
+  }
+
+  /**
+   * Reads alternating names and values one at a time.
+   */
+  private static void readPairs(Value array, Blackhole blackhole) {
+    long size = array.getArraySize();
+    for (long i = 0L; i < size; i += 2L) {
+      blackhole.consume(array.getArrayElement(i).asString());
+      blackhole.consume(array.getArrayElement(i + 1L).asString());
+    }
+  }
+
+}
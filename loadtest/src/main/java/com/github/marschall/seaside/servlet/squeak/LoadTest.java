@@ -0,0 +1,259 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+import jakarta.servlet.MultipartConfigElement;
+import jakarta.servlet.Servlet;
+
+/**
+ * Starts {@link SeasideGraalSqueakBridgeServlet} in an embedded Tomcat
+ * and drives it with concurrent HTTP clients.
+ * <p>
+ * Reports the throughput and the latency distribution of one scenario,
+ * either {@code get} for GET pages, {@code shared} for GET pages without
+ * a session that all clients request, {@code post} for URL encoded form
+ * posts or {@code upload} for multipart file uploads. By default a
+ * {@link StandInSeasideAdaptor} replaces the image so that the Java side
+ * of the bridge can be measured on a stock JDK, {@code --image} runs a
+ * real image on GraalVM with TruffleSqueak.
+ * <p>
+ * Options are passed as {@code --name value}, options starting with
+ * {@code seaside.} or {@code engine.} are passed as init parameters to
+ * the servlet.
+ */
+public final class LoadTest {
+
+  private static final String SERVLET_NAME = "SeasideGraalSqueakBridgeServlet";
+
+  private static final String STAND_IN_IMAGE = "stand-in.image";
+
+  private final Map<String, String> options;
+
+  private final String scenario;
+
+  private final int threads;
+
+  private final int durationSeconds;
+
+  private final int warmUpSeconds;
+
+  private final Recorder recorder;
+
+  private final AtomicLong requests;
+
+  private final AtomicLong errors;
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    this.scenario = options.getOrDefault("scenario", "get");
+    this.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+    this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+    this.warmUpSeconds = Integer.parseInt(options.getOrDefault("warm-up", "10"));
+    this.recorder = new Recorder(TimeUnit.MINUTES.toMicros(1L), 3);
+    this.requests = new AtomicLong();
+    this.errors = new AtomicLong();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("expected --name value but got: " + args[i]);
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    new LoadTest(options).run();
+  }
+
+  private void run() throws IOException, LifecycleException, InterruptedException {
+    Path baseDirectory = Files.createTempDirectory("seaside-loadtest");
+    Tomcat tomcat = this.startTomcat(baseDirectory);
+    try {
+      int port = tomcat.getConnector().getLocalPort();
+      URI base = URI.create("http://localhost:" + port + "/");
+      HttpClient client = HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .build();
+      HttpRequest request = this.newRequest(base);
+
+      System.out.println("warming up for " + this.warmUpSeconds + " s");
+      this.drive(client, request, this.warmUpSeconds);
+      this.recorder.getIntervalHistogram();
+      this.requests.set(0L);
+      this.errors.set(0L);
+
+      System.out.println("measuring for " + this.durationSeconds + " s");
+      long start = System.nanoTime();
+      this.drive(client, request, this.durationSeconds);
+      long elapsed = System.nanoTime() - start;
+      this.report(this.recorder.getIntervalHistogram(), elapsed);
+    } finally {
+      tomcat.stop();
+      tomcat.destroy();
+    }
+  }
+
+  private Tomcat startTomcat(Path baseDirectory) throws IOException, LifecycleException {
+    Path documentBase = Files.createDirectories(baseDirectory.resolve("webapp"));
+    Servlet servlet;
+    String imagePath;
+    String image = this.options.get("image");
+    if (image != null) {
+      Path imageFile = Path.of(image).toAbsolutePath();
+      documentBase = imageFile.getParent();
+      imagePath = "/" + imageFile.getFileName();
+      servlet = new SeasideGraalSqueakBridgeServlet();
+    } else {
+      Files.createFile(documentBase.resolve(STAND_IN_IMAGE));
+      imagePath = "/" + STAND_IN_IMAGE;
+      long imageWorkNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(this.options.getOrDefault("image-work", "500")));
+      long blockingWorkNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(this.options.getOrDefault("blocking-work", "0")));
+      int pageSize = Integer.parseInt(this.options.getOrDefault("page-size", "8192"));
+      servlet = new StandInBridgeServlet(imageWorkNanos, blockingWorkNanos, pageSize);
+    }
+
+    Tomcat tomcat = new Tomcat();
+    tomcat.setBaseDir(baseDirectory.toString());
+    tomcat.setPort(0);
+    tomcat.getConnector();
+    Context context = tomcat.addContext("", documentBase.toString());
+    Wrapper wrapper = Tomcat.addServlet(context, SERVLET_NAME, servlet);
+    wrapper.addInitParameter("smalltalk.ImagePath", imagePath);
+    for (Map.Entry<String, String> option : this.options.entrySet()) {
+      if (option.getKey().startsWith("seaside.") || option.getKey().startsWith("engine.")) {
+        wrapper.addInitParameter(option.getKey(), option.getValue());
+      }
+    }
+    wrapper.setAsyncSupported(true);
+    wrapper.setLoadOnStartup(1);
+    wrapper.setMultipartConfigElement(new MultipartConfigElement(""));
+    context.addServletMappingDecoded("/*", SERVLET_NAME);
+    tomcat.start();
+    return tomcat;
+  }
+
+  private HttpRequest newRequest(URI base) {
+    switch (this.scenario) {
+      case "get":
+        return HttpRequest.newBuilder(base.resolve("page?_s=0_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob"))
+            .GET()
+            .build();
+      case "shared":
+        return HttpRequest.newBuilder(base.resolve("page"))
+            .GET()
+            .build();
+      case "post":
+        return HttpRequest.newBuilder(base.resolve("form?_s=0_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob"))
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(BodyPublishers.ofString(formBody()))
+            .build();
+      case "upload":
+        int uploadSize = Integer.parseInt(this.options.getOrDefault("upload-size", "65536"));
+        String boundary = "----seaside-loadtest-boundary";
+        return HttpRequest.newBuilder(base.resolve("upload?_s=0_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob"))
+            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+            .POST(BodyPublishers.ofByteArray(multipartBody(boundary, uploadSize)))
+            .build();
+      default:
+        throw new IllegalArgumentException("unknown scenario: " + this.scenario);
+    }
+  }
+
+  private static String formBody() {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      if (i > 0) {
+        body.append('&');
+      }
+      body.append(i).append("=value+").append(i);
+    }
+    return body.toString();
+  }
+
+  private static byte[] multipartBody(String boundary, int uploadSize) {
+    byte[] contents = new byte[uploadSize];
+    ThreadLocalRandom.current().nextBytes(contents);
+    ByteArrayOutputStream body = new ByteArrayOutputStream(uploadSize + 512);
+    String header = "--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"caption\"\r\n\r\n"
+        + "load test\r\n"
+        + "--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"upload.bin\"\r\n"
+        + "Content-Type: application/octet-stream\r\n\r\n";
+    body.writeBytes(header.getBytes(StandardCharsets.US_ASCII));
+    body.writeBytes(contents);
+    body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    return body.toByteArray();
+  }
+
+  private void drive(HttpClient client, HttpRequest request, int seconds) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Thread> clients = new ArrayList<>(this.threads);
+    for (int i = 0; i < this.threads; i++) {
+      Thread thread = new Thread(() -> this.sendUntil(client, request, deadline), "loadtest-client-" + i);
+      thread.start();
+      clients.add(thread);
+    }
+    for (Thread thread : clients) {
+      thread.join();
+    }
+  }
+
+  private void sendUntil(HttpClient client, HttpRequest request, long deadline) {
+    while (System.nanoTime() - deadline < 0L) {
+      long start = System.nanoTime();
+      try {
+        HttpResponse<Void> response = client.send(request, BodyHandlers.discarding());
+        if (response.statusCode() >= 400) {
+          this.errors.incrementAndGet();
+        }
+      } catch (IOException e) {
+        this.errors.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      this.recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), TimeUnit.MINUTES.toMicros(1L)));
+      this.requests.incrementAndGet();
+    }
+  }
+
+  private void report(Histogram histogram, long elapsedNanos) {
+    double seconds = elapsedNanos / 1_000_000_000.0d;
+    System.out.printf("scenario: %s, threads: %d, duration: %.1f s%n", this.scenario, this.threads, seconds);
+    System.out.printf("requests: %d, errors: %d, throughput: %.1f requests/s%n",
+        this.requests.get(), this.errors.get(), this.requests.get() / seconds);
+    System.out.printf("latency ms: mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+        histogram.getMean() / 1000.0d,
+        histogram.getValueAtPercentile(50.0d) / 1000.0d,
+        histogram.getValueAtPercentile(90.0d) / 1000.0d,
+        histogram.getValueAtPercentile(99.0d) / 1000.0d,
+        histogram.getValueAtPercentile(99.9d) / 1000.0d,
+        histogram.getMaxValue() / 1000.0d);
+  }
+
+}
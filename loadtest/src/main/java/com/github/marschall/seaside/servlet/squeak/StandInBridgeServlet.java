@@ -0,0 +1,41 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.Map;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+/**
+ * A {@link SeasideGraalSqueakBridgeServlet} that uses a
+ * {@link StandInSeasideAdaptor} in a host only context instead of
+ * loading a Squeak image.
+ */
+final class StandInBridgeServlet extends SeasideGraalSqueakBridgeServlet {
+
+  private final long imageWorkNanos;
+
+  private final long blockingWorkNanos;
+
+  private final int pageSize;
+
+  StandInBridgeServlet(long imageWorkNanos, long blockingWorkNanos, int pageSize) {
+    this.imageWorkNanos = imageWorkNanos;
+    this.blockingWorkNanos = blockingWorkNanos;
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  Context loadSqueakImage(String imageLocation, Map<String, String> engineOptions) {
+    return Context.newBuilder()
+        .allowAllAccess(true)
+        .option("engine.WarnInterpreterOnly", "false")
+        .options(engineOptions)
+        .build();
+  }
+
+  @Override
+  Value registerServerAdaptor(Context graalContext) {
+    return graalContext.asValue(new StandInSeasideAdaptor(this.imageWorkNanos, this.blockingWorkNanos, this.pageSize));
+  }
+
+}
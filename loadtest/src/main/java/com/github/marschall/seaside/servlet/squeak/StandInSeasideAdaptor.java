@@ -0,0 +1,261 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+/**
+ * Stands in for {@code WAServletServerAdaptor} so that the bridge can be
+ * load tested without TruffleSqueak.
+ * <p>
+ * Reads the request snapshot the way the Smalltalk side does, including
+ * the contents of uploaded files, spins for a configurable time to
+ * simulate rendering in the image, optionally sleeps in a host call to
+ * simulate blocking IO and answers a fixed HTML page.
+ */
+final class StandInSeasideAdaptor implements ProxyObject {
+
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  private final long imageWorkNanos;
+
+  private final long blockingWorkNanos;
+
+  private final String page;
+
+  private volatile HostCalls hostCalls;
+
+  StandInSeasideAdaptor(long imageWorkNanos, long blockingWorkNanos, int pageSize) {
+    this.imageWorkNanos = imageWorkNanos;
+    this.blockingWorkNanos = blockingWorkNanos;
+    this.page = page(pageSize);
+  }
+
+  private static String page(int pageSize) {
+    StringBuilder page = new StringBuilder(pageSize + 64);
+    page.append("<!DOCTYPE html><html><head><title>Stand-in</title></head><body>");
+    int line = 0;
+    while (page.length() < pageSize) {
+      page.append("<p><a href=\"?_s=0_eYKKM3Gl3XzVM5T&amp;_k=JIp_6FO_QQ26nQob&amp;").append(line).append("\">link ")
+        .append(line).append("</a></p>");
+      line += 1;
+    }
+    page.append("</body></html>");
+    return page.toString();
+  }
+
+  @Override
+  public Object getMember(String key) {
+    switch (key) {
+      case "process:":
+        return (ProxyExecutable) arguments -> {
+          this.process(arguments[0].asHostObject());
+          return null;
+        };
+      case "startProcess:signal:":
+        return (ProxyExecutable) arguments -> new StandInRequestProcess(arguments[0].asHostObject(), arguments[1].asHostObject());
+      case "hostCalls:":
+        return (ProxyExecutable) arguments -> {
+          this.hostCalls = arguments[0].asHostObject();
+          return null;
+        };
+      case "keyPrefix:":
+      case "streaming:":
+      case "encodeInJava":
+      case "registerMBeanWithLock:maintenance:":
+      case "reapSessions":
+        return (ProxyExecutable) arguments -> null;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public Object getMemberKeys() {
+    return new String[] {"process:", "startProcess:signal:", "hostCalls:", "keyPrefix:", "streaming:", "encodeInJava", "registerMBeanWithLock:maintenance:", "reapSessions"};
+  }
+
+  @Override
+  public boolean hasMember(String key) {
+    return this.getMember(key) != null;
+  }
+
+  @Override
+  public void putMember(String key, Value value) {
+    throw new UnsupportedOperationException();
+  }
+
+  private void process(ServletNativeRequest nativeRequest) {
+    int read = this.readRequest(nativeRequest);
+    this.simulateImageWork();
+    this.simulateBlockingWork();
+    this.respond(nativeRequest, read);
+  }
+
+  private void respond(ServletNativeRequest nativeRequest, int read) {
+    nativeRequest.setResponseStatus(200, "OK");
+    nativeRequest.addHeader("Content-Type", "text/html;charset=utf-8");
+    nativeRequest.addHeader("X-Read-Characters", Integer.toString(read));
+    nativeRequest.setResponseContentsAsString(this.page);
+  }
+
+  private int readRequest(ServletNativeRequest nativeRequest) {
+    int read = nativeRequest.getRequestMethod().length();
+    read += nativeRequest.getUrlScheme().length();
+    read += nativeRequest.getUrlHost().length();
+    read += length(nativeRequest.getContextPath());
+    read += length(nativeRequest.getUrlPath());
+    read += length(nativeRequest.getUrlQuery());
+    read += length(nativeRequest.getRequestHeaders());
+    read += length(nativeRequest.getCookies());
+    read += length(nativeRequest.getRequestFields());
+    String body = nativeRequest.getRequestBody();
+    if (body != null) {
+      read += body.length();
+    }
+    for (FormPart formPart : nativeRequest.getFormParts()) {
+      if (formPart.isFile()) {
+        read += readContents((FilePart) formPart);
+      }
+    }
+    return read;
+  }
+
+  private static int readContents(FilePart filePart) {
+    if (!filePart.isSpilled()) {
+      return filePart.getContents().length();
+    }
+    int read = 0;
+    try {
+      long size = filePart.getSize();
+      for (long position = 0L; position < size; position += CHUNK_SIZE) {
+        read += filePart.readChunk(position, CHUNK_SIZE).length();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return read;
+  }
+
+  private static int length(String[] namesAndValues) {
+    int length = 0;
+    for (String each : namesAndValues) {
+      if (each != null) {
+        length += each.length();
+      }
+    }
+    return length;
+  }
+
+  private void simulateImageWork() {
+    long end = System.nanoTime() + this.imageWorkNanos;
+    while (System.nanoTime() - end < 0L) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private Callable<Object> blockingWork() {
+    return () -> {
+      TimeUnit.NANOSECONDS.sleep(this.blockingWorkNanos);
+      return null;
+    };
+  }
+
+  private void simulateBlockingWork() {
+    if (this.blockingWorkNanos == 0L) {
+      return;
+    }
+    try {
+      // like a JDBC query without seaside.HostCalls, blocks the image
+      this.blockingWork().call();
+    } catch (Exception e) {
+      throw new IllegalStateException("blocking work failed", e);
+    }
+  }
+
+  /**
+   * Stands in for a {@code WAServletRequestProcess}, the request is
+   * processed in two steps around the host call instead of in a
+   * Smalltalk process.
+   */
+  final class StandInRequestProcess implements ProxyObject {
+
+    private final ServletNativeRequest nativeRequest;
+
+    private final int read;
+
+    private HostCalls.HostCall hostCall;
+
+    private boolean done;
+
+    StandInRequestProcess(ServletNativeRequest nativeRequest, Semaphore signal) {
+      this.nativeRequest = nativeRequest;
+      this.read = readRequest(nativeRequest);
+      simulateImageWork();
+      if (blockingWorkNanos == 0L) {
+        this.finish();
+      } else {
+        this.hostCall = hostCalls.submit(blockingWork(), signal);
+      }
+    }
+
+    private void finish() {
+      respond(this.nativeRequest, this.read);
+      this.done = true;
+    }
+
+    private void resume() {
+      if (this.hostCall != null && this.hostCall.isDone()) {
+        try {
+          this.hostCall.result();
+        } catch (Exception e) {
+          throw new IllegalStateException("blocking work failed", e);
+        }
+        this.hostCall = null;
+        this.finish();
+      }
+    }
+
+    @Override
+    public Object getMember(String key) {
+      switch (key) {
+        case "isDone":
+          return (ProxyExecutable) arguments -> this.done;
+        case "isWaitingForHostCall":
+          return (ProxyExecutable) arguments -> this.hostCall != null;
+        case "resume":
+          return (ProxyExecutable) arguments -> {
+            this.resume();
+            return null;
+          };
+        case "signalFailure":
+          return (ProxyExecutable) arguments -> null;
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public Object getMemberKeys() {
+      return new String[] {"isDone", "isWaitingForHostCall", "resume", "signalFailure"};
+    }
+
+    @Override
+    public boolean hasMember(String key) {
+      return this.getMember(key) != null;
+    }
+
+    @Override
+    public void putMember(String key, Value value) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a request may wait for a context or has to be shed.
+ * <p>
+ * Shedding requests early keeps the latency bounded for the requests
+ * that are admitted instead of letting every request wait longer. With
+ * session priority enabled only half of the queue is available to
+ * requests without a session so that users already in a session are
+ * shed last.
+ */
+final class AdmissionPolicy {
+
+  /**
+   * Value for no limit.
+   */
+  static final int UNLIMITED = 0;
+
+  private final int maxQueueDepth;
+
+  private final int maxNewSessionQueueDepth;
+
+  private final long maxWaitNanos;
+
+  private final int retryAfterSeconds;
+
+  private final boolean sessionPriority;
+
+  /**
+   * Constructs a new {@link AdmissionPolicy}.
+   *
+   * @param maxQueueDepth the maximum number of requests waiting for a
+   *                      context, {@link #UNLIMITED} for no limit
+   * @param maxWaitMillis the maximum time in milliseconds a request waits
+   *                      for a context, {@link #UNLIMITED} for no limit
+   * @param retryAfterSeconds the value of the {@code Retry-After} header of shed requests
+   * @param sessionPriority whether requests with a session should be shed after
+   *                        requests without a session
+   */
+  AdmissionPolicy(int maxQueueDepth, int maxWaitMillis, int retryAfterSeconds, boolean sessionPriority) {
+    if (maxQueueDepth < 0) {
+      throw new IllegalArgumentException("negative queue depth");
+    }
+    if (maxWaitMillis < 0) {
+      throw new IllegalArgumentException("negative wait time");
+    }
+    this.maxQueueDepth = maxQueueDepth;
+    if (sessionPriority && maxQueueDepth != UNLIMITED) {
+      this.maxNewSessionQueueDepth = Math.max(maxQueueDepth / 2, 1);
+    } else {
+      this.maxNewSessionQueueDepth = maxQueueDepth;
+    }
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.retryAfterSeconds = retryAfterSeconds;
+    this.sessionPriority = sessionPriority;
+  }
+
+  /**
+   * Returns a policy that admits every request.
+   *
+   * @return a policy without any limits
+   */
+  static AdmissionPolicy unlimited() {
+    return new AdmissionPolicy(UNLIMITED, UNLIMITED, 1, false);
+  }
+
+  /**
+   * Whether requests have to be classified into requests with and without a session.
+   *
+   * @return whether session priority is enabled
+   */
+  boolean isSessionPriority() {
+    return this.sessionPriority;
+  }
+
+  int getRetryAfterSeconds() {
+    return this.retryAfterSeconds;
+  }
+
+  boolean hasMaxWait() {
+    return this.maxWaitNanos != UNLIMITED;
+  }
+
+  long getMaxWaitNanos() {
+    return this.maxWaitNanos;
+  }
+
+  /**
+   * Decides whether a request may wait for a context.
+   *
+   * @param pendingRequests the number of requests pending for the context
+   *                        including the request to admit
+   * @param newSession whether the request does not belong to a session
+   * @return whether the request may wait for the context
+   */
+  boolean admits(int pendingRequests, boolean newSession) {
+    int limit = newSession ? this.maxNewSessionQueueDepth : this.maxQueueDepth;
+    if (limit == UNLIMITED) {
+      return true;
+    }
+    // one request is being processed, all others are waiting
+    return pendingRequests - 1 <= limit;
+  }
+
+}
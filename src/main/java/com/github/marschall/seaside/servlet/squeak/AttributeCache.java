@@ -0,0 +1,232 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.Descriptor;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.ReflectionException;
+
+/**
+ * Caches the attribute values of a {@link SqueakObjectMBean}.
+ * <p>
+ * Attributes with a {@code currencyTimeLimit} descriptor field, in
+ * seconds with {@code -1} meaning forever, are cached so that polling
+ * by monitoring does not contend with requests for the image lock. A
+ * stale value is only refreshed if the lock is free, otherwise it is
+ * returned as is. Attributes without a cached value always wait for
+ * the lock.
+ */
+final class AttributeCache {
+
+  /**
+   * Lock through which all access to Squeak objects happens.
+   */
+  private final Lock lock;
+
+  /**
+   * Names of all readable attributes.
+   */
+  private final Set<String> attributeNames;
+
+  /**
+   * Time to live in nanoseconds of cacheable attributes.
+   */
+  private final Map<String, Long> timesToLive;
+
+  /**
+   * Last read values of cacheable attributes.
+   */
+  private final Map<String, CachedAttribute> cache;
+
+  AttributeCache(MBeanAttributeInfo[] attributeInfos, Lock lock) {
+    this.lock = lock;
+    this.attributeNames = new HashSet<>();
+    this.timesToLive = new HashMap<>();
+    for (MBeanAttributeInfo attributeInfo : attributeInfos) {
+      if (attributeInfo.isReadable()) {
+        this.attributeNames.add(attributeInfo.getName());
+        long timeToLive = getTimeToLive(attributeInfo.getDescriptor());
+        if (timeToLive > 0L) {
+          this.timesToLive.put(attributeInfo.getName(), timeToLive);
+        }
+      }
+    }
+    this.cache = new ConcurrentHashMap<>();
+  }
+
+  private static long getTimeToLive(Descriptor descriptor) {
+    Object currencyTimeLimit = descriptor.getFieldValue("currencyTimeLimit");
+    if (currencyTimeLimit == null) {
+      return 0L;
+    }
+    long seconds;
+    try {
+      seconds = Long.parseLong(currencyTimeLimit.toString().trim());
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+    if (seconds == -1L) {
+      // never stale
+      return Long.MAX_VALUE;
+    }
+    return seconds > 0L ? TimeUnit.SECONDS.toNanos(seconds) : 0L;
+  }
+
+  /**
+   * Returns the value of an attribute, from the cache if possible.
+   *
+   * @param attributeName the name of the attribute
+   * @param reader reads the attribute from the image, called with the lock held
+   * @param now the value of {@link System#nanoTime()}
+   * @return the value of the attribute
+   * @throws AttributeNotFoundException if thrown by {@code reader}
+   * @throws MBeanException if thrown by {@code reader}
+   * @throws ReflectionException if thrown by {@code reader}
+   */
+  Object get(String attributeName, AttributeReader reader, long now)
+      throws AttributeNotFoundException, MBeanException, ReflectionException {
+    CachedAttribute cached = this.cache.get(attributeName);
+    if (cached != null) {
+      if (cached.isFresh(now)) {
+        return cached.value;
+      }
+      if (!this.lock.tryLock()) {
+        // stale while revalidate, don't wait behind a long request
+        return cached.value;
+      }
+    } else {
+      this.lock.lock();
+    }
+    try {
+      Object value = reader.read(attributeName);
+      this.put(attributeName, value, now);
+      return value;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the values of several attributes, reading all that are not
+   * cached or stale with a single call.
+   *
+   * @param attributeNames the names of the attributes
+   * @param reader reads the attributes from the image, called with the lock held
+   * @param now the value of {@link System#nanoTime()}
+   * @return the values by attribute name, attributes that could not be read are missing
+   */
+  Map<String, Object> getAll(String[] attributeNames, AttributesReader reader, long now) {
+    Map<String, Object> values = new HashMap<>(attributeNames.length * 2);
+    List<String> stale = new ArrayList<>(attributeNames.length);
+    boolean missing = false;
+    for (String attributeName : attributeNames) {
+      CachedAttribute cached = this.cache.get(attributeName);
+      if (cached != null) {
+        values.put(attributeName, cached.value);
+        if (!cached.isFresh(now)) {
+          stale.add(attributeName);
+        }
+      } else if (this.attributeNames.contains(attributeName)) {
+        stale.add(attributeName);
+        missing = true;
+      }
+    }
+    if (!stale.isEmpty()) {
+      if (missing) {
+        this.lock.lock();
+      } else if (!this.lock.tryLock()) {
+        // stale while revalidate, don't wait behind a long request
+        return values;
+      }
+      try {
+        Map<String, Object> read = reader.read(stale);
+        for (Map.Entry<String, Object> entry : read.entrySet()) {
+          this.put(entry.getKey(), entry.getValue(), now);
+        }
+        values.putAll(read);
+      } finally {
+        this.lock.unlock();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Caches the value of an attribute if it has a {@code currencyTimeLimit}.
+   *
+   * @param attributeName the name of the attribute
+   * @param value the value read from the image
+   * @param now the value of {@link System#nanoTime()} when the value was read
+   */
+  void put(String attributeName, Object value, long now) {
+    Long timeToLive = this.timesToLive.get(attributeName);
+    if (timeToLive != null) {
+      this.cache.put(attributeName, new CachedAttribute(value, now, timeToLive));
+    }
+  }
+
+  void remove(String attributeName) {
+    this.cache.remove(attributeName);
+  }
+
+  void clear() {
+    this.cache.clear();
+  }
+
+  /**
+   * Reads a single attribute from the image.
+   */
+  @FunctionalInterface
+  interface AttributeReader {
+
+    Object read(String attributeName) throws AttributeNotFoundException, MBeanException, ReflectionException;
+
+  }
+
+  /**
+   * Reads several attributes from the image.
+   */
+  @FunctionalInterface
+  interface AttributesReader {
+
+    /**
+     * Reads the attributes.
+     *
+     * @param attributeNames the names of the attributes
+     * @return the values by attribute name, attributes that could not be read are missing
+     */
+    Map<String, Object> read(List<String> attributeNames);
+
+  }
+
+  private static final class CachedAttribute {
+
+    final Object value;
+
+    private final long readAt;
+
+    private final long timeToLive;
+
+    CachedAttribute(Object value, long readAt, long timeToLive) {
+      this.value = value;
+      this.readAt = readAt;
+      this.timeToLive = timeToLive;
+    }
+
+    boolean isFresh(long now) {
+      return now - this.readAt < this.timeToLive;
+    }
+
+  }
+
+}
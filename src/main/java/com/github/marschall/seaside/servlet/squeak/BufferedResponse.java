@@ -0,0 +1,182 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Records the response Seaside generates so that it can be written to
+ * the client after the image lock has been released.
+ * <p>
+ * Writing to a slow client can take a long time, this must not
+ * happen while other requests wait for the image.
+ */
+final class BufferedResponse {
+
+  private int status;
+
+  /**
+   * Alternating header names and values.
+   */
+  private final List<String> headers;
+
+  private final List<Cookie> cookies;
+
+  private String textBody;
+
+  private byte[] binaryBody;
+
+  BufferedResponse() {
+    this.status = HttpServletResponse.SC_OK;
+    this.headers = new ArrayList<>();
+    this.cookies = new ArrayList<>(2);
+  }
+
+  int getStatus() {
+    return this.status;
+  }
+
+  void setStatus(int status) {
+    this.status = status;
+  }
+
+  void addHeader(String name, String value) {
+    Objects.requireNonNull(name, "name");
+    this.headers.add(name);
+    this.headers.add(value);
+  }
+
+  /**
+   * Replaces all values of a header.
+   *
+   * @param name the header name, case insensitive
+   * @param value the new value
+   */
+  void setHeader(String name, String value) {
+    this.removeHeader(name);
+    this.addHeader(name, value);
+  }
+
+  /**
+   * Removes all values of a header.
+   *
+   * @param name the header name, case insensitive
+   */
+  void removeHeader(String name) {
+    Objects.requireNonNull(name, "name");
+    for (int i = this.headers.size() - 2; i >= 0; i -= 2) {
+      if (this.headers.get(i).equalsIgnoreCase(name)) {
+        this.headers.remove(i + 1);
+        this.headers.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Returns all headers.
+   *
+   * @return alternating header names and values
+   */
+  List<String> getHeaders() {
+    return Collections.unmodifiableList(this.headers);
+  }
+
+  /**
+   * Returns the first value of a header.
+   *
+   * @param name the header name, case insensitive
+   * @return the first value, {@code null} if not present
+   */
+  String getHeader(String name) {
+    for (int i = 0; i < this.headers.size(); i += 2) {
+      if (this.headers.get(i).equalsIgnoreCase(name)) {
+        return this.headers.get(i + 1);
+      }
+    }
+    return null;
+  }
+
+  void addCookie(Cookie cookie) {
+    Objects.requireNonNull(cookie, "cookie");
+    this.cookies.add(cookie);
+  }
+
+  List<Cookie> getCookies() {
+    return Collections.unmodifiableList(this.cookies);
+  }
+
+  boolean hasCookies() {
+    return !this.cookies.isEmpty();
+  }
+
+  String getTextBody() {
+    return this.textBody;
+  }
+
+  byte[] getBinaryBody() {
+    return this.binaryBody;
+  }
+
+  void setTextBody(String textBody) {
+    this.textBody = textBody;
+    this.binaryBody = null;
+  }
+
+  void setBinaryBody(byte[] binaryBody) {
+    this.binaryBody = binaryBody;
+    this.textBody = null;
+  }
+
+  /**
+   * Creates a copy whose headers can be changed independently of this
+   * response, the bodies are shared as they are never modified.
+   *
+   * @return the copy
+   */
+  BufferedResponse copy() {
+    BufferedResponse copy = new BufferedResponse();
+    copy.status = this.status;
+    copy.headers.addAll(this.headers);
+    copy.cookies.addAll(this.cookies);
+    copy.textBody = this.textBody;
+    copy.binaryBody = this.binaryBody;
+    return copy;
+  }
+
+  /**
+   * Writes the recorded response to the servlet response.
+   *
+   * @param response the response to write to
+   * @throws IOException if writing to the client fails
+   */
+  void writeTo(HttpServletResponse response) throws IOException {
+    this.writeHeadersTo(response);
+    if (this.textBody != null) {
+      response.getWriter().append(this.textBody);
+    } else if (this.binaryBody != null) {
+      response.getOutputStream().write(this.binaryBody);
+    }
+  }
+
+  /**
+   * Writes the recorded status, headers and cookies but not the body to
+   * the servlet response.
+   *
+   * @param response the response to write to
+   */
+  void writeHeadersTo(HttpServletResponse response) {
+    response.setStatus(this.status);
+    for (int i = 0; i < this.headers.size(); i += 2) {
+      response.addHeader(this.headers.get(i), this.headers.get(i + 1));
+    }
+    for (Cookie cookie : this.cookies) {
+      response.addCookie(cookie);
+    }
+  }
+
+}
@@ -0,0 +1,376 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * An immutable response to a {@code GET} request that can be served
+ * without entering the image.
+ * <p>
+ * Carries a strong entity tag and optionally a gzip compressed variant
+ * of the body with its own entity tag.
+ */
+final class CachedResource {
+
+  private static final String GZIP = "gzip";
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Headers that are not replayed because they are either recomputed or
+   * must not be shared between clients.
+   */
+  private static final List<String> EXCLUDED_HEADERS = List.of(
+      "age", "content-length", "date", "etag", "set-cookie");
+
+  private static final String[] NO_STRINGS = new String[0];
+
+  /**
+   * Alternating header names and values.
+   */
+  private final String[] headers;
+
+  private final byte[] body;
+
+  private final String entityTag;
+
+  /**
+   * Gzip compressed {@link #body}, {@code null} if not compressed.
+   */
+  private final byte[] gzipBody;
+
+  private final String gzipEntityTag;
+
+  CachedResource(String[] headers, byte[] body, String entityTag, byte[] gzipBody, String gzipEntityTag) {
+    this.headers = headers;
+    this.body = body;
+    this.entityTag = entityTag;
+    this.gzipBody = gzipBody;
+    this.gzipEntityTag = gzipEntityTag;
+  }
+
+  /**
+   * Creates a resource from a response generated by Seaside.
+   * <p>
+   * An entity tag set by Seaside is kept, otherwise one is computed
+   * from the body.
+   *
+   * @param response the response Seaside generated
+   * @param defaultCharset the charset of text responses without a charset in the content type
+   * @param gzip whether a gzip compressed variant should be kept if the response is compressible
+   * @return the resource, {@code null} if the response has no body
+   */
+  static CachedResource from(BufferedResponse response, Charset defaultCharset, boolean gzip) {
+    String contentType = response.getHeader("Content-Type");
+    byte[] body = getBody(response, contentType, defaultCharset);
+    if (body == null) {
+      return null;
+    }
+    String entityTag = response.getHeader("ETag");
+    if (entityTag == null || entityTag.startsWith("W/")) {
+      entityTag = entityTag(body);
+    }
+    byte[] gzipBody = null;
+    String gzipEntityTag = null;
+    // a body encoded by Seaside is replayed with its Content-Encoding as is
+    if (gzip && response.getHeader("Content-Encoding") == null && isCompressible(contentType)) {
+      byte[] compressed = gzip(body);
+      if (compressed.length < body.length) {
+        gzipBody = compressed;
+        // the variants are different representations so they need different tags
+        gzipEntityTag = entityTag.substring(0, entityTag.length() - 1) + "-gzip\"";
+      }
+    }
+    return new CachedResource(replayedHeaders(response, gzipBody != null), body, entityTag, gzipBody, gzipEntityTag);
+  }
+
+  /**
+   * Creates a copy with the headers of a {@code 304} response merged in.
+   * Headers of the {@code 304} replace the stored headers with the same
+   * name, the bodies are kept.
+   *
+   * @param notModified the {@code 304} response Seaside generated
+   * @return the updated resource
+   */
+  CachedResource withHeaders(BufferedResponse notModified) {
+    List<String> updates = replayableHeaders(notModified.getHeaders(), this.gzipBody != null);
+    List<String> merged = new ArrayList<>(this.headers.length + updates.size());
+    for (int i = 0; i < this.headers.length; i += 2) {
+      if (!containsHeader(updates, this.headers[i])) {
+        merged.add(this.headers[i]);
+        merged.add(this.headers[i + 1]);
+      }
+    }
+    merged.addAll(updates);
+    return new CachedResource(merged.toArray(NO_STRINGS), this.body, this.entityTag, this.gzipBody, this.gzipEntityTag);
+  }
+
+  String getEntityTag() {
+    return this.entityTag;
+  }
+
+  /**
+   * Returns the approximate number of bytes retained by this resource.
+   *
+   * @return the size of all bodies in bytes
+   */
+  int getSize() {
+    int size = this.body.length;
+    if (this.gzipBody != null) {
+      size += this.gzipBody.length;
+    }
+    return size;
+  }
+
+  /**
+   * Writes the resource, or a 304 if the client already has it, to the response.
+   *
+   * @param request the request for the resource, {@code GET} or {@code HEAD}
+   * @param response the response to write to
+   * @throws IOException if writing to the client fails
+   */
+  void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    boolean gzip = this.gzipBody != null && acceptsGzip(request.getHeader("Accept-Encoding"));
+    String tag = gzip ? this.gzipEntityTag : this.entityTag;
+    for (int i = 0; i < this.headers.length; i += 2) {
+      response.addHeader(this.headers[i], this.headers[i + 1]);
+    }
+    response.setHeader("ETag", tag);
+    if (this.matches(request.getHeader("If-None-Match"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_OK);
+    byte[] contents = gzip ? this.gzipBody : this.body;
+    if (gzip) {
+      response.setHeader("Content-Encoding", GZIP);
+    }
+    response.setContentLength(contents.length);
+    if (!"HEAD".equals(request.getMethod())) {
+      response.getOutputStream().write(contents);
+    }
+  }
+
+  /**
+   * Checks whether an {@code If-None-Match} header matches any variant.
+   *
+   * @param ifNoneMatch the value of the header, may be {@code null}
+   * @return whether the client already has the resource
+   */
+  boolean matches(String ifNoneMatch) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    int length = ifNoneMatch.length();
+    int position = 0;
+    while (position < length) {
+      char c = ifNoneMatch.charAt(position);
+      if (c == ' ' || c == '\t' || c == ',') {
+        position += 1;
+      } else if (c == '*') {
+        return true;
+      } else {
+        // W/ prefixes are irrelevant as If-None-Match uses the weak comparison
+        int tagStart = ifNoneMatch.startsWith("W/", position) ? position + 2 : position;
+        if (tagStart < length && ifNoneMatch.charAt(tagStart) == '"') {
+          int tagEnd = ifNoneMatch.indexOf('"', tagStart + 1);
+          if (tagEnd == -1) {
+            return false;
+          }
+          if (this.isEntityTag(ifNoneMatch, tagStart, tagEnd + 1)) {
+            return true;
+          }
+          position = tagEnd + 1;
+        } else {
+          // not an entity tag, skip to the next one
+          int next = ifNoneMatch.indexOf(',', position);
+          position = next == -1 ? length : next + 1;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isEntityTag(String value, int start, int end) {
+    return isTag(this.entityTag, value, start, end)
+        || (this.gzipEntityTag != null && isTag(this.gzipEntityTag, value, start, end));
+  }
+
+  private static boolean isTag(String tag, String value, int start, int end) {
+    return tag.length() == end - start && value.startsWith(tag, start);
+  }
+
+  /**
+   * Checks whether an {@code Accept-Encoding} header allows gzip.
+   *
+   * @param acceptEncoding the value of the header, may be {@code null}
+   * @return whether a gzip compressed body may be sent
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      int parameterStart = coding.indexOf(';');
+      String name = parameterStart == -1 ? coding.trim() : coding.substring(0, parameterStart).trim();
+      if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+        return parameterStart == -1 || !isZeroQuality(coding.substring(parameterStart + 1));
+      }
+    }
+    return false;
+  }
+
+  private static boolean isZeroQuality(String parameters) {
+    String trimmed = parameters.trim();
+    if (!trimmed.startsWith("q=")) {
+      return false;
+    }
+    try {
+      return Double.parseDouble(trimmed.substring(2).trim()) == 0.0d;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static byte[] getBody(BufferedResponse response, String contentType, Charset defaultCharset) {
+    byte[] binaryBody = response.getBinaryBody();
+    if (binaryBody != null) {
+      return binaryBody;
+    }
+    String textBody = response.getTextBody();
+    if (textBody != null) {
+      return textBody.getBytes(getCharset(contentType, defaultCharset));
+    }
+    return null;
+  }
+
+  static Charset getCharset(String contentType, Charset defaultCharset) {
+    if (contentType != null) {
+      int charsetStart = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+      if (charsetStart != -1) {
+        int charsetEnd = contentType.indexOf(';', charsetStart);
+        String charsetName = contentType.substring(charsetStart + "charset=".length(),
+            charsetEnd == -1 ? contentType.length() : charsetEnd).trim();
+        try {
+          return Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+          // fall back to the default, same as the container
+        }
+      }
+    }
+    return defaultCharset;
+  }
+
+  private static String[] replayedHeaders(BufferedResponse response, boolean gzipVariant) {
+    List<String> replayed = replayableHeaders(response.getHeaders(), gzipVariant);
+    if (gzipVariant && !containsHeader(replayed, "Vary")) {
+      replayed.add("Vary");
+      replayed.add("Accept-Encoding");
+    }
+    return replayed.toArray(NO_STRINGS);
+  }
+
+  /**
+   * Filters the headers that are replayed.
+   *
+   * @param headers alternating header names and values
+   * @param gzipVariant whether there is a gzip compressed variant, then
+   *                    {@code Vary} has to include {@code Accept-Encoding}
+   * @return alternating header names and values
+   */
+  private static List<String> replayableHeaders(List<String> headers, boolean gzipVariant) {
+    List<String> replayable = new ArrayList<>(headers.size());
+    for (int i = 0; i < headers.size(); i += 2) {
+      String name = headers.get(i);
+      String lowerCaseName = name.toLowerCase(Locale.ROOT);
+      if (!EXCLUDED_HEADERS.contains(lowerCaseName)) {
+        String value = headers.get(i + 1);
+        replayable.add(name);
+        replayable.add(gzipVariant && lowerCaseName.equals("vary") ? addAcceptEncoding(value) : value);
+      }
+    }
+    return replayable;
+  }
+
+  private static boolean containsHeader(List<String> headers, String name) {
+    for (int i = 0; i < headers.size(); i += 2) {
+      if (headers.get(i).equalsIgnoreCase(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds {@code Accept-Encoding} to the value of a {@code Vary} header.
+   *
+   * @param vary the value of the header, may be {@code null}
+   * @return the value including {@code Accept-Encoding}
+   */
+  static String addAcceptEncoding(String vary) {
+    if (vary == null || vary.isBlank()) {
+      return "Accept-Encoding";
+    }
+    for (String name : vary.split(",")) {
+      String trimmed = name.trim();
+      if (trimmed.equals("*") || trimmed.equalsIgnoreCase("Accept-Encoding")) {
+        return vary;
+      }
+    }
+    return vary + ", Accept-Encoding";
+  }
+
+  static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    String mimeType = contentType.toLowerCase(Locale.ROOT);
+    return mimeType.startsWith("text/")
+        || mimeType.startsWith("application/javascript")
+        || mimeType.startsWith("application/json")
+        || mimeType.startsWith("application/xml")
+        || mimeType.startsWith("image/svg+xml");
+  }
+
+  private static byte[] gzip(byte[] body) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(buffer)) {
+      gzipStream.write(body);
+    } catch (IOException e) {
+      throw new IllegalStateException("in memory compression failed", e);
+    }
+    return buffer.toByteArray();
+  }
+
+  static String entityTag(byte[] body) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not supported", e);
+    }
+    byte[] hash = digest.digest(body);
+    // 128 bits are plenty to distinguish the contents of a resource
+    char[] tag = new char[2 + 32];
+    tag[0] = '"';
+    for (int i = 0; i < 16; i++) {
+      tag[1 + i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+      tag[2 + i * 2] = HEX_DIGITS[hash[i] & 0xF];
+    }
+    tag[tag.length - 1] = '"';
+    return new String(tag);
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Caches the responses of Seaside file libraries so that they can be
+ * served without entering the image.
+ * <p>
+ * The contents of a {@code WAFileLibrary} do not change at runtime so
+ * the first successful response for a path under the file handler is
+ * kept for the lifetime of the servlet.
+ * <p>
+ * Resources are keyed on the path segments Seaside sees, so that
+ * variants of the request URI with empty or escaped segments share an
+ * entry. Once the maximum number of entries is reached further resources
+ * are served by the image.
+ */
+final class FileLibraryCache {
+
+  private final String pathPrefix;
+
+  private final Charset defaultCharset;
+
+  private final boolean gzip;
+
+  private final int maxEntries;
+
+  private final ConcurrentMap<String, CachedResource> resources;
+
+  /**
+   * The number of entries in {@link #resources} including the ones about to be added.
+   */
+  private final AtomicInteger entryCount;
+
+  /**
+   * Constructs a new {@link FileLibraryCache}.
+   *
+   * @param pathPrefix the request URI prefix of the file handler, including the context path
+   * @param defaultCharset the charset of text responses without a charset in the content type
+   *                       and of escaped bytes in the request URI
+   * @param gzip whether gzip compressed variants of compressible resources should be kept
+   * @param maxEntries the maximum number of resources kept
+   */
+  FileLibraryCache(String pathPrefix, Charset defaultCharset, boolean gzip, int maxEntries) {
+    Objects.requireNonNull(pathPrefix, "pathPrefix");
+    Objects.requireNonNull(defaultCharset, "defaultCharset");
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maximum number of entries must be positive");
+    }
+    this.defaultCharset = defaultCharset;
+    this.pathPrefix = normalize(pathPrefix, defaultCharset) + '/';
+    this.gzip = gzip;
+    this.maxEntries = maxEntries;
+    this.resources = new ConcurrentHashMap<>();
+    this.entryCount = new AtomicInteger();
+  }
+
+  /**
+   * Checks whether a request is for a file library resource.
+   *
+   * @param request the request
+   * @return whether the response to the request can be cached
+   */
+  boolean isCacheable(HttpServletRequest request) {
+    String method = request.getMethod();
+    return ("GET".equals(method) || "HEAD".equals(method))
+        && request.getQueryString() == null
+        && this.key(request).startsWith(this.pathPrefix);
+  }
+
+  /**
+   * Serves a request from the cache if possible.
+   *
+   * @param request the request, has to be {@link #isCacheable(HttpServletRequest) cacheable}
+   * @param response the response to write to
+   * @return whether the request was served
+   * @throws IOException if writing to the client fails
+   */
+  boolean serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    CachedResource resource = this.resources.get(this.key(request));
+    if (resource == null) {
+      return false;
+    }
+    resource.writeTo(request, response);
+    return true;
+  }
+
+  /**
+   * Adds the response to a request to the cache if it is successful.
+   *
+   * @param request the request, has to be {@link #isCacheable(HttpServletRequest) cacheable}
+   * @param response the response Seaside generated
+   */
+  void put(HttpServletRequest request, BufferedResponse response) {
+    if (response.getStatus() != HttpServletResponse.SC_OK || response.hasCookies()) {
+      return;
+    }
+    String key = this.key(request);
+    if (this.resources.containsKey(key)) {
+      return;
+    }
+    CachedResource resource = CachedResource.from(response, this.defaultCharset, this.gzip);
+    if (resource == null) {
+      return;
+    }
+    // reserve the entry first so that concurrent puts can not exceed the maximum
+    if (this.entryCount.incrementAndGet() > this.maxEntries
+        || this.resources.putIfAbsent(key, resource) != null) {
+      this.entryCount.decrementAndGet();
+    }
+  }
+
+  int getEntryCount() {
+    return this.resources.size();
+  }
+
+  private String key(HttpServletRequest request) {
+    return normalize(request.getRequestURI(), this.defaultCharset);
+  }
+
+  /**
+   * Joins the decoded segments of a path the same way they are passed to Seaside.
+   *
+   * @param rawPath the path, not decoded
+   * @param charset the charset of the escaped bytes
+   * @return the normalized path, starting with a slash, without a trailing slash
+   */
+  static String normalize(String rawPath, Charset charset) {
+    StringBuilder path = new StringBuilder(rawPath.length());
+    for (String segment : UrlParser.parsePath(rawPath, charset)) {
+      path.append('/');
+      if (segment.indexOf('/') != -1 || segment.indexOf('%') != -1) {
+        // keep a slash in a segment apart from a separator
+        path.append(segment.replace("%", "%25").replace("/", "%2F"));
+      } else {
+        path.append(segment);
+      }
+    }
+    return path.toString();
+  }
+
+}
@@ -1,21 +1,61 @@
 package com.github.marschall.seaside.servlet.squeak;
 
-import org.graalvm.polyglot.Value;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * An object that can be easily translated to a WAFile.
+ * <p>
+ * Small files are kept in memory, large files are spilled to disk by
+ * {@link UploadSpool} and only read when the application asks for the
+ * contents.
+ * <p>
+ * Contents are handed to Squeak as ISO-8859-1 strings because they map
+ * every byte to exactly one character and can be transferred in a
+ * single call.
  */
 public final class FilePart extends FormPart {
 
   private final String fileName;
   private final String contentType;
-  private final Value contents;
+  private final long size;
+
+  /**
+   * The contents if the file is kept in memory, {@code null} if spilled.
+   */
+  private final byte[] contents;
 
-  FilePart(String partName, String fileName, String contentType, Value contents) {
+  /**
+   * The file the contents were spilled to, {@code null} if kept in memory.
+   */
+  private final SpilledFile spilledFile;
+
+  private FilePart(String partName, String fileName, String contentType, long size, byte[] contents, SpilledFile spilledFile) {
     super(partName);
     this.fileName = fileName;
     this.contentType = contentType;
+    this.size = size;
     this.contents = contents;
+    this.spilledFile = spilledFile;
+  }
+
+  static FilePart inMemory(String partName, String fileName, String contentType, byte[] contents) {
+    return new FilePart(partName, fileName, contentType, contents.length, contents, null);
+  }
+
+  static FilePart spilled(String partName, String fileName, String contentType, long size, Path spilledFile) {
+    return new FilePart(partName, fileName, contentType, size, null, new SpilledFile(spilledFile));
+  }
+
+  SpilledFile getSpilledFile() {
+    return this.spilledFile;
   }
 
   @Override
@@ -31,8 +71,56 @@ public final class FilePart extends FormPart {
     return contentType;
   }
 
-  public Value getContents() {
-    return contents;
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * Whether the contents have been spilled to disk and should be read lazily.
+   *
+   * @return {@code true} if the contents have been spilled to disk
+   */
+  public boolean isSpilled() {
+    return this.spilledFile != null;
+  }
+
+  /**
+   * Returns all the contents of a file kept in memory.
+   *
+   * @return the contents as an ISO-8859-1 string
+   * @throws IllegalStateException if the contents have been spilled to disk
+   */
+  public String getContents() {
+    if (this.isSpilled()) {
+      throw new IllegalStateException("contents of " + this.fileName + " have been spilled to disk");
+    }
+    return new String(this.contents, ISO_8859_1);
+  }
+
+  /**
+   * Reads a chunk of the contents.
+   * <p>
+   * A spilled file is kept open from the first chunk until the last
+   * chunk has been read so that reading the contents in chunks opens the
+   * file only once.
+   *
+   * @param position the offset of the chunk in the contents
+   * @param length the maximum length of the chunk
+   * @return the chunk as an ISO-8859-1 string, may be shorter than
+   *         {@code length} at the end of the contents
+   * @throws IOException if the spilled file can not be read
+   */
+  public String readChunk(long position, int length) throws IOException {
+    if (position < 0L || position > this.size || length < 0) {
+      throw new IndexOutOfBoundsException("position: " + position + " length: " + length + " size: " + this.size);
+    }
+    int chunkLength = (int) Math.min(length, this.size - position);
+    if (!this.isSpilled()) {
+      return new String(this.contents, (int) position, chunkLength, ISO_8859_1);
+    }
+    byte[] chunk = new byte[chunkLength];
+    this.spilledFile.read(ByteBuffer.wrap(chunk), position, position + chunkLength == this.size);
+    return new String(chunk, ISO_8859_1);
   }
 
   @Override
@@ -40,4 +128,82 @@ public final class FilePart extends FormPart {
     return "FilePart(partName: " + this.getPartName() + ", fileName: " + this.fileName + ')';
   }
 
-}
\ No newline at end of file
+  /**
+   * A file the contents were spilled to and the channel of the current read.
+   * <p>
+   * Referenced by {@link UploadSpool} instead of the {@link FilePart} so
+   * that the channel can be closed before the file is deleted.
+   */
+  static final class SpilledFile {
+
+    private final Path path;
+
+    private FileChannel channel;
+
+    SpilledFile(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * Fills a buffer from a position in the file.
+     *
+     * @param buffer the buffer to fill
+     * @param position the position in the file of the first byte
+     * @param last whether the channel can be closed after this read
+     * @throws IOException if the file can not be read
+     */
+    synchronized void read(ByteBuffer buffer, long position, boolean last) throws IOException {
+      boolean success = false;
+      try {
+        FileChannel fileChannel = this.channel;
+        if (fileChannel == null) {
+          fileChannel = FileChannel.open(this.path, StandardOpenOption.READ);
+          this.channel = fileChannel;
+        }
+        while (buffer.hasRemaining()) {
+          if (fileChannel.read(buffer, position + buffer.position()) == -1) {
+            throw new EOFException("unexpected end of: " + this.path);
+          }
+        }
+        success = true;
+      } finally {
+        if (last || !success) {
+          this.close();
+        }
+      }
+    }
+
+    /**
+     * Closes the channel of an unfinished read, the next read opens the file again.
+     */
+    synchronized void close() {
+      FileChannel fileChannel = this.channel;
+      if (fileChannel != null) {
+        this.channel = null;
+        try {
+          fileChannel.close();
+        } catch (IOException e) {
+          // ignore, only read from
+        }
+      }
+    }
+
+    /**
+     * Closes the channel and deletes the file.
+     */
+    void delete() {
+      this.close();
+      try {
+        Files.deleteIfExists(this.path);
+      } catch (IOException e) {
+        // ignore, best effort
+      }
+    }
+
+    synchronized boolean isOpen() {
+      return this.channel != null;
+    }
+
+  }
+
+}
@@ -0,0 +1,197 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs blocking Java tasks called from the image, like JDBC queries, on
+ * a separate executor so that other requests can use the image until
+ * they are done.
+ * <p>
+ * The image processes each request in its own Smalltalk process, see
+ * {@code WAServletServerAdaptor >> #startProcess:signal:}. A request
+ * process that calls a task waits on a Smalltalk semaphore, the process
+ * that entered the image on the request thread then returns to Java and
+ * the request thread releases the image lock in
+ * {@link #await(Semaphore, boolean)}. No thread has guest frames of the request
+ * on its stack while the lock is released.
+ * <p>
+ * Every context has its own instance which is passed to its
+ * {@code WAServletServerAdaptor}, the executor is shared by all contexts
+ * of a servlet.
+ * <p>
+ * Tasks are Java objects and must not access Squeak objects as they do
+ * not hold the image lock.
+ * <p>
+ * Only used with synchronous contexts, an asynchronous context has a
+ * single image thread that would block in the call.
+ */
+public final class HostCalls {
+
+  /**
+   * How long a request thread releases the lock while its request
+   * process waits for something else than a host call.
+   */
+  static final long POLL_MILLIS = 10L;
+
+  private final ReentrantLock imageLock;
+
+  private final AtomicInteger pendingRequests;
+
+  private final ImageLockStatistics statistics;
+
+  private final ExecutorService executor;
+
+  /**
+   * Constructs a new {@link HostCalls}.
+   *
+   * @param imageLock the lock of the image, not {@code null}
+   * @param pendingRequests the number of requests either waiting for or
+   *                        holding {@code imageLock}, not {@code null}
+   * @param statistics the statistics to record host calls in, not {@code null}
+   * @param executor the executor running the tasks, not {@code null}
+   */
+  HostCalls(ReentrantLock imageLock, AtomicInteger pendingRequests, ImageLockStatistics statistics, ExecutorService executor) {
+    Objects.requireNonNull(imageLock, "imageLock");
+    Objects.requireNonNull(pendingRequests, "pendingRequests");
+    Objects.requireNonNull(statistics, "statistics");
+    Objects.requireNonNull(executor, "executor");
+    this.imageLock = imageLock;
+    this.pendingRequests = pendingRequests;
+    this.statistics = statistics;
+    this.executor = executor;
+  }
+
+  /**
+   * Creates the executor for host calls, using virtual threads where
+   * available.
+   *
+   * @return the executor
+   */
+  static ExecutorService newExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // before Java 19 or Java 19 and 20 without --enable-preview
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "seaside-host-call-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Called by the image from a request process, runs a blocking task on
+   * another thread. The request process then waits until the task is
+   * done and the request thread resumes it.
+   *
+   * @param task the task to run, must not access Squeak objects
+   * @param signal released once the task is done, the request thread
+   *               waits on it in {@link #await(Semaphore, boolean)}
+   * @return the call to wait for
+   * @throws java.util.concurrent.RejectedExecutionException if the
+   *         executor does not accept the task
+   */
+  public HostCall submit(Callable<?> task, Semaphore signal) {
+    Objects.requireNonNull(task, "task");
+    Objects.requireNonNull(signal, "signal");
+    HostCall hostCall = new HostCall(task, signal);
+    this.executor.execute(hostCall);
+    return hostCall;
+  }
+
+  /**
+   * Releases the image lock held once by the calling request thread
+   * while the request process waits.
+   * <p>
+   * If the request process waits for a host call the lock is released
+   * until {@code signal} is released, either because the call is done or
+   * because another request resumed and finished the request process in
+   * the meantime. If the request process waits for anything else, for
+   * example a {@code Delay} or a {@code WAMutex} held by another request
+   * of the same session, the lock is released for at most
+   * {@value #POLL_MILLIS} ms before the request process is looked at again.
+   *
+   * @param signal the signal of the request process
+   * @param hostCall whether the request process waits for a host call
+   * @return the time in nanoseconds the request did not hold the image lock
+   */
+  long await(Semaphore signal, boolean hostCall) {
+    long start = System.nanoTime();
+    this.statistics.hostCallStarted();
+    this.pendingRequests.decrementAndGet();
+    this.imageLock.unlock();
+    // the request process has to be resumed even if the thread is interrupted
+    boolean interrupted = Thread.interrupted();
+    try {
+      if (hostCall) {
+        signal.acquireUninterruptibly();
+      } else {
+        signal.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      interrupted = true;
+    } finally {
+      // the request has already been admitted, it does not wait for the maximum wait time
+      this.pendingRequests.incrementAndGet();
+      this.imageLock.lock();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return this.statistics.hostCallFinished(start);
+  }
+
+  /**
+   * A blocking task submitted by a request process.
+   */
+  public static final class HostCall extends FutureTask<Object> {
+
+    private final Semaphore signal;
+
+    HostCall(Callable<?> task, Semaphore signal) {
+      super(task::call);
+      this.signal = signal;
+    }
+
+    @Override
+    protected void done() {
+      this.signal.release();
+    }
+
+    /**
+     * Called by the image once the task is done, answers its result.
+     *
+     * @return the result of the task
+     * @throws Exception if the task failed
+     */
+    public Object result() throws Exception {
+      try {
+        return this.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw e;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,392 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+/**
+ * A single Graal context with a loaded Squeak image and its own
+ * {@code WAServletServerAdaptor}.
+ * <p>
+ * All access to the Squeak objects of a context has to happen through
+ * its lock.
+ * <p>
+ * In asynchronous mode a context additionally has a single thread
+ * executor with a bounded queue so that requests can be processed
+ * without blocking container threads.
+ * <p>
+ * Requests that exceed the limits of the {@link AdmissionPolicy} are
+ * not processed.
+ * <p>
+ * Maintenance work is run by the {@link MaintenanceScheduler} while no
+ * request is waiting for the image.
+ * <p>
+ * If enabled, requests are processed in their own Smalltalk process
+ * and blocking tasks the image runs through {@link HostCalls} release
+ * the image for other requests.
+ */
+final class ImageContext {
+
+  private final int index;
+
+  private final Context graalContext;
+
+  private final Value seasideAdaptor;
+
+  /**
+   * Lock through which all access to Squeak objects happens because GraalSqueak is not thread safe.
+   */
+  private final ReentrantLock imageLock;
+
+  /**
+   * Number of requests either waiting for or holding {@link #imageLock}.
+   */
+  private final AtomicInteger pendingRequests;
+
+  /**
+   * Single thread executor processing asynchronous requests, {@code null} in synchronous mode.
+   */
+  private final ExecutorService imageExecutor;
+
+  private final ImageLockStatistics statistics;
+
+  private final AdmissionPolicy admissionPolicy;
+
+  /**
+   * Profiler sampling requests, {@code null} if profiling is disabled.
+   */
+  private final RequestProfiler profiler;
+
+  /**
+   * Runs blocking tasks without holding {@link #imageLock}, {@code null} if disabled.
+   */
+  private final HostCalls hostCalls;
+
+  /**
+   * Instance of WAMBean, {@code nil} if already registered.
+   */
+  private volatile Value waMBean;
+
+  /**
+   * Constructs a new {@link ImageContext}.
+   *
+   * @param index the index in the pool
+   * @param graalContext the Graal context containing the loaded image, not {@code null}
+   * @param seasideAdaptor the {@code WAServletServerAdaptor} in {@code graalContext}, not {@code null}
+   * @param queueCapacity the maximum number of asynchronous requests waiting for
+   *                      the image, {@code 0} for synchronous mode
+   * @param statistics the statistics to record lock wait and hold times in, not {@code null}
+   * @param admissionPolicy the policy deciding which requests are shed, not {@code null}
+   * @param profiler the profiler sampling requests, {@code null} if profiling is disabled
+   * @param hostCallExecutor the executor running blocking tasks of the image while
+   *                         the image lock is released, {@code null} if disabled
+   */
+  ImageContext(int index, Context graalContext, Value seasideAdaptor, int queueCapacity,
+      ImageLockStatistics statistics, AdmissionPolicy admissionPolicy, RequestProfiler profiler,
+      ExecutorService hostCallExecutor) {
+    Objects.requireNonNull(graalContext, "graalContext");
+    Objects.requireNonNull(seasideAdaptor, "seasideAdaptor");
+    Objects.requireNonNull(statistics, "statistics");
+    Objects.requireNonNull(admissionPolicy, "admissionPolicy");
+    this.index = index;
+    this.graalContext = graalContext;
+    this.seasideAdaptor = seasideAdaptor;
+    this.imageLock = new ReentrantLock();
+    this.pendingRequests = new AtomicInteger();
+    if (queueCapacity > 0) {
+      this.imageExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(queueCapacity), this::newImageThread, new ThreadPoolExecutor.AbortPolicy());
+    } else {
+      this.imageExecutor = null;
+    }
+    this.statistics = statistics;
+    this.admissionPolicy = admissionPolicy;
+    this.profiler = profiler;
+    if (hostCallExecutor != null) {
+      this.hostCalls = new HostCalls(this.imageLock, this.pendingRequests, statistics, hostCallExecutor);
+    } else {
+      this.hostCalls = null;
+    }
+  }
+
+  private Thread newImageThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "seaside-image-" + this.index);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  int getIndex() {
+    return this.index;
+  }
+
+  Value getSeasideAdaptor() {
+    return this.seasideAdaptor;
+  }
+
+  int getPendingRequests() {
+    return this.pendingRequests.get();
+  }
+
+  /**
+   * Returns the host calls to pass to the image.
+   *
+   * @return the host calls, {@code null} if disabled
+   */
+  HostCalls getHostCalls() {
+    return this.hostCalls;
+  }
+
+  boolean isAsynchronous() {
+    return this.imageExecutor != null;
+  }
+
+  /**
+   * Processes a request on the calling thread.
+   *
+   * @param nativeRequest the request to process
+   * @param newSession whether the request does not belong to a session
+   * @return whether the request was processed, {@code false} if it was shed
+   */
+  boolean process(ServletNativeRequest nativeRequest, boolean newSession) {
+    long waitStart = System.nanoTime();
+    int pending = this.pendingRequests.incrementAndGet();
+    try {
+      if (!this.admissionPolicy.admits(pending, newSession)) {
+        this.statistics.requestRejected();
+        return false;
+      }
+      // GraalSqueak is not thread safe so we have to lock here
+      // even though this is forbidden in Java EE
+      return this.doProcess(nativeRequest, waitStart);
+    } finally {
+      this.pendingRequests.decrementAndGet();
+    }
+  }
+
+  /**
+   * Submits a task to the image thread. The task has to call
+   * {@link #doProcess(ServletNativeRequest, long)} to process the request.
+   *
+   * @param task the task to run on the image thread
+   * @param newSession whether the request does not belong to a session
+   * @throws RejectedExecutionException if the queue is full
+   */
+  void submit(Runnable task, boolean newSession) {
+    int pending = this.pendingRequests.incrementAndGet();
+    if (!this.admissionPolicy.admits(pending, newSession)) {
+      this.pendingRequests.decrementAndGet();
+      this.statistics.requestRejected();
+      throw new RejectedExecutionException("maximum queue depth exceeded");
+    }
+    try {
+      this.imageExecutor.execute(() -> {
+        try {
+          task.run();
+        } finally {
+          this.pendingRequests.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.pendingRequests.decrementAndGet();
+      this.statistics.requestRejected();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for the response of the leader of identical requests, see
+   * {@link RequestCoalescer}.
+   * <p>
+   * The follower counts as a pending request of this context until the
+   * response is there, and is shed like a request waiting for the image.
+   *
+   * @param <T> the type of the response
+   * @param leader completes with the response of the leader
+   * @param newSession whether the request does not belong to a session
+   * @return completes with the response of the leader, or exceptionally
+   *         with a {@link RejectedExecutionException} if the follower is
+   *         not admitted or waits longer than allowed
+   */
+  <T> CompletableFuture<T> follow(CompletableFuture<T> leader, boolean newSession) {
+    int pending = this.pendingRequests.incrementAndGet();
+    if (!this.admissionPolicy.admits(pending, newSession)) {
+      this.pendingRequests.decrementAndGet();
+      this.statistics.requestRejected();
+      return CompletableFuture.failedFuture(new RejectedExecutionException("maximum queue depth exceeded"));
+    }
+    // a timeout must not complete the future of the other followers
+    CompletableFuture<T> follower = leader.copy();
+    if (this.admissionPolicy.hasMaxWait()) {
+      follower.orTimeout(this.admissionPolicy.getMaxWaitNanos(), TimeUnit.NANOSECONDS);
+    }
+    return follower.handle((response, failure) -> {
+      this.pendingRequests.decrementAndGet();
+      if (failure != null) {
+        this.statistics.requestRejected();
+        throw new RejectedExecutionException("maximum wait time exceeded", failure);
+      }
+      return response;
+    });
+  }
+
+  /**
+   * Processes a request on the calling thread without updating the
+   * number of pending requests.
+   *
+   * @param nativeRequest the request to process
+   * @param waitStart the value of {@link System#nanoTime()} when the
+   *                  request started waiting for the image
+   * @return whether the request was processed, {@code false} if it
+   *         waited longer than allowed
+   */
+  boolean doProcess(ServletNativeRequest nativeRequest, long waitStart) {
+    if (!this.acquireLock(waitStart)) {
+      this.statistics.requestRejected();
+      return false;
+    }
+    long acquired = this.statistics.lockAcquired(waitStart);
+    RequestProfiler requestProfiler = this.profiler;
+    HostCalls requestHostCalls = this.hostCalls;
+    try {
+      if (requestProfiler != null) {
+        requestProfiler.requestStarted(nativeRequest);
+      }
+      if (requestHostCalls != null) {
+        // other requests held the lock while the request process waited
+        acquired += this.processInRequestProcess(nativeRequest, requestHostCalls);
+      } else {
+        this.seasideAdaptor.invokeMember("process:", nativeRequest);
+      }
+    } finally {
+      if (requestProfiler != null) {
+        requestProfiler.requestFinished();
+      }
+      this.statistics.lockReleased(acquired);
+      this.imageLock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Processes a request in its own Smalltalk process, see
+   * {@link HostCalls}. Whenever the request process waits the image lock
+   * is released until the request process can continue.
+   *
+   * @param nativeRequest the request to process
+   * @param requestHostCalls the host calls of this context
+   * @return the time in nanoseconds the request did not hold the image lock
+   */
+  private long processInRequestProcess(ServletNativeRequest nativeRequest, HostCalls requestHostCalls) {
+    Semaphore signal = new Semaphore(0);
+    Value requestProcess = this.seasideAdaptor.invokeMember("startProcess:signal:", nativeRequest, signal);
+    long released = 0L;
+    while (!requestProcess.invokeMember("isDone").asBoolean()) {
+      boolean hostCall = requestProcess.invokeMember("isWaitingForHostCall").asBoolean();
+      released += requestHostCalls.await(signal, hostCall);
+      requestProcess.invokeMember("resume");
+    }
+    requestProcess.invokeMember("signalFailure");
+    return released;
+  }
+
+  private boolean acquireLock(long waitStart) {
+    if (!this.admissionPolicy.hasMaxWait()) {
+      this.imageLock.lock();
+      return true;
+    }
+    long remaining = this.admissionPolicy.getMaxWaitNanos() - (System.nanoTime() - waitStart);
+    if (remaining <= 0L) {
+      // waited too long in the queue of the image thread
+      return false;
+    }
+    try {
+      return this.imageLock.tryLock(remaining, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Runs maintenance work while holding the image lock.
+   *
+   * @param work the work to run
+   * @param force whether to wait for the lock even if requests are waiting for the image
+   * @return whether the work was run, {@code false} if requests are waiting
+   */
+  boolean runMaintenance(Runnable work, boolean force) {
+    if (force) {
+      this.imageLock.lock();
+    } else if (this.pendingRequests.get() > 0 || !this.imageLock.tryLock()) {
+      return false;
+    }
+    try {
+      work.run();
+    } finally {
+      this.imageLock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Registers the {@code WAAdminMBean} of the image.
+   *
+   * @param maintenance the executor for operations that should not run
+   *                    while requests are waiting for the image
+   */
+  void registerMBean(Executor maintenance) {
+    this.imageLock.lock();
+    try {
+      this.waMBean = this.seasideAdaptor.invokeMember("registerMBeanWithLock:maintenance:", this.imageLock, maintenance);
+    } finally {
+      this.imageLock.unlock();
+    }
+  }
+
+  void unregisterMBean() {
+    this.imageLock.lock();
+    try {
+      if (this.waMBean != null && !this.waMBean.isNull()) {
+        this.waMBean.invokeMember("unregister");
+      }
+      this.waMBean = null;
+    } finally {
+      this.imageLock.unlock();
+    }
+  }
+
+  void close() {
+    if (this.imageExecutor != null) {
+      this.imageExecutor.shutdown();
+      try {
+        this.imageExecutor.awaitTermination(1L, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    this.imageLock.lock();
+    try {
+      this.graalContext.close();
+    } finally {
+      this.imageLock.unlock();
+    }
+    this.waMBean = null;
+  }
+
+  @Override
+  public String toString() {
+    return "ImageContext(index: " + this.index + ')';
+  }
+
+}
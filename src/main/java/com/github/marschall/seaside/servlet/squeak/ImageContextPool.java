@@ -0,0 +1,168 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * A fixed number of {@link ImageContext}s each loaded from the same image.
+ * <p>
+ * Requests belonging to a Seaside session are always routed to the
+ * context that owns the session, new sessions are routed to the least
+ * loaded context. To find the owner of a session each context generates
+ * keys that start with {@link #keyPrefix(int)}.
+ */
+final class ImageContextPool {
+
+  /**
+   * The name of the query parameter and cookie Seaside uses for the session key.
+   */
+  private static final String SESSION_KEY = "_s";
+
+  private static final char KEY_PREFIX_SEPARATOR = '_';
+
+  private final List<ImageContext> contexts;
+
+  ImageContextPool(ImageContext[] contexts) {
+    Objects.requireNonNull(contexts, "contexts");
+    if (contexts.length == 0) {
+      throw new IllegalArgumentException("at least one context required");
+    }
+    this.contexts = Collections.unmodifiableList(Arrays.asList(contexts));
+  }
+
+  /**
+   * Returns the prefix of all keys generated by the context with the given index.
+   *
+   * @param index the index of the context in the pool
+   * @return the key prefix
+   */
+  static String keyPrefix(int index) {
+    return Integer.toString(index) + KEY_PREFIX_SEPARATOR;
+  }
+
+  List<ImageContext> getContexts() {
+    return this.contexts;
+  }
+
+  int size() {
+    return this.contexts.size();
+  }
+
+  boolean isAsynchronous() {
+    // all contexts are configured the same
+    return this.contexts.get(0).isAsynchronous();
+  }
+
+  /**
+   * Returns the number of requests either waiting for or being processed
+   * by any context.
+   *
+   * @return the number of pending requests
+   */
+  int getPendingRequests() {
+    int pending = 0;
+    for (ImageContext context : this.contexts) {
+      pending += context.getPendingRequests();
+    }
+    return pending;
+  }
+
+  /**
+   * Selects the context that should process a request.
+   *
+   * @param request the request to process
+   * @return the context owning the session of the request or the
+   *         least loaded context if the request has no session
+   */
+  ImageContext select(HttpServletRequest request) {
+    if (this.contexts.size() == 1) {
+      return this.contexts.get(0);
+    }
+    String sessionKey = getSessionKey(request);
+    if (sessionKey != null) {
+      int index = parseIndex(sessionKey);
+      if (index >= 0 && index < this.contexts.size()) {
+        return this.contexts.get(index);
+      }
+    }
+    return this.leastLoaded();
+  }
+
+  private ImageContext leastLoaded() {
+    ImageContext leastLoaded = null;
+    int leastPending = Integer.MAX_VALUE;
+    for (ImageContext context : this.contexts) {
+      int pending = context.getPendingRequests();
+      if (pending < leastPending) {
+        leastLoaded = context;
+        leastPending = pending;
+      }
+    }
+    return leastLoaded;
+  }
+
+  static String getSessionKey(HttpServletRequest request) {
+    // don't use getParameter() as this would parse a POST body
+    String sessionKey = getQueryParameter(request.getQueryString(), SESSION_KEY);
+    if (sessionKey != null) {
+      return sessionKey;
+    }
+    Cookie[] cookies = request.getCookies();
+    if (cookies != null) {
+      for (Cookie cookie : cookies) {
+        if (cookie.getName().equals(SESSION_KEY)) {
+          return cookie.getValue();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String getQueryParameter(String queryString, String parameterName) {
+    if (queryString == null) {
+      return null;
+    }
+    int start = 0;
+    while (start < queryString.length()) {
+      int end = queryString.indexOf('&', start);
+      if (end == -1) {
+        end = queryString.length();
+      }
+      if (queryString.startsWith(parameterName, start)
+              && start + parameterName.length() < end
+              && queryString.charAt(start + parameterName.length()) == '=') {
+        return queryString.substring(start + parameterName.length() + 1, end);
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  /**
+   * Parses the index of the owning context from a key generated with {@link #keyPrefix(int)}.
+   *
+   * @param key the key
+   * @return the index of the context, {@code -1} if the key was not generated by a pool
+   */
+  static int parseIndex(String key) {
+    int index = 0;
+    int length = key.length();
+    for (int i = 0; i < length; i++) {
+      char c = key.charAt(i);
+      if (c == KEY_PREFIX_SEPARATOR) {
+        return i == 0 ? -1 : index;
+      }
+      if (c < '0' || c > '9' || i >= 4) {
+        return -1;
+      }
+      index = index * 10 + (c - '0');
+    }
+    return -1;
+  }
+
+}
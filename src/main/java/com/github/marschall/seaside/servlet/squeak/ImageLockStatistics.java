@@ -0,0 +1,252 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+/**
+ * Records the time requests spend waiting for and holding the image lock.
+ * <p>
+ * Recording does not allocate and does not lock.
+ */
+final class ImageLockStatistics implements ImageLockStatisticsMBean {
+
+  /**
+   * Number of seconds over which the request rate is averaged.
+   */
+  private static final int RATE_WINDOW = 60;
+
+  private static final long SECOND_MASK = 0xFFFFFFFF_00000000L;
+
+  private static final long COUNT_MASK = 0x00000000_FFFFFFFFL;
+
+  private final IntSupplier pendingRequests;
+
+  private final AtomicInteger activeRequests;
+
+  private final AtomicLong requestCount;
+
+  private final AtomicLong rejectedRequestCount;
+
+  private final LatencyHistogram waitTimes;
+
+  private final LatencyHistogram holdTimes;
+
+  private final LatencyHistogram hostCallTimes;
+
+  /**
+   * Number of requests per second, indexed by second modulo {@link #RATE_WINDOW}.
+   * The upper 32 bits of an entry hold the second it belongs to, the lower
+   * 32 bits the number of requests, so that both change in a single CAS.
+   */
+  private final AtomicLongArray requestsPerSecond;
+
+  /**
+   * Constructs a new {@link ImageLockStatistics}.
+   *
+   * @param pendingRequests the number of requests either waiting for or holding the lock
+   */
+  ImageLockStatistics(IntSupplier pendingRequests) {
+    Objects.requireNonNull(pendingRequests, "pendingRequests");
+    this.pendingRequests = pendingRequests;
+    this.activeRequests = new AtomicInteger();
+    this.requestCount = new AtomicLong();
+    this.rejectedRequestCount = new AtomicLong();
+    this.waitTimes = new LatencyHistogram();
+    this.holdTimes = new LatencyHistogram();
+    this.hostCallTimes = new LatencyHistogram();
+    this.requestsPerSecond = new AtomicLongArray(RATE_WINDOW);
+  }
+
+  /**
+   * Records that the lock has been acquired.
+   *
+   * @param waitStart the value of {@link System#nanoTime()} when the request started waiting
+   * @return the value of {@link System#nanoTime()} when the lock was acquired
+   */
+  long lockAcquired(long waitStart) {
+    long acquired = System.nanoTime();
+    this.activeRequests.incrementAndGet();
+    this.waitTimes.record(acquired - waitStart);
+    return acquired;
+  }
+
+  /**
+   * Records that the lock has been released.
+   *
+   * @param acquired the value returned by {@link #lockAcquired(long)}
+   */
+  void lockReleased(long acquired) {
+    long released = System.nanoTime();
+    this.activeRequests.decrementAndGet();
+    this.holdTimes.record(released - acquired);
+    this.requestCount.incrementAndGet();
+    this.recordRate(TimeUnit.NANOSECONDS.toSeconds(released));
+  }
+
+  /**
+   * Records that a request has released the lock for a host call.
+   */
+  void hostCallStarted() {
+    this.activeRequests.decrementAndGet();
+  }
+
+  /**
+   * Records that a request has reacquired the lock after a host call.
+   *
+   * @param start the value of {@link System#nanoTime()} when the host call started
+   * @return the duration of the host call in nanoseconds
+   */
+  long hostCallFinished(long start) {
+    long duration = System.nanoTime() - start;
+    this.activeRequests.incrementAndGet();
+    this.hostCallTimes.record(duration);
+    return duration;
+  }
+
+  /**
+   * Records that a request has been shed without being processed.
+   */
+  void requestRejected() {
+    this.rejectedRequestCount.incrementAndGet();
+  }
+
+  void recordRate(long second) {
+    int index = (int) Math.floorMod(second, (long) RATE_WINDOW);
+    // only the lower 32 bits of the second are kept
+    long secondBits = second << 32;
+    while (true) {
+      long entry = this.requestsPerSecond.get(index);
+      long updated;
+      if ((entry & SECOND_MASK) == secondBits) {
+        updated = entry + 1L;
+      } else {
+        // first request in this second, forget the requests from a minute ago
+        updated = secondBits | 1L;
+      }
+      if (this.requestsPerSecond.compareAndSet(index, entry, updated)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public int getQueueLength() {
+    return Math.max(this.pendingRequests.getAsInt() - this.activeRequests.get(), 0);
+  }
+
+  @Override
+  public long getRequestCount() {
+    return this.requestCount.get();
+  }
+
+  @Override
+  public long getRejectedRequestCount() {
+    return this.rejectedRequestCount.get();
+  }
+
+  @Override
+  public double getRequestsPerSecond() {
+    return this.getRequestsPerSecond(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+  }
+
+  double getRequestsPerSecond(long currentSecond) {
+    long requests = 0L;
+    for (int i = 0; i < RATE_WINDOW; i++) {
+      long entry = this.requestsPerSecond.get(i);
+      // int arithmetic as only the lower 32 bits of the second are kept
+      int age = (int) currentSecond - (int) (entry >>> 32);
+      // exclude the current second as it is not yet complete
+      if (age > 0 && age <= RATE_WINDOW) {
+        requests += entry & COUNT_MASK;
+      }
+    }
+    return requests / (double) RATE_WINDOW;
+  }
+
+  @Override
+  public double getMaxWaitTimeMillis() {
+    return this.waitTimes.getMaxMillis();
+  }
+
+  @Override
+  public double getMeanWaitTimeMillis() {
+    return this.waitTimes.getMeanMillis();
+  }
+
+  @Override
+  public double getWaitTime50thPercentileMillis() {
+    return this.waitTimes.getPercentileMillis(0.5d);
+  }
+
+  @Override
+  public double getWaitTime99thPercentileMillis() {
+    return this.waitTimes.getPercentileMillis(0.99d);
+  }
+
+  @Override
+  public double getMaxHoldTimeMillis() {
+    return this.holdTimes.getMaxMillis();
+  }
+
+  @Override
+  public double getMeanHoldTimeMillis() {
+    return this.holdTimes.getMeanMillis();
+  }
+
+  @Override
+  public double getHoldTime50thPercentileMillis() {
+    return this.holdTimes.getPercentileMillis(0.5d);
+  }
+
+  @Override
+  public double getHoldTime99thPercentileMillis() {
+    return this.holdTimes.getPercentileMillis(0.99d);
+  }
+
+  @Override
+  public long getHostCallCount() {
+    return this.hostCallTimes.getCount();
+  }
+
+  @Override
+  public double getMaxHostCallTimeMillis() {
+    return this.hostCallTimes.getMaxMillis();
+  }
+
+  @Override
+  public double getMeanHostCallTimeMillis() {
+    return this.hostCallTimes.getMeanMillis();
+  }
+
+  @Override
+  public long[] getWaitTimeHistogram() {
+    return this.waitTimes.getCounts();
+  }
+
+  @Override
+  public long[] getHoldTimeHistogram() {
+    return this.holdTimes.getCounts();
+  }
+
+  @Override
+  public long[] getHistogramUpperBoundsMicros() {
+    return LatencyHistogram.getUpperBoundsMicros();
+  }
+
+  @Override
+  public void reset() {
+    this.requestCount.set(0L);
+    this.rejectedRequestCount.set(0L);
+    this.waitTimes.reset();
+    this.holdTimes.reset();
+    this.hostCallTimes.reset();
+    for (int i = 0; i < RATE_WINDOW; i++) {
+      this.requestsPerSecond.set(i, 0L);
+    }
+  }
+
+}
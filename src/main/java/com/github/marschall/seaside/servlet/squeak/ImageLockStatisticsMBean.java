@@ -0,0 +1,101 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+/**
+ * Statistics about the time requests spend waiting for and holding
+ * the image of a {@link SeasideGraalSqueakBridgeServlet}.
+ * <p>
+ * Waiting includes the time spent in the queue in asynchronous mode,
+ * holding is the time spent processing the request in the image
+ * excluding host calls that released the image.
+ * All values are aggregated over all contexts of the servlet.
+ */
+public interface ImageLockStatisticsMBean {
+
+  /**
+   * Returns the number of requests currently waiting for a context.
+   *
+   * @return the number of waiting requests
+   */
+  int getQueueLength();
+
+  /**
+   * Returns the number of requests processed by the image.
+   *
+   * @return the number of processed requests
+   */
+  long getRequestCount();
+
+  /**
+   * Returns the number of requests rejected with 503 because they
+   * exceeded the queue depth or the maximum wait time.
+   *
+   * @return the number of rejected requests
+   */
+  long getRejectedRequestCount();
+
+  /**
+   * Returns the average number of requests processed per second over
+   * the last minute.
+   *
+   * @return the requests per second
+   */
+  double getRequestsPerSecond();
+
+  double getMaxWaitTimeMillis();
+
+  double getMeanWaitTimeMillis();
+
+  double getWaitTime50thPercentileMillis();
+
+  double getWaitTime99thPercentileMillis();
+
+  double getMaxHoldTimeMillis();
+
+  double getMeanHoldTimeMillis();
+
+  double getHoldTime50thPercentileMillis();
+
+  double getHoldTime99thPercentileMillis();
+
+  /**
+   * Returns the number of times a request released the lock while its
+   * Smalltalk process waited, mostly for a blocking task, see
+   * {@code seaside.HostCalls}.
+   *
+   * @return the number of host calls
+   */
+  long getHostCallCount();
+
+  double getMaxHostCallTimeMillis();
+
+  double getMeanHostCallTimeMillis();
+
+  /**
+   * Returns the wait time histogram.
+   *
+   * @return the number of requests per bucket
+   * @see #getHistogramUpperBoundsMicros()
+   */
+  long[] getWaitTimeHistogram();
+
+  /**
+   * Returns the hold time histogram.
+   *
+   * @return the number of requests per bucket
+   * @see #getHistogramUpperBoundsMicros()
+   */
+  long[] getHoldTimeHistogram();
+
+  /**
+   * Returns the exclusive upper bounds of the histogram buckets.
+   *
+   * @return the upper bound of every bucket in microseconds
+   */
+  long[] getHistogramUpperBoundsMicros();
+
+  /**
+   * Resets all histograms and counters.
+   */
+  void reset();
+
+}
@@ -0,0 +1,121 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations with power of two microsecond
+ * buckets.
+ * <p>
+ * Recording does not allocate so it can be used on the request path.
+ * Bucket {@code 0} contains durations below one microsecond, bucket
+ * {@code i} durations in {@code [2^(i-1), 2^i)} microseconds, the last
+ * bucket everything above.
+ */
+final class LatencyHistogram {
+
+  static final int BUCKET_COUNT = 32;
+
+  private final AtomicLongArray buckets;
+
+  private final AtomicLong totalNanos;
+
+  private final AtomicLong maxNanos;
+
+  LatencyHistogram() {
+    this.buckets = new AtomicLongArray(BUCKET_COUNT);
+    this.totalNanos = new AtomicLong();
+    this.maxNanos = new AtomicLong();
+  }
+
+  void record(long nanos) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    this.buckets.incrementAndGet(bucket);
+    this.totalNanos.addAndGet(nanos);
+    this.maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Returns the exclusive upper bound of each bucket in microseconds.
+   *
+   * @return the upper bounds, the last one is {@link Long#MAX_VALUE}
+   */
+  static long[] getUpperBoundsMicros() {
+    long[] upperBounds = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+      upperBounds[i] = 1L << i;
+    }
+    upperBounds[BUCKET_COUNT - 1] = Long.MAX_VALUE;
+    return upperBounds;
+  }
+
+  long[] getCounts() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = this.buckets.get(i);
+    }
+    return counts;
+  }
+
+  long getCount() {
+    long count = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += this.buckets.get(i);
+    }
+    return count;
+  }
+
+  double getMeanMillis() {
+    long count = this.getCount();
+    if (count == 0L) {
+      return 0.0d;
+    }
+    return toMillis(this.totalNanos.get()) / count;
+  }
+
+  double getMaxMillis() {
+    return toMillis(this.maxNanos.get());
+  }
+
+  /**
+   * Returns an upper bound for a percentile.
+   *
+   * @param percentile the percentile, between 0.0 and 1.0
+   * @return the upper bound of the bucket containing the percentile in
+   *         milliseconds, the maximum for the last bucket
+   */
+  double getPercentileMillis(double percentile) {
+    long[] counts = this.getCounts();
+    long total = 0L;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0L) {
+      return 0.0d;
+    }
+    long threshold = (long) Math.ceil(total * percentile);
+    long cumulative = 0L;
+    for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+      cumulative += counts[i];
+      if (cumulative >= threshold) {
+        return (1L << i) / 1000.0d;
+      }
+    }
+    return this.getMaxMillis();
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      this.buckets.set(i, 0L);
+    }
+    this.totalNanos.set(0L);
+    this.maxNanos.set(0L);
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000.0d;
+  }
+
+}
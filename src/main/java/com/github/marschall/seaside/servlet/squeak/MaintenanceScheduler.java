@@ -0,0 +1,265 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Runs maintenance work like clearing caches or reaping expired sessions
+ * in the gaps between requests so that it does not delay them.
+ * <p>
+ * Every context has its own queue of tasks. A single daemon thread polls
+ * the queues and runs the tasks of a context while holding its image
+ * lock, but only if no request is waiting for the image. Tasks are run
+ * until the time slice is used up or a request arrives. If the image
+ * does not become idle the tasks of a context are run anyway once the
+ * oldest one has been waiting longer than the maximum delay.
+ */
+final class MaintenanceScheduler implements MaintenanceSchedulerMBean {
+
+  private static final long POLL_INTERVAL_MILLIS = 100L;
+
+  private final long sliceNanos;
+
+  private final long maxDelayNanos;
+
+  private final BiConsumer<String, Throwable> errorLog;
+
+  private final ScheduledExecutorService executor;
+
+  private final Map<ImageContext, Queue<MaintenanceTask>> queues;
+
+  private final AtomicLong completedTaskCount;
+
+  private final AtomicLong failedTaskCount;
+
+  private final AtomicLong overdueCount;
+
+  private final AtomicLong totalTaskTime;
+
+  /**
+   * Constructs a new {@link MaintenanceScheduler}.
+   *
+   * @param sliceNanos the time in nanoseconds after which no further task
+   *                   is started while holding the image lock
+   * @param maxDelayNanos the time in nanoseconds after which a task is run
+   *                      even if requests are waiting for the image
+   * @param errorLog where to log failed tasks, not {@code null}
+   */
+  MaintenanceScheduler(long sliceNanos, long maxDelayNanos, BiConsumer<String, Throwable> errorLog) {
+    Objects.requireNonNull(errorLog, "errorLog");
+    this.sliceNanos = sliceNanos;
+    this.maxDelayNanos = maxDelayNanos;
+    this.errorLog = errorLog;
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, MaintenanceScheduler::newMaintenanceThread);
+    scheduledExecutor.setRemoveOnCancelPolicy(true);
+    this.executor = scheduledExecutor;
+    this.queues = new ConcurrentHashMap<>();
+    this.completedTaskCount = new AtomicLong();
+    this.failedTaskCount = new AtomicLong();
+    this.overdueCount = new AtomicLong();
+    this.totalTaskTime = new AtomicLong();
+  }
+
+  private static Thread newMaintenanceThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "seaside-maintenance");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Starts polling the queues.
+   */
+  void start() {
+    this.executor.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, MILLISECONDS);
+  }
+
+  /**
+   * Queues a task that is run while holding the image lock of a context.
+   *
+   * @param context the context whose image the task accesses
+   * @param task the task to run
+   */
+  void submit(ImageContext context, Runnable task) {
+    this.queues.computeIfAbsent(context, key -> new ConcurrentLinkedQueue<>())
+      .add(new MaintenanceTask(task, System.nanoTime()));
+  }
+
+  /**
+   * Returns an {@link Executor} that queues tasks for a context, for
+   * passing to Squeak.
+   *
+   * @param context the context whose image the tasks access
+   * @return the executor
+   */
+  Executor executorFor(ImageContext context) {
+    return task -> this.submit(context, task);
+  }
+
+  /**
+   * Periodically queues a task for every context unless the previous
+   * one is still queued.
+   *
+   * @param contexts the contexts to run the task for
+   * @param task the task to run with the context as argument
+   * @param periodNanos the time between two runs in nanoseconds
+   */
+  void schedule(Collection<ImageContext> contexts, Consumer<ImageContext> task, long periodNanos) {
+    for (ImageContext context : contexts) {
+      AtomicBoolean queued = new AtomicBoolean();
+      this.executor.scheduleWithFixedDelay(() -> {
+        if (queued.compareAndSet(false, true)) {
+          this.submit(context, () -> {
+            queued.set(false);
+            task.accept(context);
+          });
+        }
+      }, periodNanos, periodNanos, NANOSECONDS);
+    }
+  }
+
+  private void poll() {
+    for (Map.Entry<ImageContext, Queue<MaintenanceTask>> entry : this.queues.entrySet()) {
+      ImageContext context = entry.getKey();
+      Queue<MaintenanceTask> queue = entry.getValue();
+      MaintenanceTask oldest = queue.peek();
+      if (oldest == null) {
+        continue;
+      }
+      boolean overdue = System.nanoTime() - oldest.submittedAt >= this.maxDelayNanos;
+      try {
+        boolean ran = context.runMaintenance(() -> this.runTasks(queue, () -> context.getPendingRequests() > 0), overdue);
+        if (ran && overdue) {
+          this.overdueCount.incrementAndGet();
+        }
+      } catch (RuntimeException e) {
+        // an exception would cancel polling
+        this.errorLog.accept("maintenance of " + context + " failed", e);
+      }
+    }
+  }
+
+  /**
+   * Runs queued tasks until the time slice is used up or requests are
+   * waiting for the image. The first task is always run.
+   *
+   * @param queue the tasks to run
+   * @param requestsWaiting whether requests are waiting for the image
+   * @return the number of tasks run
+   */
+  int runTasks(Queue<MaintenanceTask> queue, BooleanSupplier requestsWaiting) {
+    long sliceStart = System.nanoTime();
+    int run = 0;
+    MaintenanceTask task = queue.poll();
+    while (task != null) {
+      long taskStart = System.nanoTime();
+      try {
+        task.task.run();
+      } catch (RuntimeException e) {
+        this.failedTaskCount.incrementAndGet();
+        this.errorLog.accept("maintenance task failed", e);
+      }
+      long taskEnd = System.nanoTime();
+      this.totalTaskTime.addAndGet(taskEnd - taskStart);
+      this.completedTaskCount.incrementAndGet();
+      run += 1;
+      if (taskEnd - sliceStart >= this.sliceNanos || requestsWaiting.getAsBoolean()) {
+        break;
+      }
+      task = queue.poll();
+    }
+    return run;
+  }
+
+  @Override
+  public int getQueuedTaskCount() {
+    int queued = 0;
+    for (Queue<MaintenanceTask> queue : this.queues.values()) {
+      queued += queue.size();
+    }
+    return queued;
+  }
+
+  @Override
+  public long getCompletedTaskCount() {
+    return this.completedTaskCount.get();
+  }
+
+  @Override
+  public long getFailedTaskCount() {
+    return this.failedTaskCount.get();
+  }
+
+  @Override
+  public long getOverdueCount() {
+    return this.overdueCount.get();
+  }
+
+  @Override
+  public double getOldestTaskAgeMillis() {
+    long now = System.nanoTime();
+    long oldestAge = 0L;
+    for (Queue<MaintenanceTask> queue : this.queues.values()) {
+      MaintenanceTask oldest = queue.peek();
+      if (oldest != null) {
+        oldestAge = Math.max(oldestAge, now - oldest.submittedAt);
+      }
+    }
+    return toMillis(oldestAge);
+  }
+
+  @Override
+  public double getTotalTaskTimeMillis() {
+    return toMillis(this.totalTaskTime.get());
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1L);
+  }
+
+  /**
+   * Stops polling, waits for running tasks to finish and discards
+   * queued tasks.
+   */
+  void close() {
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(1L, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.queues.clear();
+  }
+
+  static final class MaintenanceTask {
+
+    final Runnable task;
+
+    /**
+     * The value of {@link System#nanoTime()} when the task was queued.
+     */
+    final long submittedAt;
+
+    MaintenanceTask(Runnable task, long submittedAt) {
+      this.task = task;
+      this.submittedAt = submittedAt;
+    }
+
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+/**
+ * Statistics about the maintenance work of a
+ * {@link SeasideGraalSqueakBridgeServlet} that runs while no request
+ * is waiting for the image.
+ * <p>
+ * All values are aggregated over all contexts of the servlet.
+ */
+public interface MaintenanceSchedulerMBean {
+
+  /**
+   * Returns the number of tasks waiting for the image to become idle.
+   *
+   * @return the number of queued tasks
+   */
+  int getQueuedTaskCount();
+
+  /**
+   * Returns the number of tasks that have been run, including failed ones.
+   *
+   * @return the number of completed tasks
+   */
+  long getCompletedTaskCount();
+
+  /**
+   * Returns the number of tasks that failed with an exception.
+   *
+   * @return the number of failed tasks
+   */
+  long getFailedTaskCount();
+
+  /**
+   * Returns the number of times tasks were run while requests were
+   * waiting because the image did not become idle before the maximum delay.
+   *
+   * @return the number of times the deadline was reached
+   */
+  long getOverdueCount();
+
+  /**
+   * Returns how long the oldest queued task has been waiting.
+   *
+   * @return the age of the oldest task in milliseconds, {@code 0} if no task is queued
+   */
+  double getOldestTaskAgeMillis();
+
+  /**
+   * Returns the total time tasks held the image lock.
+   *
+   * @return the time spent running tasks in milliseconds
+   */
+  double getTotalTaskTimeMillis();
+
+}
@@ -0,0 +1,226 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An image file that is memory mapped once and read by all contexts in
+ * the JVM that load it.
+ * <p>
+ * Every context still parses the image into its own objects but reads
+ * the file from the shared mapping instead of copying it through a
+ * stream of its own. The mapping is reference counted, when the last
+ * reference is released it is dropped and unmapped by the garbage
+ * collector. If the file has been modified since it was mapped it is
+ * mapped again.
+ */
+final class MappedImage {
+
+  /**
+   * All mapped images by their absolute path, guarded by itself.
+   */
+  private static final Map<Path, MappedImage> IMAGES = new HashMap<>();
+
+  private final Path path;
+
+  private final Path realPath;
+
+  private final FileTime lastModified;
+
+  private final ByteBuffer contents;
+
+  /**
+   * Number of servlets using {@link #contents}, guarded by {@link #IMAGES}.
+   */
+  private int references;
+
+  private MappedImage(Path path, Path realPath, FileTime lastModified, ByteBuffer contents) {
+    this.path = path;
+    this.realPath = realPath;
+    this.lastModified = lastModified;
+    this.contents = contents;
+  }
+
+  /**
+   * Returns the mapped image for a file, maps it if necessary.
+   * <p>
+   * Every call has to be balanced with a call to {@link #release()}.
+   *
+   * @param imagePath the path of the image file, not {@code null}
+   * @return the mapped image
+   * @throws IOException if the file can not be mapped
+   */
+  static MappedImage acquire(Path imagePath) throws IOException {
+    Objects.requireNonNull(imagePath, "imagePath");
+    Path path = imagePath.toAbsolutePath().normalize();
+    synchronized (IMAGES) {
+      MappedImage mappedImage = IMAGES.get(path);
+      if (mappedImage == null || mappedImage.isStale()) {
+        // a stale mapping stays valid for the servlets still using it
+        mappedImage = map(path);
+        IMAGES.put(path, mappedImage);
+      }
+      mappedImage.references += 1;
+      return mappedImage;
+    }
+  }
+
+  private static MappedImage map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("image: " + path + " is too large to be mapped: " + size + " bytes");
+      }
+      FileTime lastModified = Files.getLastModifiedTime(path);
+      MappedByteBuffer contents = channel.map(MapMode.READ_ONLY, 0L, size);
+      return new MappedImage(path, path.toRealPath(), lastModified, contents);
+    }
+  }
+
+  private boolean isStale() {
+    try {
+      return !Files.getLastModifiedTime(this.path).equals(this.lastModified)
+          || Files.size(this.path) != this.contents.capacity();
+    } catch (IOException e) {
+      // let mapping it again report the problem
+      return true;
+    }
+  }
+
+  /**
+   * Releases a reference obtained from {@link #acquire(Path)}.
+   * <p>
+   * Contexts may still read the image until they are closed.
+   */
+  void release() {
+    synchronized (IMAGES) {
+      this.references -= 1;
+      if (this.references == 0) {
+        IMAGES.remove(this.path, this);
+      }
+    }
+  }
+
+  /**
+   * Whether a path refers to the image file.
+   *
+   * @param candidate the absolute and normalized path of a file
+   * @return whether {@code candidate} is the image file
+   */
+  boolean isImage(Path candidate) {
+    return this.path.equals(candidate) || this.realPath.equals(candidate);
+  }
+
+  long getSize() {
+    return this.contents.capacity();
+  }
+
+  /**
+   * Opens a read only channel on the mapped image.
+   *
+   * @return a new channel positioned at the start of the image
+   */
+  SeekableByteChannel newChannel() {
+    return new ImageChannel(this.contents.duplicate());
+  }
+
+  @Override
+  public String toString() {
+    return "MappedImage(" + this.path + ')';
+  }
+
+  /**
+   * A read only channel on a private view of the mapped image.
+   */
+  static final class ImageChannel implements SeekableByteChannel {
+
+    private final ByteBuffer view;
+
+    private volatile boolean open;
+
+    ImageChannel(ByteBuffer view) {
+      this.view = view;
+      this.open = true;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer destination) throws IOException {
+      this.ensureOpen();
+      int remaining = this.view.remaining();
+      if (remaining == 0) {
+        return -1;
+      }
+      int length = Math.min(remaining, destination.remaining());
+      int position = this.view.position();
+      destination.put(this.view.slice().limit(length));
+      this.view.position(position + length);
+      return length;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+      this.ensureOpen();
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+      this.ensureOpen();
+      return this.view.position();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+      this.ensureOpen();
+      if (newPosition < 0L) {
+        throw new IllegalArgumentException("negative position: " + newPosition);
+      }
+      // reading beyond the end answers end of stream
+      this.view.position((int) Math.min(newPosition, this.view.limit()));
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      this.ensureOpen();
+      return this.view.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+      this.ensureOpen();
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return this.open;
+    }
+
+    @Override
+    public void close() {
+      this.open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+      if (!this.open) {
+        throw new ClosedChannelException();
+      }
+    }
+
+  }
+
+}
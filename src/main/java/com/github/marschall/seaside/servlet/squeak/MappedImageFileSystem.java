@@ -0,0 +1,172 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.graalvm.polyglot.io.FileSystem;
+
+/**
+ * A polyglot {@link FileSystem} that reads the image file from a
+ * {@link MappedImage} and delegates all other operations.
+ */
+final class MappedImageFileSystem implements FileSystem {
+
+  private final FileSystem delegate;
+
+  private final MappedImage image;
+
+  /**
+   * Constructs a new {@link MappedImageFileSystem}.
+   *
+   * @param delegate the file system for all other files, not {@code null}
+   * @param image the mapped image, not {@code null}
+   */
+  MappedImageFileSystem(FileSystem delegate, MappedImage image) {
+    Objects.requireNonNull(delegate, "delegate");
+    Objects.requireNonNull(image, "image");
+    this.delegate = delegate;
+    this.image = image;
+  }
+
+  @Override
+  public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+    if (isReadOnly(options) && this.image.isImage(this.delegate.toAbsolutePath(path).normalize())) {
+      return this.image.newChannel();
+    }
+    return this.delegate.newByteChannel(path, options, attrs);
+  }
+
+  private static boolean isReadOnly(Set<? extends OpenOption> options) {
+    for (OpenOption option : options) {
+      if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Path parsePath(URI uri) {
+    return this.delegate.parsePath(uri);
+  }
+
+  @Override
+  public Path parsePath(String path) {
+    return this.delegate.parsePath(path);
+  }
+
+  @Override
+  public void checkAccess(Path path, Set<? extends AccessMode> modes, LinkOption... linkOptions) throws IOException {
+    this.delegate.checkAccess(path, modes, linkOptions);
+  }
+
+  @Override
+  public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+    this.delegate.createDirectory(dir, attrs);
+  }
+
+  @Override
+  public void delete(Path path) throws IOException {
+    this.delegate.delete(path);
+  }
+
+  @Override
+  public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
+    return this.delegate.newDirectoryStream(dir, filter);
+  }
+
+  @Override
+  public Path toAbsolutePath(Path path) {
+    return this.delegate.toAbsolutePath(path);
+  }
+
+  @Override
+  public Path toRealPath(Path path, LinkOption... linkOptions) throws IOException {
+    return this.delegate.toRealPath(path, linkOptions);
+  }
+
+  @Override
+  public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+    return this.delegate.readAttributes(path, attributes, options);
+  }
+
+  @Override
+  public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+    this.delegate.setAttribute(path, attribute, value, options);
+  }
+
+  @Override
+  public void copy(Path source, Path target, CopyOption... options) throws IOException {
+    this.delegate.copy(source, target, options);
+  }
+
+  @Override
+  public void move(Path source, Path target, CopyOption... options) throws IOException {
+    this.delegate.move(source, target, options);
+  }
+
+  @Override
+  public void createLink(Path link, Path existing) throws IOException {
+    this.delegate.createLink(link, existing);
+  }
+
+  @Override
+  public void createSymbolicLink(Path link, Path target, FileAttribute<?>... attrs) throws IOException {
+    this.delegate.createSymbolicLink(link, target, attrs);
+  }
+
+  @Override
+  public Path readSymbolicLink(Path link) throws IOException {
+    return this.delegate.readSymbolicLink(link);
+  }
+
+  @Override
+  public void setCurrentWorkingDirectory(Path currentWorkingDirectory) {
+    this.delegate.setCurrentWorkingDirectory(currentWorkingDirectory);
+  }
+
+  @Override
+  public String getSeparator() {
+    return this.delegate.getSeparator();
+  }
+
+  @Override
+  public String getPathSeparator() {
+    return this.delegate.getPathSeparator();
+  }
+
+  @Override
+  public String getMimeType(Path path) {
+    return this.delegate.getMimeType(path);
+  }
+
+  @Override
+  public Charset getEncoding(Path path) {
+    return this.delegate.getEncoding(path);
+  }
+
+  @Override
+  public Path getTempDirectory() {
+    return this.delegate.getTempDirectory();
+  }
+
+  @Override
+  public boolean isSameFile(Path path1, Path path2, LinkOption... options) throws IOException {
+    return this.delegate.isSameFile(path1, path2, options);
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Reads request bodies that are not form data as bytes.
+ * <p>
+ * The buffer is presized from {@code Content-Length} so that a small
+ * body is copied only once. {@code Content-Length} is sent by the client,
+ * a larger body starts with {@link #INITIAL_BUFFER_SIZE} and the buffer
+ * only grows as bytes arrive. Bodies larger than the maximum size are
+ * rejected before or while they are read.
+ */
+final class RequestBodyReader {
+
+  /**
+   * Maximum body size meaning no limit.
+   */
+  static final int UNLIMITED = 0;
+
+  /**
+   * The largest array the JVM can allocate, the limit of {@link #UNLIMITED}.
+   */
+  static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * The largest buffer allocated before any bytes of the body have been read.
+   */
+  static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final int maxSize;
+
+  private final boolean raw;
+
+  /**
+   * Constructs a new {@link RequestBodyReader}.
+   *
+   * @param maxSize the maximum body size in bytes, {@link #UNLIMITED} for no limit
+   * @param raw whether Seaside receives the body undecoded
+   */
+  RequestBodyReader(int maxSize, boolean raw) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must not be negative");
+    }
+    this.maxSize = maxSize;
+    this.raw = raw;
+  }
+
+  /**
+   * Whether Seaside receives the body undecoded, as
+   * {@code WARequest >> #rawBody} expects, or decoded by the servlet
+   * container.
+   *
+   * @return {@code true} if Seaside receives the body undecoded
+   */
+  boolean isRaw() {
+    return this.raw;
+  }
+
+  byte[] read(HttpServletRequest request) throws IOException {
+    try (InputStream inputStream = request.getInputStream()) {
+      return read(inputStream, request.getContentLengthLong(), this.maxSize);
+    }
+  }
+
+  /**
+   * Reads a request body.
+   *
+   * @param inputStream the body
+   * @param contentLength the value of {@code Content-Length}, {@code -1} if unknown
+   * @param maxSize the maximum body size in bytes, {@link #UNLIMITED} for no limit
+   * @return the body
+   * @throws RequestBodyTooLargeException if the body is larger than {@code maxSize}
+   * @throws IOException if reading the body fails
+   */
+  static byte[] read(InputStream inputStream, long contentLength, int maxSize) throws IOException {
+    int limit = maxSize == UNLIMITED ? MAX_ARRAY_SIZE : maxSize;
+    if (contentLength > limit) {
+      // don't read a body we are going to reject anyway
+      throw new RequestBodyTooLargeException(contentLength, limit);
+    }
+    if (contentLength == 0L) {
+      return EMPTY;
+    }
+    if (contentLength > 0L) {
+      return readFully(inputStream, (int) contentLength);
+    }
+    return readChunked(inputStream, limit);
+  }
+
+  private static byte[] readFully(InputStream inputStream, int contentLength) throws IOException {
+    // don't trust Content-Length with the allocation, the buffer grows up to it while reading
+    byte[] body = new byte[Math.min(contentLength, INITIAL_BUFFER_SIZE)];
+    int read = 0;
+    while (true) {
+      read += inputStream.readNBytes(body, read, body.length - read);
+      if (read < body.length) {
+        throw new EOFException("expected " + contentLength + " bytes but got " + read);
+      }
+      if (read == contentLength) {
+        return body;
+      }
+      body = Arrays.copyOf(body, (int) Math.min(contentLength, 2L * body.length));
+    }
+  }
+
+  /**
+   * Reads a request body without {@code Content-Length}.
+   *
+   * @param inputStream the body
+   * @param limit the maximum body size in bytes
+   * @return the body
+   * @throws RequestBodyTooLargeException if the body is larger than {@code limit}
+   * @throws IOException if reading the body fails
+   */
+  static byte[] readChunked(InputStream inputStream, int limit) throws IOException {
+    byte[] body = inputStream.readNBytes(limit);
+    // a byte past the limit means the body is too large, even without a configured maximum
+    if (body.length == limit && inputStream.read() != -1) {
+      throw new RequestBodyTooLargeException(-1L, limit);
+    }
+    return body;
+  }
+
+  /**
+   * Signals that a request body is larger than the configured maximum.
+   */
+  static final class RequestBodyTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    RequestBodyTooLargeException(long contentLength, int maxSize) {
+      super((contentLength == -1L ? "request body" : "request body of " + contentLength + " bytes")
+          + " exceeds maximum of " + maxSize + " bytes");
+    }
+
+  }
+
+}
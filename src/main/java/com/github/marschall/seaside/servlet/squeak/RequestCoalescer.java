@@ -0,0 +1,229 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Collapses identical concurrent {@code GET} requests without a session
+ * into a single request to the image.
+ * <p>
+ * The first request for a key leads and is processed by the image, the
+ * requests arriving while it is in flight follow and are answered with
+ * a copy of the response of the leader. Requests are keyed on the URL
+ * and a configurable set of request headers. Only responses with a
+ * {@code 2xx} status that neither set cookies nor are {@code private},
+ * {@code no-store} or {@code no-cache} are shared, otherwise the
+ * followers are processed by the image themselves. This keeps a new
+ * session from being shared, whether its key is in a cookie or in the
+ * query fields of the links of the page.
+ * <p>
+ * Conditional requests and requests with an {@code Authorization}
+ * header are never coalesced.
+ */
+final class RequestCoalescer implements RequestCoalescerMBean {
+
+  /**
+   * Request attribute marking a follower that has to be processed by the image itself.
+   */
+  static final String NOT_COALESCED_ATTRIBUTE = RequestCoalescer.class.getName() + ".notCoalesced";
+
+  /**
+   * Lower case request header names that are part of the key.
+   */
+  private final String[] keyHeaders;
+
+  private final ConcurrentMap<String, CompletableFuture<BufferedResponse>> inFlight;
+
+  private final AtomicLong leaderCount;
+
+  private final AtomicLong sharedCount;
+
+  private final AtomicLong notSharedCount;
+
+  /**
+   * Constructs a new {@link RequestCoalescer}.
+   *
+   * @param keyHeaders the names of the request headers that are part of the key
+   */
+  RequestCoalescer(String[] keyHeaders) {
+    Objects.requireNonNull(keyHeaders, "keyHeaders");
+    this.keyHeaders = new String[keyHeaders.length];
+    for (int i = 0; i < keyHeaders.length; i++) {
+      this.keyHeaders[i] = keyHeaders[i].toLowerCase(Locale.ROOT);
+    }
+    this.inFlight = new ConcurrentHashMap<>();
+    this.leaderCount = new AtomicLong();
+    this.sharedCount = new AtomicLong();
+    this.notSharedCount = new AtomicLong();
+  }
+
+  /**
+   * Checks whether a request may be coalesced with other requests.
+   *
+   * @param request the request
+   * @return whether the request may lead or follow
+   */
+  boolean isCoalescable(HttpServletRequest request) {
+    return "GET".equals(request.getMethod())
+        && request.getAttribute(NOT_COALESCED_ATTRIBUTE) == null
+        && request.getHeader("Authorization") == null
+        && request.getHeader("If-None-Match") == null
+        && request.getHeader("If-Modified-Since") == null
+        && ImageContextPool.getSessionKey(request) == null;
+  }
+
+  /**
+   * Joins the request with the same key that is in flight or, if there
+   * is none, makes the request the leader.
+   *
+   * @param request the request, has to be {@link #isCoalescable(HttpServletRequest) coalescable}
+   * @return the flight of the request
+   */
+  Flight join(HttpServletRequest request) {
+    String key = this.key(request);
+    CompletableFuture<BufferedResponse> response = new CompletableFuture<>();
+    CompletableFuture<BufferedResponse> existing = this.inFlight.putIfAbsent(key, response);
+    if (existing != null) {
+      return new Flight(key, existing, false);
+    }
+    this.leaderCount.incrementAndGet();
+    return new Flight(key, response, true);
+  }
+
+  String key(HttpServletRequest request) {
+    StringBuilder key = new StringBuilder(ResponseCache.cacheKey(request));
+    for (String headerName : this.keyHeaders) {
+      // the URL can not contain a line feed
+      key.append('\n');
+      String value = request.getHeader(headerName);
+      if (value != null) {
+        key.append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Ends a flight and hands the response of the leader to the followers.
+   * <p>
+   * Has to be called by the leader once Seaside has generated the
+   * response, and before the response is modified for the client of the
+   * leader, or if the request fails. Further calls have no effect.
+   *
+   * @param flight the flight returned by {@link #join(HttpServletRequest)} to the leader
+   * @param generated the response generated by Seaside, {@code null} if
+   *                  there is none or it was written to the client directly
+   */
+  void complete(Flight flight, BufferedResponse generated) {
+    if (!flight.isLeader()) {
+      throw new IllegalArgumentException("not the leader");
+    }
+    // later requests start a new flight
+    this.inFlight.remove(flight.key, flight.response);
+    BufferedResponse shared = null;
+    if (generated != null && isShareable(generated)) {
+      // the leader compresses its own copy
+      shared = generated.copy();
+    }
+    flight.response.complete(shared);
+  }
+
+  /**
+   * Records whether a follower received the response of its leader.
+   *
+   * @param shared the response of the leader, {@code null} if not shareable
+   */
+  void followed(BufferedResponse shared) {
+    if (shared != null) {
+      this.sharedCount.incrementAndGet();
+    } else {
+      this.notSharedCount.incrementAndGet();
+    }
+  }
+
+  static boolean isShareable(BufferedResponse response) {
+    int status = response.getStatus();
+    if (status < 200 || status >= 300 || response.hasCookies() || response.getHeader("Set-Cookie") != null) {
+      return false;
+    }
+    String cacheControl = response.getHeader("Cache-Control");
+    if (cacheControl == null) {
+      return true;
+    }
+    for (String directive : cacheControl.split(",")) {
+      String trimmed = directive.trim().toLowerCase(Locale.ROOT);
+      // Seaside marks pages with a new session in the query as not cacheable
+      if (trimmed.equals("private") || trimmed.equals("no-store") || trimmed.startsWith("no-cache")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public long getLeaderCount() {
+    return this.leaderCount.get();
+  }
+
+  @Override
+  public long getSharedCount() {
+    return this.sharedCount.get();
+  }
+
+  @Override
+  public long getNotSharedCount() {
+    return this.notSharedCount.get();
+  }
+
+  @Override
+  public int getInFlightCount() {
+    return this.inFlight.size();
+  }
+
+  @Override
+  public void reset() {
+    this.leaderCount.set(0L);
+    this.sharedCount.set(0L);
+    this.notSharedCount.set(0L);
+  }
+
+  /**
+   * The participation of a request in a flight of identical requests.
+   */
+  static final class Flight {
+
+    private final String key;
+
+    private final CompletableFuture<BufferedResponse> response;
+
+    private final boolean leader;
+
+    Flight(String key, CompletableFuture<BufferedResponse> response, boolean leader) {
+      this.key = key;
+      this.response = response;
+      this.leader = leader;
+    }
+
+    boolean isLeader() {
+      return this.leader;
+    }
+
+    /**
+     * Returns the response of the leader, completes once the leader
+     * has called {@link RequestCoalescer#complete(Flight, BufferedResponse)}.
+     *
+     * @return the copy of the response of the leader, {@code null} if it is not shareable
+     */
+    CompletableFuture<BufferedResponse> getResponse() {
+      return this.response;
+    }
+
+  }
+
+}
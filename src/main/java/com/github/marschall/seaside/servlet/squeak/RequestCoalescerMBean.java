@@ -0,0 +1,45 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+/**
+ * Statistics about the request coalescing of a {@link SeasideGraalSqueakBridgeServlet}.
+ */
+public interface RequestCoalescerMBean {
+
+  /**
+   * Returns the number of requests that were processed by the image
+   * on behalf of identical concurrent requests.
+   *
+   * @return the number of leading requests
+   */
+  long getLeaderCount();
+
+  /**
+   * Returns the number of requests answered with the response of an
+   * identical concurrent request without entering the image.
+   *
+   * @return the number of requests sharing a response
+   */
+  long getSharedCount();
+
+  /**
+   * Returns the number of requests that waited for an identical
+   * concurrent request whose response could not be shared and were
+   * then processed by the image themselves.
+   *
+   * @return the number of requests not sharing a response
+   */
+  long getNotSharedCount();
+
+  /**
+   * Returns the number of leading requests currently in the image.
+   *
+   * @return the number of requests in flight
+   */
+  int getInFlightCount();
+
+  /**
+   * Resets the counters.
+   */
+  void reset();
+
+}
@@ -0,0 +1,285 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.graalvm.polyglot.Engine;
+
+import com.oracle.truffle.tools.profiler.CPUSampler;
+import com.oracle.truffle.tools.profiler.StackTraceEntry;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Samples the Smalltalk stacks of threads processing requests with the
+ * Truffle {@link CPUSampler} and aggregates them per request path.
+ * <p>
+ * The sampler is not collecting continuously, instead a daemon thread
+ * takes a sample of all threads in the engine with
+ * {@link CPUSampler#takeSample()} whenever a request is being processed.
+ * A sample of a thread is attributed to the path of the request the
+ * thread is processing, threads not processing a request are ignored.
+ * <p>
+ * Requires {@code org.graalvm.tools:profiler} which is part of GraalVM
+ * but has to be added on a stock JDK.
+ */
+final class RequestProfiler implements RequestProfilerMBean {
+
+  /**
+   * Maximum number of distinct paths, further paths are aggregated in {@link #OTHER_PATHS}.
+   */
+  private static final int MAX_PATHS = 1000;
+
+  private static final String OTHER_PATHS = "(other)";
+
+  private static final String SYNTHETIC_PATH = "(synthetic)";
+
+  private static final int TOP_METHODS = 20;
+
+  private final long periodMillis;
+
+  private final BiConsumer<String, Throwable> errorLog;
+
+  private final List<CPUSampler> samplers;
+
+  /**
+   * The path of the request each thread is currently processing.
+   */
+  private final Map<Thread, String> activeRequests;
+
+  private final Map<String, Profile> profiles;
+
+  private final Profile allPaths;
+
+  private volatile ScheduledExecutorService executor;
+
+  /**
+   * Constructs a new {@link RequestProfiler}.
+   *
+   * @param periodMillis the time between two samples in milliseconds
+   * @param errorLog where to log failed samples, not {@code null}
+   */
+  RequestProfiler(long periodMillis, BiConsumer<String, Throwable> errorLog) {
+    Objects.requireNonNull(errorLog, "errorLog");
+    this.periodMillis = periodMillis;
+    this.errorLog = errorLog;
+    this.samplers = new CopyOnWriteArrayList<>();
+    this.activeRequests = new ConcurrentHashMap<>();
+    this.profiles = new ConcurrentHashMap<>();
+    this.allPaths = new Profile();
+  }
+
+  /**
+   * Samples the threads of an engine, an engine shared by several
+   * contexts is only sampled once.
+   *
+   * @param engine the engine of a context
+   */
+  void attach(Engine engine) {
+    CPUSampler sampler = CPUSampler.find(engine);
+    if (!this.samplers.contains(sampler)) {
+      this.samplers.add(sampler);
+    }
+  }
+
+  /**
+   * Starts sampling.
+   */
+  void start() {
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, RequestProfiler::newProfilerThread);
+    scheduledExecutor.scheduleAtFixedRate(this::sample, this.periodMillis, this.periodMillis, MILLISECONDS);
+    this.executor = scheduledExecutor;
+  }
+
+  private static Thread newProfilerThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "seaside-profiler");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Records that the calling thread started processing a request in the image.
+   *
+   * @param nativeRequest the request being processed
+   */
+  void requestStarted(ServletNativeRequest nativeRequest) {
+    HttpServletRequest request = nativeRequest.getRequest();
+    this.activeRequests.put(Thread.currentThread(), request != null ? request.getRequestURI() : SYNTHETIC_PATH);
+  }
+
+  /**
+   * Records that the calling thread finished processing a request in the image.
+   */
+  void requestFinished() {
+    this.activeRequests.remove(Thread.currentThread());
+  }
+
+  private void sample() {
+    if (this.activeRequests.isEmpty()) {
+      return;
+    }
+    try {
+      for (CPUSampler sampler : this.samplers) {
+        for (Map.Entry<Thread, List<StackTraceEntry>> stack : sampler.takeSample().entrySet()) {
+          String path = this.activeRequests.get(stack.getKey());
+          if (path != null) {
+            this.record(path, rootNames(stack.getValue()));
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      // an exception would cancel sampling
+      this.errorLog.accept("could not take sample", e);
+    }
+  }
+
+  private static List<String> rootNames(List<StackTraceEntry> stack) {
+    List<String> rootNames = new ArrayList<>(stack.size());
+    for (StackTraceEntry entry : stack) {
+      String rootName = entry.getRootName();
+      if (rootName != null) {
+        rootNames.add(rootName);
+      }
+    }
+    return rootNames;
+  }
+
+  /**
+   * Records a sample of a request.
+   *
+   * @param path the path of the request
+   * @param rootNames the names of the methods on the stack, top of the stack first
+   */
+  void record(String path, List<String> rootNames) {
+    if (rootNames.isEmpty()) {
+      return;
+    }
+    Profile profile = this.profiles.get(path);
+    if (profile == null) {
+      profile = this.profiles.computeIfAbsent(this.profiles.size() < MAX_PATHS ? path : OTHER_PATHS, key -> new Profile());
+    }
+    profile.record(rootNames);
+    this.allPaths.record(rootNames);
+  }
+
+  @Override
+  public long getSampleCount() {
+    return this.allPaths.samples.get();
+  }
+
+  @Override
+  public String[] getPaths() {
+    List<Map.Entry<String, Profile>> paths = new ArrayList<>(this.profiles.entrySet());
+    paths.sort(Comparator.comparingLong((Map.Entry<String, Profile> entry) -> entry.getValue().samples.get()).reversed());
+    String[] result = new String[paths.size()];
+    for (int i = 0; i < result.length; i++) {
+      Map.Entry<String, Profile> path = paths.get(i);
+      result[i] = path.getKey() + ' ' + path.getValue().samples.get();
+    }
+    return result;
+  }
+
+  @Override
+  public String[] getTopMethods() {
+    return this.allPaths.topMethods(TOP_METHODS);
+  }
+
+  @Override
+  public String[] topMethods(String path, int count) {
+    Profile profile = this.profiles.get(path);
+    if (profile == null) {
+      return new String[0];
+    }
+    return profile.topMethods(count);
+  }
+
+  @Override
+  public void reset() {
+    this.profiles.clear();
+    this.allPaths.clear();
+  }
+
+  /**
+   * Stops sampling.
+   */
+  void close() {
+    ScheduledExecutorService scheduledExecutor = this.executor;
+    if (scheduledExecutor != null) {
+      scheduledExecutor.shutdown();
+      try {
+        scheduledExecutor.awaitTermination(1L, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.executor = null;
+    }
+    this.activeRequests.clear();
+  }
+
+  /**
+   * Samples of a single path, only updated by the profiler thread.
+   */
+  static final class Profile {
+
+    final AtomicLong samples = new AtomicLong();
+
+    private final Map<String, MethodSamples> methods = new ConcurrentHashMap<>();
+
+    void record(List<String> rootNames) {
+      this.samples.incrementAndGet();
+      this.methods.computeIfAbsent(rootNames.get(0), key -> new MethodSamples()).self.incrementAndGet();
+      // count recursive methods only once
+      Set<String> onStack = new HashSet<>(rootNames);
+      for (String rootName : onStack) {
+        this.methods.computeIfAbsent(rootName, key -> new MethodSamples()).total.incrementAndGet();
+      }
+    }
+
+    String[] topMethods(int count) {
+      List<Map.Entry<String, MethodSamples>> sorted = new ArrayList<>(this.methods.entrySet());
+      sorted.sort(Comparator.comparingLong((Map.Entry<String, MethodSamples> entry) -> entry.getValue().self.get())
+          .thenComparingLong(entry -> entry.getValue().total.get())
+          .reversed());
+      double sampleCount = Math.max(this.samples.get(), 1L);
+      String[] top = new String[Math.min(count, sorted.size())];
+      for (int i = 0; i < top.length; i++) {
+        Map.Entry<String, MethodSamples> method = sorted.get(i);
+        top[i] = String.format(Locale.ROOT, "%5.1f%% self %5.1f%% total %s",
+            method.getValue().self.get() * 100.0d / sampleCount,
+            method.getValue().total.get() * 100.0d / sampleCount,
+            method.getKey());
+      }
+      return top;
+    }
+
+    void clear() {
+      this.methods.clear();
+      this.samples.set(0L);
+    }
+
+  }
+
+  static final class MethodSamples {
+
+    final AtomicLong self = new AtomicLong();
+
+    final AtomicLong total = new AtomicLong();
+
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+/**
+ * The Smalltalk methods a {@link SeasideGraalSqueakBridgeServlet} spends
+ * its time in, per request path.
+ * <p>
+ * Methods are reported with the percentage of samples in which they
+ * were at the top of the stack (self) and anywhere on the stack (total),
+ * sorted by self.
+ */
+public interface RequestProfilerMBean {
+
+  /**
+   * Returns the number of samples taken while a request was processed.
+   *
+   * @return the number of samples
+   */
+  long getSampleCount();
+
+  /**
+   * Returns the profiled request paths with their number of samples,
+   * sorted by the number of samples.
+   *
+   * @return the request paths
+   */
+  String[] getPaths();
+
+  /**
+   * Returns the methods with the most samples over all request paths.
+   *
+   * @return the top methods
+   */
+  String[] getTopMethods();
+
+  /**
+   * Returns the methods with the most samples while processing requests
+   * for a path.
+   *
+   * @param path the request path as returned by {@link #getPaths()}, without the number of samples
+   * @param count the maximum number of methods
+   * @return the top methods, empty if the path has not been sampled
+   */
+  String[] topMethods(String path, int count);
+
+  /**
+   * Discards all samples.
+   */
+  void reset();
+
+}
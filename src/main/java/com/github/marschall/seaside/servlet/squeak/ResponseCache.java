@@ -0,0 +1,549 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A size bounded LRU cache of {@code GET} responses that Seaside marks
+ * as cacheable with {@code Cache-Control: max-age} or {@code s-maxage}.
+ * <p>
+ * Responses are keyed on the URL and the request headers named in their
+ * {@code Vary} header. Fresh responses are served without entering the
+ * image. Stale responses with a validator from Seaside are revalidated
+ * with a conditional request, a {@code 304} from Seaside makes them
+ * fresh again and updates their headers. A {@code 304} to a conditional
+ * request of the client itself is relayed unchanged.
+ * <p>
+ * Responses that set cookies, are {@code private}, {@code no-store} or
+ * {@code no-cache} and requests with an {@code Authorization} header
+ * are never cached.
+ */
+final class ResponseCache implements ResponseCacheMBean {
+
+  /**
+   * Maximum number of variants kept per URL.
+   */
+  private static final int MAX_VARIANTS = 16;
+
+  private static final String[] NO_STRINGS = new String[0];
+
+  private final long maxSize;
+
+  private final Charset defaultCharset;
+
+  /**
+   * Cached responses by URL in access order, guarded by {@code this}.
+   */
+  private final LinkedHashMap<String, Variants> entries;
+
+  /**
+   * Size of all cached responses, guarded by {@code this}.
+   */
+  private long size;
+
+  private final AtomicLong hitCount;
+
+  private final AtomicLong missCount;
+
+  private final AtomicLong revalidationCount;
+
+  private final AtomicLong evictionCount;
+
+  /**
+   * Constructs a new {@link ResponseCache}.
+   *
+   * @param maxSize the maximum size of all cached response bodies in bytes
+   * @param defaultCharset the charset of text responses without a charset in the content type
+   */
+  ResponseCache(long maxSize, Charset defaultCharset) {
+    Objects.requireNonNull(defaultCharset, "defaultCharset");
+    if (maxSize <= 0L) {
+      throw new IllegalArgumentException("maximum size must be positive");
+    }
+    this.maxSize = maxSize;
+    this.defaultCharset = defaultCharset;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    this.hitCount = new AtomicLong();
+    this.missCount = new AtomicLong();
+    this.revalidationCount = new AtomicLong();
+    this.evictionCount = new AtomicLong();
+  }
+
+  /**
+   * Checks whether the response to a request may be cached.
+   *
+   * @param request the request
+   * @return whether the request may be served from or stored in the cache
+   */
+  boolean isCacheable(HttpServletRequest request) {
+    String method = request.getMethod();
+    return ("GET".equals(method) || "HEAD".equals(method))
+        && request.getHeader("Authorization") == null;
+  }
+
+  /**
+   * Looks up the cached response to a request.
+   *
+   * @param request the request, has to be {@link #isCacheable(HttpServletRequest) cacheable}
+   * @return the cached response, possibly stale, {@code null} if not cached
+   */
+  CachedResponse lookup(HttpServletRequest request) {
+    String key = cacheKey(request);
+    synchronized (this) {
+      Variants variants = this.entries.get(key);
+      if (variants == null) {
+        return null;
+      }
+      return variants.find(request);
+    }
+  }
+
+  /**
+   * Serves a request from the cache if a fresh response is available.
+   *
+   * @param cached the result of {@link #lookup(HttpServletRequest)}, may be {@code null}
+   * @param request the request
+   * @param response the response to write to
+   * @return whether the request was served
+   * @throws IOException if writing to the client fails
+   */
+  boolean serve(CachedResponse cached, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (cached == null || !cached.isFresh(System.nanoTime())) {
+      this.missCount.incrementAndGet();
+      return false;
+    }
+    this.hitCount.incrementAndGet();
+    cached.writeTo(request, response);
+    return true;
+  }
+
+  /**
+   * Stores a response generated by Seaside or, if Seaside confirmed a
+   * stale response with {@code 304}, serves the cached response.
+   *
+   * @param request the request, has to be {@link #isCacheable(HttpServletRequest) cacheable}
+   * @param generated the response Seaside generated
+   * @param revalidated the stale response whose validators were added by
+   *                    {@link #addValidators(CachedResponse, ServletNativeRequest)},
+   *                    {@code null} if none
+   * @param response the response to write to
+   * @return whether a cached response was written to {@code response}
+   * @throws IOException if writing to the client fails
+   */
+  boolean commit(HttpServletRequest request, BufferedResponse generated, CachedResponse revalidated,
+      HttpServletResponse response) throws IOException {
+    if (generated.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+      if (revalidated == null) {
+        // answers the validators of the client, not ours
+        return false;
+      }
+      this.revalidate(request, revalidated, generated, response);
+      return true;
+    }
+    this.store(request, generated);
+    return false;
+  }
+
+  private void revalidate(HttpServletRequest request, CachedResponse cached, BufferedResponse notModified,
+      HttpServletResponse response) throws IOException {
+    CachedResponse refreshed = cached.updatedBy(notModified, System.nanoTime());
+    String key = cacheKey(request);
+    synchronized (this) {
+      Variants variants = this.entries.get(key);
+      if (variants != null) {
+        // the 304 may forbid caching from now on
+        this.size += variants.replace(cached, refreshed.maxAge > 0L ? refreshed : null);
+      }
+    }
+    this.revalidationCount.incrementAndGet();
+    refreshed.writeTo(request, response);
+  }
+
+  private void store(HttpServletRequest request, BufferedResponse generated) {
+    if (generated.getStatus() != HttpServletResponse.SC_OK || generated.hasCookies()) {
+      return;
+    }
+    long maxAge = getMaxAge(generated.getHeader("Cache-Control"));
+    if (maxAge <= 0L) {
+      return;
+    }
+    String[] varyNames = parseVary(generated.getHeader("Vary"));
+    if (varyNames == null) {
+      return;
+    }
+    CachedResource resource = CachedResource.from(generated, this.defaultCharset, false);
+    if (resource == null || resource.getSize() > this.maxSize) {
+      return;
+    }
+    String originEntityTag = generated.getHeader("ETag");
+    String lastModified = generated.getHeader("Last-Modified");
+    CachedResponse cached = new CachedResponse(varyValues(request, varyNames), resource,
+        originEntityTag, lastModified, maxAge, System.nanoTime());
+
+    String key = cacheKey(request);
+    synchronized (this) {
+      Variants variants = this.entries.get(key);
+      if (variants == null || !Arrays.equals(variants.varyNames, varyNames)) {
+        if (variants != null) {
+          this.size -= variants.getSize();
+        }
+        variants = new Variants(varyNames);
+        this.entries.put(key, variants);
+      }
+      this.size += variants.add(cached);
+      this.evict();
+    }
+  }
+
+  /**
+   * Removes the least recently used entries until the cache is below its maximum size.
+   */
+  private void evict() {
+    Iterator<Variants> iterator = this.entries.values().iterator();
+    while (this.size > this.maxSize && iterator.hasNext()) {
+      Variants eldest = iterator.next();
+      this.size -= eldest.getSize();
+      this.evictionCount.addAndGet(eldest.responses.size());
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Adds the validators of a stale response to the snapshot of a request
+   * so that Seaside can answer with {@code 304}.
+   * <p>
+   * Responses without validators are not revalidated, the snapshot is
+   * left unchanged.
+   *
+   * @param cached the result of {@link #lookup(HttpServletRequest)}, may be {@code null}
+   * @param nativeRequest the request snapshot
+   */
+  static void addValidators(CachedResponse cached, ServletNativeRequest nativeRequest) {
+    if (cached == null || !cached.hasValidators()) {
+      return;
+    }
+    // replace the validators of the client, the cached response answers them
+    if (cached.originEntityTag != null) {
+      nativeRequest.setRequestHeader("If-None-Match", cached.originEntityTag);
+    }
+    if (cached.lastModified != null) {
+      nativeRequest.setRequestHeader("If-Modified-Since", cached.lastModified);
+    }
+    nativeRequest.setRevalidated(cached);
+  }
+
+  static String cacheKey(HttpServletRequest request) {
+    StringBuilder key = new StringBuilder();
+    key.append(request.getScheme()).append("://")
+      .append(request.getServerName()).append(':').append(request.getServerPort())
+      .append(request.getRequestURI());
+    String queryString = request.getQueryString();
+    if (queryString != null) {
+      key.append('?').append(queryString);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Determines the freshness lifetime of a shared cache from a {@code Cache-Control} header.
+   *
+   * @param cacheControl the value of the header, may be {@code null}
+   * @return the freshness lifetime in seconds, {@code 0} if the response must not be cached
+   */
+  static long getMaxAge(String cacheControl) {
+    if (cacheControl == null) {
+      return 0L;
+    }
+    long maxAge = 0L;
+    long sharedMaxAge = -1L;
+    for (String directive : cacheControl.split(",")) {
+      String trimmed = directive.trim().toLowerCase(Locale.ROOT);
+      if (trimmed.equals("private") || trimmed.equals("no-store") || trimmed.startsWith("no-cache")) {
+        return 0L;
+      } else if (trimmed.startsWith("max-age=")) {
+        maxAge = parseSeconds(trimmed.substring("max-age=".length()));
+      } else if (trimmed.startsWith("s-maxage=")) {
+        sharedMaxAge = parseSeconds(trimmed.substring("s-maxage=".length()));
+      }
+    }
+    return sharedMaxAge >= 0L ? sharedMaxAge : maxAge;
+  }
+
+  private static long parseSeconds(String value) {
+    String unquoted = value.trim();
+    if (unquoted.length() >= 2 && unquoted.startsWith("\"") && unquoted.endsWith("\"")) {
+      unquoted = unquoted.substring(1, unquoted.length() - 1);
+    }
+    try {
+      return Math.max(Long.parseLong(unquoted), 0L);
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  /**
+   * Parses the header names of a {@code Vary} header.
+   *
+   * @param vary the value of the header, may be {@code null}
+   * @return the lower case header names, {@code null} for {@code *}
+   */
+  static String[] parseVary(String vary) {
+    if (vary == null || vary.isBlank()) {
+      return NO_STRINGS;
+    }
+    List<String> names = new ArrayList<>(2);
+    for (String name : vary.split(",")) {
+      String trimmed = name.trim().toLowerCase(Locale.ROOT);
+      if (trimmed.equals("*")) {
+        return null;
+      }
+      if (!trimmed.isEmpty() && !names.contains(trimmed)) {
+        names.add(trimmed);
+      }
+    }
+    names.sort(null);
+    return names.toArray(NO_STRINGS);
+  }
+
+  private static String[] varyValues(HttpServletRequest request, String[] varyNames) {
+    String[] values = new String[varyNames.length];
+    for (int i = 0; i < varyNames.length; i++) {
+      values[i] = request.getHeader(varyNames[i]);
+    }
+    return values;
+  }
+
+  @Override
+  public long getHitCount() {
+    return this.hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return this.missCount.get();
+  }
+
+  @Override
+  public long getRevalidationCount() {
+    return this.revalidationCount.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hits = this.hitCount.get();
+    long total = hits + this.missCount.get();
+    if (total == 0L) {
+      return 0.0d;
+    }
+    return hits / (double) total;
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return this.evictionCount.get();
+  }
+
+  @Override
+  public synchronized int getEntryCount() {
+    int count = 0;
+    for (Variants variants : this.entries.values()) {
+      count += variants.responses.size();
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized long getSize() {
+    return this.size;
+  }
+
+  @Override
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public void clear() {
+    synchronized (this) {
+      this.entries.clear();
+      this.size = 0L;
+    }
+    this.hitCount.set(0L);
+    this.missCount.set(0L);
+    this.revalidationCount.set(0L);
+    this.evictionCount.set(0L);
+  }
+
+  /**
+   * The cached responses of a URL that differ in the values of their
+   * {@code Vary} headers.
+   */
+  static final class Variants {
+
+    final String[] varyNames;
+
+    /**
+     * Most recently stored last.
+     */
+    final List<CachedResponse> responses;
+
+    Variants(String[] varyNames) {
+      this.varyNames = varyNames;
+      this.responses = new ArrayList<>(1);
+    }
+
+    CachedResponse find(HttpServletRequest request) {
+      String[] values = varyValues(request, this.varyNames);
+      for (CachedResponse response : this.responses) {
+        if (Arrays.equals(response.varyValues, values)) {
+          return response;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Adds a response replacing any response with the same vary values.
+     *
+     * @param response the response to add
+     * @return the change in size
+     */
+    long add(CachedResponse response) {
+      long delta = response.resource.getSize();
+      Iterator<CachedResponse> iterator = this.responses.iterator();
+      while (iterator.hasNext()) {
+        CachedResponse existing = iterator.next();
+        if (Arrays.equals(existing.varyValues, response.varyValues)) {
+          delta -= existing.resource.getSize();
+          iterator.remove();
+        }
+      }
+      if (this.responses.size() == MAX_VARIANTS) {
+        delta -= this.responses.remove(0).resource.getSize();
+      }
+      this.responses.add(response);
+      return delta;
+    }
+
+    /**
+     * Replaces a response with its revalidated version.
+     *
+     * @param response the response to replace
+     * @param updated the revalidated response, {@code null} to remove {@code response}
+     * @return the change in size
+     */
+    long replace(CachedResponse response, CachedResponse updated) {
+      int index = this.responses.indexOf(response);
+      if (index == -1) {
+        // evicted or replaced in the meantime
+        return 0L;
+      }
+      long delta = -response.resource.getSize();
+      if (updated != null) {
+        this.responses.set(index, updated);
+        delta += updated.resource.getSize();
+      } else {
+        this.responses.remove(index);
+      }
+      return delta;
+    }
+
+    long getSize() {
+      long size = 0L;
+      for (CachedResponse response : this.responses) {
+        size += response.resource.getSize();
+      }
+      return size;
+    }
+
+  }
+
+  /**
+   * A cached response together with its freshness.
+   */
+  static final class CachedResponse {
+
+    final String[] varyValues;
+
+    final CachedResource resource;
+
+    /**
+     * The entity tag set by Seaside, {@code null} if none.
+     */
+    final String originEntityTag;
+
+    /**
+     * The last modified date set by Seaside, {@code null} if none.
+     */
+    final String lastModified;
+
+    /**
+     * Freshness lifetime in seconds.
+     */
+    final long maxAge;
+
+    /**
+     * Value of {@link System#nanoTime()} when the response was stored or revalidated.
+     */
+    private final long storedNanos;
+
+    private final long expiresNanos;
+
+    CachedResponse(String[] varyValues, CachedResource resource, String originEntityTag,
+        String lastModified, long maxAge, long storedNanos) {
+      this.varyValues = varyValues;
+      this.resource = resource;
+      this.originEntityTag = originEntityTag;
+      this.lastModified = lastModified;
+      this.maxAge = maxAge;
+      this.storedNanos = storedNanos;
+      this.expiresNanos = storedNanos + TimeUnit.SECONDS.toNanos(maxAge);
+    }
+
+    boolean isFresh(long now) {
+      return now - this.expiresNanos < 0L;
+    }
+
+    boolean hasValidators() {
+      return this.originEntityTag != null || this.lastModified != null;
+    }
+
+    /**
+     * Creates the revalidated version of this response, the headers of
+     * the {@code 304} replace the stored ones, see RFC 9111 section 4.3.4.
+     *
+     * @param notModified the {@code 304} Seaside generated
+     * @param now the value of {@link System#nanoTime()}
+     * @return the fresh response
+     */
+    CachedResponse updatedBy(BufferedResponse notModified, long now) {
+      String entityTag = notModified.getHeader("ETag");
+      String modified = notModified.getHeader("Last-Modified");
+      String cacheControl = notModified.getHeader("Cache-Control");
+      return new CachedResponse(this.varyValues, this.resource.withHeaders(notModified),
+          entityTag != null ? entityTag : this.originEntityTag,
+          modified != null ? modified : this.lastModified,
+          cacheControl != null ? getMaxAge(cacheControl) : this.maxAge, now);
+    }
+
+    void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      long age = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.storedNanos);
+      response.setHeader("Age", Long.toString(age));
+      this.resource.writeTo(request, response);
+    }
+
+  }
+
+}
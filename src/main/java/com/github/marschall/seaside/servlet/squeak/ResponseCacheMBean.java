@@ -0,0 +1,72 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+/**
+ * Statistics about the response cache of a {@link SeasideGraalSqueakBridgeServlet}.
+ */
+public interface ResponseCacheMBean {
+
+  /**
+   * Returns the number of requests served from the cache without
+   * entering the image.
+   *
+   * @return the number of cache hits
+   */
+  long getHitCount();
+
+  /**
+   * Returns the number of cacheable requests that had to be processed
+   * by the image.
+   *
+   * @return the number of cache misses
+   */
+  long getMissCount();
+
+  /**
+   * Returns the number of stale responses that Seaside confirmed with
+   * {@code 304 Not Modified} and that were served from the cache.
+   *
+   * @return the number of successful revalidations
+   */
+  long getRevalidationCount();
+
+  /**
+   * Returns the ratio of hits to all cacheable requests.
+   *
+   * @return the hit ratio between 0.0 and 1.0
+   */
+  double getHitRatio();
+
+  /**
+   * Returns the number of responses removed to stay below the maximum size.
+   *
+   * @return the number of evictions
+   */
+  long getEvictionCount();
+
+  /**
+   * Returns the number of cached responses.
+   *
+   * @return the number of cached responses including variants
+   */
+  int getEntryCount();
+
+  /**
+   * Returns the size of all cached response bodies.
+   *
+   * @return the size in bytes
+   */
+  long getSize();
+
+  /**
+   * Returns the maximum size of all cached response bodies.
+   *
+   * @return the maximum size in bytes
+   */
+  long getMaxSize();
+
+  /**
+   * Removes all responses from the cache and resets the counters.
+   */
+  void clear();
+
+}
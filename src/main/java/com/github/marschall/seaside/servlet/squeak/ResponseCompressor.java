@@ -0,0 +1,200 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Compresses text responses with gzip after the image lock has been
+ * released.
+ * <p>
+ * Only bodies set with
+ * {@link ServletNativeRequest#setResponseContentsAsString(String)} of
+ * at least a minimum size and with an allowed MIME type are compressed,
+ * and only if the client accepts gzip. {@link Deflater}s are pooled
+ * because they hold native memory that is only released by
+ * {@link Deflater#end()}.
+ */
+final class ResponseCompressor {
+
+  private static final String GZIP = "gzip";
+
+  private static final int GZIP_HEADER_SIZE = 10;
+
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private final int minSize;
+
+  /**
+   * Lower case MIME types without parameters, {@code type/*} matches all subtypes.
+   */
+  private final Set<String> mimeTypes;
+
+  private final Charset defaultCharset;
+
+  private final BlockingQueue<Deflater> deflaters;
+
+  /**
+   * Set by {@link #close()}, after that {@link Deflater}s are no longer pooled.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new {@link ResponseCompressor}.
+   *
+   * @param minSize the minimum number of characters of an uncompressed body
+   * @param mimeTypes the MIME types to compress, {@code type/*} matches all subtypes
+   * @param defaultCharset the charset of text bodies without a charset in {@code Content-Type}
+   * @param poolSize the maximum number of idle {@link Deflater}s kept
+   */
+  ResponseCompressor(int minSize, Set<String> mimeTypes, Charset defaultCharset, int poolSize) {
+    this.minSize = minSize;
+    this.mimeTypes = mimeTypes;
+    this.defaultCharset = defaultCharset;
+    this.deflaters = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Compresses the body of a response if possible.
+   *
+   * @param acceptEncoding the {@code Accept-Encoding} header of the request, may be {@code null}
+   * @param response the response generated by Seaside
+   * @return whether the body has been compressed
+   */
+  boolean compress(String acceptEncoding, BufferedResponse response) {
+    String textBody = response.getTextBody();
+    if (textBody == null || textBody.length() < this.minSize) {
+      return false;
+    }
+    int status = response.getStatus();
+    if (status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_NOT_MODIFIED) {
+      return false;
+    }
+    if (response.getHeader("Content-Encoding") != null) {
+      return false;
+    }
+    String contentType = response.getHeader("Content-Type");
+    if (!this.isAllowed(contentType)) {
+      return false;
+    }
+    // vary even if this client does not accept gzip so that caches keep both variants
+    response.setHeader("Vary", CachedResource.addAcceptEncoding(response.getHeader("Vary")));
+    if (!CachedResource.acceptsGzip(acceptEncoding)) {
+      return false;
+    }
+    byte[] body = textBody.getBytes(CachedResource.getCharset(contentType, this.defaultCharset));
+    response.setBinaryBody(this.gzip(body));
+    // a length set by Seaside is the one of the uncompressed body
+    response.removeHeader("Content-Length");
+    response.setHeader("Content-Encoding", GZIP);
+    String entityTag = response.getHeader("ETag");
+    if (entityTag != null && entityTag.startsWith("\"") && entityTag.endsWith("\"")) {
+      // a strong tag must be different for every representation
+      response.setHeader("ETag", entityTag.substring(0, entityTag.length() - 1) + "-gzip\"");
+    }
+    return true;
+  }
+
+  boolean isAllowed(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    int parametersStart = contentType.indexOf(';');
+    String mimeType = (parametersStart == -1 ? contentType : contentType.substring(0, parametersStart))
+        .trim().toLowerCase(Locale.ROOT);
+    if (this.mimeTypes.contains(mimeType)) {
+      return true;
+    }
+    int slash = mimeType.indexOf('/');
+    return slash != -1 && this.mimeTypes.contains(mimeType.substring(0, slash + 1) + '*');
+  }
+
+  byte[] gzip(byte[] body) {
+    Deflater deflater = this.deflaters.poll();
+    if (deflater == null) {
+      // raw deflate, the gzip header and trailer are written below
+      deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+    try {
+      byte[] compressed = new byte[Math.max(body.length / 2, 64) + GZIP_HEADER_SIZE];
+      // magic, deflate, no flags, no modification time, no extra flags, unknown OS
+      compressed[0] = (byte) 0x1f;
+      compressed[1] = (byte) 0x8b;
+      compressed[2] = Deflater.DEFLATED;
+      compressed[9] = (byte) 0xff;
+      int length = GZIP_HEADER_SIZE;
+      deflater.setInput(body);
+      deflater.finish();
+      while (!deflater.finished()) {
+        if (length == compressed.length) {
+          compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+        length += deflater.deflate(compressed, length, compressed.length - length);
+      }
+      if (compressed.length - length < GZIP_TRAILER_SIZE) {
+        compressed = Arrays.copyOf(compressed, length + GZIP_TRAILER_SIZE);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      writeIntLittleEndian((int) crc.getValue(), compressed, length);
+      writeIntLittleEndian(body.length, compressed, length + 4);
+      return Arrays.copyOf(compressed, length + GZIP_TRAILER_SIZE);
+    } finally {
+      this.release(deflater);
+    }
+  }
+
+  private void release(Deflater deflater) {
+    if (this.closed) {
+      deflater.end();
+      return;
+    }
+    deflater.reset();
+    if (!this.deflaters.offer(deflater)) {
+      deflater.end();
+    } else if (this.closed) {
+      // closed concurrently, the pool may already have been drained
+      this.endPooledDeflaters();
+    }
+  }
+
+  private static void writeIntLittleEndian(int value, byte[] array, int offset) {
+    array[offset] = (byte) value;
+    array[offset + 1] = (byte) (value >>> 8);
+    array[offset + 2] = (byte) (value >>> 16);
+    array[offset + 3] = (byte) (value >>> 24);
+  }
+
+  /**
+   * Releases the native memory of all pooled {@link Deflater}s.
+   */
+  void close() {
+    this.closed = true;
+    this.endPooledDeflaters();
+  }
+
+  private void endPooledDeflaters() {
+    Deflater deflater = this.deflaters.poll();
+    while (deflater != null) {
+      deflater.end();
+      deflater = this.deflaters.poll();
+    }
+  }
+
+  /**
+   * Returns the number of idle {@link Deflater}s in the pool.
+   *
+   * @return the number of pooled {@link Deflater}s
+   */
+  int getPooledDeflaterCount() {
+    return this.deflaters.size();
+  }
+
+}
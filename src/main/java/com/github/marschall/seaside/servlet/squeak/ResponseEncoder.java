@@ -0,0 +1,175 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Encodes text responses in Java after the image lock has been released.
+ * <p>
+ * With {@code seaside.JavaEncoding} Seaside renders into a
+ * {@code GRNullCodec} and hands over unencoded characters with
+ * {@link ServletNativeRequest#setResponseContentsAsString(String)}.
+ * The characters are encoded with the charset of the
+ * {@code Content-Type} in chunks into pooled buffers and written to the
+ * output stream, a body that fits into a single buffer is sent with a
+ * {@code Content-Length}. Characters that can not be encoded are
+ * replaced, like the writer of the container does.
+ */
+final class ResponseEncoder {
+
+  /**
+   * The number of characters encoded at once, copying them to an array
+   * lets the encoder use its array fast path.
+   */
+  static final int CHUNK_SIZE = 4096;
+
+  /**
+   * The size of the byte buffers, a chunk fits even if every character needs four bytes.
+   */
+  static final int BUFFER_SIZE = 4 * CHUNK_SIZE;
+
+  private final Charset defaultCharset;
+
+  private final BlockingQueue<EncodingBuffer> buffers;
+
+  /**
+   * Constructs a new {@link ResponseEncoder}.
+   *
+   * @param defaultCharset the charset of text bodies without a charset in {@code Content-Type}
+   * @param poolSize the maximum number of idle buffers kept
+   */
+  ResponseEncoder(Charset defaultCharset, int poolSize) {
+    this.defaultCharset = defaultCharset;
+    this.buffers = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Writes a response to the client, encoding a text body.
+   *
+   * @param response the response generated by Seaside
+   * @param servletResponse the response to write to
+   * @throws IOException if writing to the client fails
+   */
+  void writeTo(BufferedResponse response, HttpServletResponse servletResponse) throws IOException {
+    String textBody = response.getTextBody();
+    if (textBody == null) {
+      response.writeTo(servletResponse);
+      return;
+    }
+    response.writeHeadersTo(servletResponse);
+    Charset charset = CachedResource.getCharset(response.getHeader("Content-Type"), this.defaultCharset);
+    boolean setContentLength = response.getHeader("Content-Length") == null;
+    EncodingBuffer buffer = this.acquire();
+    try {
+      buffer.encode(textBody, charset, servletResponse, setContentLength);
+    } finally {
+      this.release(buffer);
+    }
+  }
+
+  private EncodingBuffer acquire() {
+    EncodingBuffer buffer = this.buffers.poll();
+    if (buffer == null) {
+      buffer = new EncodingBuffer();
+    }
+    return buffer;
+  }
+
+  private void release(EncodingBuffer buffer) {
+    // dropped if the pool is full
+    this.buffers.offer(buffer);
+  }
+
+  /**
+   * Returns the number of idle buffers in the pool.
+   *
+   * @return the number of pooled buffers
+   */
+  int getPooledBufferCount() {
+    return this.buffers.size();
+  }
+
+  /**
+   * A character chunk, a byte buffer and the encoder last used with them.
+   */
+  static final class EncodingBuffer {
+
+    private final char[] chars;
+
+    private final CharBuffer input;
+
+    private final ByteBuffer output;
+
+    private CharsetEncoder encoder;
+
+    EncodingBuffer() {
+      this.chars = new char[CHUNK_SIZE];
+      this.input = CharBuffer.wrap(this.chars);
+      this.output = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    void encode(String text, Charset charset, HttpServletResponse response, boolean setContentLength) throws IOException {
+      CharsetEncoder charsetEncoder = this.encoderFor(charset);
+      CharBuffer in = this.input;
+      ByteBuffer out = this.output;
+      in.clear();
+      out.clear();
+      boolean written = false;
+      int length = text.length();
+      int offset = 0;
+      while (true) {
+        // a high surrogate at the end of the last chunk is still at the start of the buffer
+        int count = Math.min(in.remaining(), length - offset);
+        text.getChars(offset, offset + count, this.chars, in.position());
+        offset += count;
+        in.position(in.position() + count);
+        in.flip();
+        boolean endOfInput = offset == length;
+        while (charsetEncoder.encode(in, out, endOfInput).isOverflow()) {
+          this.write(response);
+          written = true;
+        }
+        if (endOfInput) {
+          break;
+        }
+        in.compact();
+      }
+      while (charsetEncoder.flush(out).isOverflow()) {
+        this.write(response);
+        written = true;
+      }
+      if (!written && setContentLength) {
+        response.setContentLength(out.position());
+      }
+      this.write(response);
+    }
+
+    private void write(HttpServletResponse response) throws IOException {
+      ByteBuffer out = this.output;
+      response.getOutputStream().write(out.array(), 0, out.position());
+      out.clear();
+    }
+
+    private CharsetEncoder encoderFor(Charset charset) {
+      CharsetEncoder charsetEncoder = this.encoder;
+      if (charsetEncoder != null && charsetEncoder.charset().equals(charset)) {
+        return charsetEncoder.reset();
+      }
+      charsetEncoder = charset.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.encoder = charsetEncoder;
+      return charsetEncoder;
+    }
+
+  }
+
+}
@@ -1,15 +1,37 @@
 package com.github.marschall.seaside.servlet.squeak;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.io.FileSystem;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletContext;
@@ -34,28 +56,219 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
 
   private static final String IMAGE_LOCATION_PARAMETER = LANGUAGE + ".ImagePath";
 
+  private static final String POOL_SIZE_PARAMETER = "seaside.PoolSize";
+
+  private static final String ASYNC_PARAMETER = "seaside.Async";
+
+  private static final String QUEUE_CAPACITY_PARAMETER = "seaside.QueueCapacity";
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+  private static final String UPLOAD_SPILL_THRESHOLD_PARAMETER = "seaside.UploadSpillThreshold";
+
+  private static final int DEFAULT_UPLOAD_SPILL_THRESHOLD = 1024 * 1024;
+
+  private static final String MAX_REQUEST_BODY_SIZE_PARAMETER = "seaside.MaxRequestBodySize";
+
+  private static final String RAW_REQUEST_BODY_PARAMETER = "seaside.RawRequestBody";
+
+  private static final String STREAMED_RESPONSES_PARAMETER = "seaside.StreamedResponses";
+
+  private static final String MAX_QUEUE_DEPTH_PARAMETER = "seaside.MaxQueueDepth";
+
+  private static final String MAX_WAIT_PARAMETER = "seaside.MaxWait";
+
+  private static final String RETRY_AFTER_PARAMETER = "seaside.RetryAfter";
+
+  private static final int DEFAULT_RETRY_AFTER = 1;
+
+  private static final String SESSION_PRIORITY_PARAMETER = "seaside.SessionPriority";
+
+  private static final String FILE_LIBRARY_CACHE_PARAMETER = "seaside.FileLibraryCache";
+
+  private static final String FILE_LIBRARY_PATH_PARAMETER = "seaside.FileLibraryPath";
+
+  private static final String DEFAULT_FILE_LIBRARY_PATH = "files";
+
+  private static final String FILE_LIBRARY_GZIP_PARAMETER = "seaside.FileLibraryGzip";
+
+  private static final String FILE_LIBRARY_MAX_ENTRIES_PARAMETER = "seaside.FileLibraryMaxEntries";
+
+  private static final int DEFAULT_FILE_LIBRARY_MAX_ENTRIES = 1024;
+
+  private static final String COMPRESSION_PARAMETER = "seaside.Compression";
+
+  private static final String COMPRESSION_MIN_SIZE_PARAMETER = "seaside.CompressionMinSize";
+
+  private static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+
+  private static final String COMPRESSION_MIME_TYPES_PARAMETER = "seaside.CompressionMimeTypes";
+
+  private static final String DEFAULT_COMPRESSION_MIME_TYPES = "text/html,text/css,text/plain,text/javascript,"
+      + "application/javascript,application/json,application/xml,image/svg+xml";
+
+  private static final String RESPONSE_CACHE_SIZE_PARAMETER = "seaside.ResponseCacheSize";
+
+  private static final String REQUEST_COALESCING_PARAMETER = "seaside.RequestCoalescing";
+
+  private static final String COALESCING_HEADERS_PARAMETER = "seaside.CoalescingHeaders";
+
+  private static final String DEFAULT_COALESCING_HEADERS = "Accept-Language";
+
+  private static final String WARM_UP_URLS_PARAMETER = "seaside.WarmUpUrls";
+
+  private static final String WARM_UP_ITERATIONS_PARAMETER = "seaside.WarmUpIterations";
+
+  private static final int DEFAULT_WARM_UP_ITERATIONS = 100;
+
+  private static final String WARM_UP_TIME_PARAMETER = "seaside.WarmUpTime";
+
+  private static final int DEFAULT_WARM_UP_TIME = 60;
+
+  private static final String MAINTENANCE_SLICE_PARAMETER = "seaside.MaintenanceSlice";
+
+  private static final int DEFAULT_MAINTENANCE_SLICE = 50;
+
+  private static final String MAINTENANCE_MAX_DELAY_PARAMETER = "seaside.MaintenanceMaxDelay";
+
+  private static final int DEFAULT_MAINTENANCE_MAX_DELAY = 60;
+
+  private static final String SESSION_REAP_INTERVAL_PARAMETER = "seaside.SessionReapInterval";
+
+  private static final String PROFILING_PARAMETER = "seaside.Profiling";
+
+  private static final String PROFILING_PERIOD_PARAMETER = "seaside.ProfilingPeriod";
+
+  private static final int DEFAULT_PROFILING_PERIOD = 10;
+
+  private static final String SHARED_ENGINE_PARAMETER = "seaside.SharedEngine";
+
+  private static final String HOST_CALLS_PARAMETER = "seaside.HostCalls";
+
+  private static final String MAPPED_IMAGE_PARAMETER = "seaside.MappedImage";
+
+  private static final String JAVA_ENCODING_PARAMETER = "seaside.JavaEncoding";
+
+  /**
+   * Prefix of init parameters that are passed as options to the polyglot engine.
+   */
+  private static final String ENGINE_OPTION_PREFIX = "engine.";
+
   private volatile ServletConfig config;
 
-  private volatile Context graalContext;
+  private volatile ImageContextPool contextPool;
+
+  private volatile UploadSpool uploadSpool;
+
+  private volatile RequestBodyReader requestBodyReader;
+
+  /**
+   * Parses request URLs so that the image does not have to.
+   */
+  private volatile UrlParser urlParser;
+
+  /**
+   * The encoding of the codec of the image, resolved once as looking it
+   * up logs a warning if it has to be guessed.
+   */
+  private volatile String characterEncoding;
+
+  /**
+   * The charset of {@link #characterEncoding}.
+   */
+  private volatile Charset charset;
+
+  /**
+   * Engine shared with other servlets, {@code null} if every context has its own engine.
+   */
+  private volatile SharedEngine sharedEngine;
+
+  /**
+   * Image file shared with other servlets, {@code null} if every context reads the file itself.
+   */
+  private volatile MappedImage mappedImage;
+
+  private volatile AdmissionPolicy admissionPolicy;
+
+  /**
+   * Runs blocking tasks of the image while its lock is released, {@code null} if disabled.
+   */
+  private volatile ExecutorService hostCallExecutor;
+
+  /**
+   * Cache of file library resources, {@code null} if disabled.
+   */
+  private volatile FileLibraryCache fileLibraryCache;
+
+  /**
+   * Cache of responses Seaside marks as cacheable, {@code null} if disabled.
+   */
+  private volatile ResponseCache responseCache;
+
+  /**
+   * Collapses identical concurrent requests, {@code null} if disabled.
+   */
+  private volatile RequestCoalescer requestCoalescer;
+
+  /**
+   * Compresses text responses, {@code null} if disabled.
+   */
+  private volatile ResponseCompressor responseCompressor;
 
-  private volatile Value seasideAdaptor;
+  /**
+   * Encodes text responses the image hands over unencoded, {@code null} if the image encodes them.
+   */
+  private volatile ResponseEncoder responseEncoder;
+
+  private volatile ImageLockStatistics lockStatistics;
+
+  private volatile MaintenanceScheduler maintenanceScheduler;
 
   /**
-   * Instance of WAMBean, {@code nil} if already registered.
+   * Samples the Smalltalk methods requests spend their time in, {@code null} if disabled.
    */
-  private volatile Value waMBean;
+  private volatile RequestProfiler requestProfiler;
 
   /**
-   * Lock through which all access to Squeak objects happens because GraalSqueak is not thread safe.
+   * Names under which {@link #lockStatistics}, {@link #maintenanceScheduler},
+   * {@link #requestProfiler}, {@link #responseCache} and {@link #requestCoalescer}
+   * are registered.
    */
-  private final Lock imageLock = new ReentrantLock();
+  private final List<ObjectName> statisticsNames = new CopyOnWriteArrayList<>();
 
   @Override
   public void init(ServletConfig config) throws ServletException {
     this.config = config;
-    this.loadSqueakImage();
-    this.registerServerAdaptor();
-    this.registerMBean();
+    this.createUploadSpool();
+    try {
+      this.requestBodyReader = this.createRequestBodyReader();
+      this.characterEncoding = this.resolveCharacterEncoding();
+      this.charset = Charset.forName(this.characterEncoding);
+      this.urlParser = new UrlParser(this.getDispatcherPath(), this.charset);
+      this.admissionPolicy = this.createAdmissionPolicy();
+      this.lockStatistics = new ImageLockStatistics(this::getPendingRequests);
+      this.requestProfiler = this.createRequestProfiler();
+      this.loadContextPool();
+      // only return from init() and accept traffic once the image is fast
+      this.warmUp();
+      this.startRequestProfiler();
+      this.fileLibraryCache = this.createFileLibraryCache();
+      this.responseCache = this.createResponseCache();
+      this.requestCoalescer = this.createRequestCoalescer();
+      this.responseCompressor = this.createResponseCompressor();
+      this.responseEncoder = this.createResponseEncoder();
+      this.maintenanceScheduler = this.createMaintenanceScheduler();
+      this.registerMBean();
+      this.registerStatistics();
+    } catch (ServletException | RuntimeException | Error e) {
+      // the container does not call destroy() if init() fails
+      try {
+        this.destroy();
+      } catch (RuntimeException cleanUpFailure) {
+        e.addSuppressed(cleanUpFailure);
+      }
+      throw e;
+    }
   }
 
   @Override
@@ -75,8 +288,21 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
 
   @Override
   public void destroy() {
+    this.unregisterStatistics();
+    this.closeRequestProfiler();
+    this.closeMaintenanceScheduler();
     this.unregisterMBean();
     this.stopSqueakImage();
+    this.closeHostCallExecutor();
+    this.releaseMappedImage();
+    this.releaseSharedEngine();
+    this.closeUploadSpool();
+    this.admissionPolicy = null;
+    this.fileLibraryCache = null;
+    this.responseCache = null;
+    this.requestCoalescer = null;
+    this.closeResponseCompressor();
+    this.responseEncoder = null;
     this.config = null;
   }
 
@@ -94,9 +320,273 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
     return imageLocation;
   }
 
-  private void loadSqueakImage() throws ServletException {
-    this.graalContext = Context.newBuilder()
-        .option(IMAGE_LOCATION_PARAMETER, this.getImageLocation())
+  private int getPositiveIntParameter(String parameterName, int defaultValue) throws ServletException {
+    String parameterValue = this.config.getInitParameter(parameterName);
+    if (parameterValue == null) {
+      return defaultValue;
+    }
+    try {
+      int value = Integer.parseInt(parameterValue.trim());
+      if (value < 1) {
+        throw new ServletException("init parameter: \"" + parameterName + "\" must be positive but was: " + parameterValue);
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new ServletException("init parameter: \"" + parameterName + "\" is not a number: " + parameterValue, e);
+    }
+  }
+
+  private boolean getBooleanParameter(String parameterName) {
+    return Boolean.parseBoolean(this.config.getInitParameter(parameterName));
+  }
+
+  private int getQueueCapacity() throws ServletException {
+    if (!this.getBooleanParameter(ASYNC_PARAMETER)) {
+      // synchronous mode
+      return 0;
+    }
+    return this.getPositiveIntParameter(QUEUE_CAPACITY_PARAMETER, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  private RequestBodyReader createRequestBodyReader() throws ServletException {
+    int maxSize = this.getPositiveIntParameter(MAX_REQUEST_BODY_SIZE_PARAMETER, RequestBodyReader.UNLIMITED);
+    // with a null codec in the image bodyDecoded would not decode
+    boolean raw = this.getBooleanParameter(RAW_REQUEST_BODY_PARAMETER) && !this.getBooleanParameter(JAVA_ENCODING_PARAMETER);
+    return new RequestBodyReader(maxSize, raw);
+  }
+
+  private AdmissionPolicy createAdmissionPolicy() throws ServletException {
+    int maxQueueDepth = this.getPositiveIntParameter(MAX_QUEUE_DEPTH_PARAMETER, AdmissionPolicy.UNLIMITED);
+    int maxWait = this.getPositiveIntParameter(MAX_WAIT_PARAMETER, AdmissionPolicy.UNLIMITED);
+    int retryAfter = this.getPositiveIntParameter(RETRY_AFTER_PARAMETER, DEFAULT_RETRY_AFTER);
+    boolean sessionPriority = this.getBooleanParameter(SESSION_PRIORITY_PARAMETER);
+    return new AdmissionPolicy(maxQueueDepth, maxWait, retryAfter, sessionPriority);
+  }
+
+  private FileLibraryCache createFileLibraryCache() throws ServletException {
+    if (!this.getBooleanParameter(FILE_LIBRARY_CACHE_PARAMETER)) {
+      return null;
+    }
+    String fileLibraryPath = this.config.getInitParameter(FILE_LIBRARY_PATH_PARAMETER);
+    if (fileLibraryPath == null) {
+      fileLibraryPath = DEFAULT_FILE_LIBRARY_PATH;
+    }
+    String dispatcherPath = this.getDispatcherPath();
+    if (!dispatcherPath.endsWith("/")) {
+      dispatcherPath += '/';
+    }
+    String pathPrefix = dispatcherPath + fileLibraryPath + '/';
+    int maxEntries = this.getPositiveIntParameter(FILE_LIBRARY_MAX_ENTRIES_PARAMETER, DEFAULT_FILE_LIBRARY_MAX_ENTRIES);
+    return new FileLibraryCache(pathPrefix, this.charset, this.getBooleanParameter(FILE_LIBRARY_GZIP_PARAMETER),
+        maxEntries);
+  }
+
+  private ResponseCache createResponseCache() throws ServletException {
+    int maxSize = this.getPositiveIntParameter(RESPONSE_CACHE_SIZE_PARAMETER, 0);
+    if (maxSize == 0) {
+      return null;
+    }
+    return new ResponseCache(maxSize, this.charset);
+  }
+
+  private RequestCoalescer createRequestCoalescer() {
+    if (!this.getBooleanParameter(REQUEST_COALESCING_PARAMETER)) {
+      return null;
+    }
+    String headersParameter = this.config.getInitParameter(COALESCING_HEADERS_PARAMETER);
+    if (headersParameter == null) {
+      headersParameter = DEFAULT_COALESCING_HEADERS;
+    }
+    List<String> headers = new ArrayList<>();
+    for (String header : headersParameter.split("[,\\s]+")) {
+      if (!header.isEmpty()) {
+        headers.add(header);
+      }
+    }
+    return new RequestCoalescer(headers.toArray(new String[0]));
+  }
+
+  private ResponseCompressor createResponseCompressor() throws ServletException {
+    if (!this.getBooleanParameter(COMPRESSION_PARAMETER)) {
+      return null;
+    }
+    int minSize = this.getPositiveIntParameter(COMPRESSION_MIN_SIZE_PARAMETER, DEFAULT_COMPRESSION_MIN_SIZE);
+    String mimeTypesParameter = this.config.getInitParameter(COMPRESSION_MIME_TYPES_PARAMETER);
+    if (mimeTypesParameter == null) {
+      mimeTypesParameter = DEFAULT_COMPRESSION_MIME_TYPES;
+    }
+    Set<String> mimeTypes = new HashSet<>();
+    for (String mimeType : mimeTypesParameter.split("[,\\s]+")) {
+      if (!mimeType.isEmpty()) {
+        mimeTypes.add(mimeType.toLowerCase(Locale.ROOT));
+      }
+    }
+    // one deflater for every thread that can commit concurrently is enough
+    int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+    return new ResponseCompressor(minSize, mimeTypes, this.charset, poolSize);
+  }
+
+  private ResponseEncoder createResponseEncoder() {
+    if (!this.getBooleanParameter(JAVA_ENCODING_PARAMETER)) {
+      return null;
+    }
+    // one buffer for every thread that can commit concurrently is enough
+    int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+    return new ResponseEncoder(this.charset, poolSize);
+  }
+
+  private MaintenanceScheduler createMaintenanceScheduler() throws ServletException {
+    int slice = this.getPositiveIntParameter(MAINTENANCE_SLICE_PARAMETER, DEFAULT_MAINTENANCE_SLICE);
+    int maxDelay = this.getPositiveIntParameter(MAINTENANCE_MAX_DELAY_PARAMETER, DEFAULT_MAINTENANCE_MAX_DELAY);
+    int reapInterval = this.getPositiveIntParameter(SESSION_REAP_INTERVAL_PARAMETER, 0);
+    MaintenanceScheduler scheduler = new MaintenanceScheduler(TimeUnit.MILLISECONDS.toNanos(slice),
+        TimeUnit.SECONDS.toNanos(maxDelay), this.getServletContext()::log);
+    if (reapInterval > 0) {
+      scheduler.schedule(this.contextPool.getContexts(),
+          context -> context.getSeasideAdaptor().invokeMember("reapSessions"), TimeUnit.SECONDS.toNanos(reapInterval));
+    }
+    scheduler.start();
+    return scheduler;
+  }
+
+  private RequestProfiler createRequestProfiler() throws ServletException {
+    if (!this.getBooleanParameter(PROFILING_PARAMETER)) {
+      return null;
+    }
+    int period = this.getPositiveIntParameter(PROFILING_PERIOD_PARAMETER, DEFAULT_PROFILING_PERIOD);
+    try {
+      // the dependency is optional, fail early with a clear message
+      Class.forName("com.oracle.truffle.tools.profiler.CPUSampler", false, SeasideGraalSqueakBridgeServlet.class.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw new ServletException("init parameter: \"" + PROFILING_PARAMETER + "\" requires org.graalvm.tools:profiler", e);
+    }
+    return new RequestProfiler(period, this.getServletContext()::log);
+  }
+
+  private void startRequestProfiler() {
+    RequestProfiler profiler = this.requestProfiler;
+    if (profiler != null) {
+      // warm up requests should not show up in the profile
+      profiler.reset();
+      profiler.start();
+    }
+  }
+
+  private Map<String, String> getEngineOptions() {
+    Map<String, String> options = new TreeMap<>();
+    Enumeration<String> parameterNames = this.config.getInitParameterNames();
+    while (parameterNames.hasMoreElements()) {
+      String parameterName = parameterNames.nextElement();
+      if (parameterName.startsWith(ENGINE_OPTION_PREFIX)) {
+        options.put(parameterName, this.config.getInitParameter(parameterName));
+      }
+    }
+    return options;
+  }
+
+  private void loadContextPool() throws ServletException {
+    String imageLocation = this.getImageLocation();
+    int poolSize = this.getPositiveIntParameter(POOL_SIZE_PARAMETER, 1);
+    int queueCapacity = this.getQueueCapacity();
+    boolean streamedResponses = this.getBooleanParameter(STREAMED_RESPONSES_PARAMETER);
+    Map<String, String> engineOptions = this.getEngineOptions();
+    if (this.getBooleanParameter(SHARED_ENGINE_PARAMETER)) {
+      this.sharedEngine = SharedEngine.acquire(engineOptions);
+    }
+    if (this.getBooleanParameter(HOST_CALLS_PARAMETER)) {
+      if (queueCapacity > 0) {
+        // the single image thread of a context would wait for the call while the context counts as idle
+        throw new ServletException("init parameter: \"" + HOST_CALLS_PARAMETER + "\" can not be combined with \""
+            + ASYNC_PARAMETER + "\"");
+      }
+      this.hostCallExecutor = HostCalls.newExecutor();
+    }
+    if (this.getBooleanParameter(MAPPED_IMAGE_PARAMETER)) {
+      try {
+        this.mappedImage = MappedImage.acquire(Paths.get(imageLocation));
+      } catch (IOException e) {
+        throw new ServletException("could not map image: " + imageLocation, e);
+      }
+    }
+    ImageContext[] contexts = new ImageContext[poolSize];
+    for (int i = 0; i < poolSize; i++) {
+      Context graalContext = this.loadSqueakImage(imageLocation, engineOptions);
+      Value seasideAdaptor = this.registerServerAdaptor(graalContext);
+      if (poolSize > 1) {
+        // each context has to generate distinguishable session keys
+        seasideAdaptor.invokeMember("keyPrefix:", ImageContextPool.keyPrefix(i));
+      }
+      if (streamedResponses) {
+        seasideAdaptor.invokeMember("streaming:", true);
+      }
+      if (this.getBooleanParameter(JAVA_ENCODING_PARAMETER)) {
+        seasideAdaptor.invokeMember("encodeInJava");
+      }
+      if (this.requestProfiler != null) {
+        this.requestProfiler.attach(graalContext.getEngine());
+      }
+      contexts[i] = new ImageContext(i, graalContext, seasideAdaptor, queueCapacity,
+          this.lockStatistics, this.admissionPolicy, this.requestProfiler, this.hostCallExecutor);
+      if (this.hostCallExecutor != null) {
+        seasideAdaptor.invokeMember("hostCalls:", contexts[i].getHostCalls());
+      }
+    }
+    this.contextPool = new ImageContextPool(contexts);
+  }
+
+  private void warmUp() throws ServletException {
+    String urls = this.config.getInitParameter(WARM_UP_URLS_PARAMETER);
+    if (urls == null || urls.isBlank()) {
+      return;
+    }
+    String dispatcherPath = this.getDispatcherPath();
+    if (dispatcherPath.endsWith("/")) {
+      dispatcherPath = dispatcherPath.substring(0, dispatcherPath.length() - 1);
+    }
+    List<String> paths = new ArrayList<>();
+    for (String url : urls.trim().split("[,\\s]+")) {
+      paths.add(dispatcherPath + (url.startsWith("/") ? url : '/' + url));
+    }
+    int iterations = this.getPositiveIntParameter(WARM_UP_ITERATIONS_PARAMETER, DEFAULT_WARM_UP_ITERATIONS);
+    int seconds = this.getPositiveIntParameter(WARM_UP_TIME_PARAMETER, DEFAULT_WARM_UP_TIME);
+    WarmUp warmUp = new WarmUp(paths, this.urlParser, iterations, TimeUnit.SECONDS.toNanos(seconds));
+    ServletContext servletContext = this.getServletContext();
+    for (ImageContext context : this.contextPool.getContexts()) {
+      try {
+        servletContext.log(warmUp.run(context));
+      } catch (RuntimeException e) {
+        // the servlet is still usable, just not warm
+        servletContext.log("warm up of " + context + " failed", e);
+      }
+    }
+    // warm up requests should not show up in the statistics
+    this.lockStatistics.reset();
+  }
+
+  /**
+   * Creates a Graal context with the loaded image.
+   * <p>
+   * Package private so that the load test can replace the image with a stand-in.
+   *
+   * @param imageLocation the absolute path of the image
+   * @param engineOptions the options for the polyglot engine
+   * @return the context
+   */
+  Context loadSqueakImage(String imageLocation, Map<String, String> engineOptions) {
+    Context.Builder builder = Context.newBuilder();
+    SharedEngine engine = this.sharedEngine;
+    if (engine != null) {
+      builder.engine(engine.getEngine());
+    } else {
+      builder.options(engineOptions);
+    }
+    MappedImage image = this.mappedImage;
+    if (image != null) {
+      // the file system is stateful, every context needs its own
+      builder.fileSystem(new MappedImageFileSystem(FileSystem.newDefaultFileSystem(), image));
+    }
+    return builder
+        .option(IMAGE_LOCATION_PARAMETER, imageLocation)
         .allowAllAccess(true)
         //.allowPolyglotAccess(PolyglotAccess.ALL)
         //.allowNativeAccess(true)
@@ -106,20 +596,91 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
         .build();
   }
 
+  private void createUploadSpool() throws ServletException {
+    int threshold = this.getPositiveIntParameter(UPLOAD_SPILL_THRESHOLD_PARAMETER, DEFAULT_UPLOAD_SPILL_THRESHOLD);
+    File tempDirectory = (File) this.getServletContext().getAttribute(ServletContext.TEMPDIR);
+    try {
+      Path directory;
+      if (tempDirectory != null) {
+        directory = Files.createTempDirectory(tempDirectory.toPath(), "seaside-uploads");
+      } else {
+        directory = Files.createTempDirectory("seaside-uploads");
+      }
+      this.uploadSpool = new UploadSpool(directory, threshold);
+    } catch (IOException e) {
+      throw new ServletException("could not create upload spool directory", e);
+    }
+  }
+
   private void registerMBean() {
-    this.imageLock.lock();
+    // WAAdminMBean is only registered once, the first context wins
+    for (ImageContext context : this.contextPool.getContexts()) {
+      context.registerMBean(this.maintenanceScheduler.executorFor(context));
+    }
+  }
+
+  private int getPendingRequests() {
+    ImageContextPool pool = this.contextPool;
+    if (pool == null) {
+      return 0;
+    }
+    return pool.getPendingRequests();
+  }
+
+  private void registerStatistics() {
+    this.registerStatistics("ImageLock", this.lockStatistics);
+    this.registerStatistics("Maintenance", this.maintenanceScheduler);
+    if (this.requestProfiler != null) {
+      this.registerStatistics("Profiler", this.requestProfiler);
+    }
+    if (this.responseCache != null) {
+      this.registerStatistics("ResponseCache", this.responseCache);
+    }
+    if (this.requestCoalescer != null) {
+      this.registerStatistics("Coalescing", this.requestCoalescer);
+    }
+  }
+
+  private void registerStatistics(String type, Object mbean) {
+    ServletContext context = this.getServletContext();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
     try {
-      this.waMBean = this.seasideAdaptor.invokeMember("registerMBeanWithLock:", this.imageLock);
-    } finally {
-      this.imageLock.unlock();
+      ObjectName name = new ObjectName("Seaside:type=" + type
+          + ",context=" + ObjectName.quote(context.getContextPath())
+          + ",servlet=" + ObjectName.quote(this.config.getServletName()));
+      server.registerMBean(mbean, name);
+      this.statisticsNames.add(name);
+    } catch (JMException e) {
+      context.log("could not register " + type + " statistics", e);
+    }
+  }
+
+  private void unregisterStatistics() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : this.statisticsNames) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        this.getServletContext().log("could not unregister " + name, e);
+      }
     }
+    this.statisticsNames.clear();
+    this.lockStatistics = null;
   }
 
-  private void registerServerAdaptor() throws ServletException {
+  /**
+   * Creates the {@code WAServletServerAdaptor} in a context.
+   * <p>
+   * Package private so that the load test can replace the image with a stand-in.
+   *
+   * @param graalContext the context created by {@link #loadSqueakImage(String, Map)}
+   * @return the adaptor
+   * @throws ServletException if the configuration is invalid
+   */
+  Value registerServerAdaptor(Context graalContext) throws ServletException {
     String dispatcherPath = this.getDispatcherPath();
-    String encoding = this.getCharacterEncoding();
-    this.seasideAdaptor = this.graalContext.eval(LANGUAGE,
-        "WAServletServerAdaptor path: '" + dispatcherPath + "' encoding: '" + encoding + "'");
+    return graalContext.eval(LANGUAGE,
+        "WAServletServerAdaptor path: '" + dispatcherPath + "' encoding: '" + this.characterEncoding + "'");
   }
 
   private String getDispatcherPath() throws ServletException {
@@ -128,7 +689,7 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
     return context.getContextPath() + servletMapping;
   }
 
-  private String getCharacterEncoding() {
+  private String resolveCharacterEncoding() {
     if (this.supportsGetCharacterEncoding()) {
       return this.getCharacterEncodingFromContext();
     } else {
@@ -190,40 +751,338 @@ public class SeasideGraalSqueakBridgeServlet implements Servlet {
     return this.config.getServletContext();
   }
 
-  private void dispatchToSeaside(HttpServletRequest request, HttpServletResponse response) {
-    ServletNativeRequest nativeRequest = new ServletNativeRequest(request, response, this.seasideAdaptor);
-    // GraalSqueak is not thread safe so we have to lock here
-    // even though this is forbidden in Java EE
-    this.imageLock.lock();
+  private void dispatchToSeaside(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+    FileLibraryCache cache = this.fileLibraryCache;
+    if (cache != null && cache.isCacheable(request) && cache.serve(request, response)) {
+      // static resource, no need to enter the image
+      return;
+    }
+    ResponseCache responseCache = this.responseCache;
+    ResponseCache.CachedResponse cached = null;
+    if (responseCache != null && responseCache.isCacheable(request)) {
+      cached = responseCache.lookup(request);
+      if (responseCache.serve(cached, request, response)) {
+        return;
+      }
+    }
+    RequestCoalescer coalescer = this.requestCoalescer;
+    RequestCoalescer.Flight flight = null;
+    // a revalidation is specific to the cached response
+    if (coalescer != null && cached == null && coalescer.isCoalescable(request)) {
+      flight = coalescer.join(request);
+      if (!flight.isLeader()) {
+        this.follow(flight, request, response);
+        return;
+      }
+    }
+    boolean handedOver = false;
     try {
-      this.seasideAdaptor.invokeMember("process:", nativeRequest);
+      ImageContext imageContext = this.contextPool.select(request);
+      boolean newSession = this.isNewSession(request);
+      this.uploadSpool.deleteStaleFiles();
+      ServletNativeRequest nativeRequest = new ServletNativeRequest(request, response, this.uploadSpool, this.requestBodyReader,
+          this.urlParser);
+      // do as much work as possible before we have to wait for the image
+      try {
+        nativeRequest.readRequest();
+      } catch (RequestBodyReader.RequestBodyTooLargeException e) {
+        sendError(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return;
+      }
+      // a stale response can still be served if Seaside confirms it
+      ResponseCache.addValidators(cached, nativeRequest);
+      if (imageContext.isAsynchronous() && request.isAsyncSupported()) {
+        handedOver = this.dispatchAsynchronously(imageContext, nativeRequest, newSession, flight);
+      } else if (imageContext.process(nativeRequest, newSession)) {
+        this.endFlight(flight, nativeRequest);
+        // write to the client only once other requests can use the image
+        this.commitResponse(nativeRequest);
+      } else {
+        this.sendServiceUnavailable(response);
+      }
     } finally {
-      this.imageLock.unlock();
+      if (!handedOver) {
+        // no effect if the response has already been shared
+        this.endFlight(flight, null);
+      }
     }
   }
 
-  private void unregisterMBean() {
-    this.imageLock.lock();
+  /**
+   * Hands the response of a leading request to its followers.
+   *
+   * @param flight the flight of the request, {@code null} if not coalesced
+   * @param nativeRequest the processed request, {@code null} if it failed
+   */
+  private void endFlight(RequestCoalescer.Flight flight, ServletNativeRequest nativeRequest) {
+    if (flight == null) {
+      return;
+    }
+    BufferedResponse generated = null;
+    if (nativeRequest != null && !nativeRequest.isStreamed()) {
+      generated = nativeRequest.getBufferedResponse();
+    }
+    this.requestCoalescer.complete(flight, generated);
+  }
+
+  private void follow(RequestCoalescer.Flight flight, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+    // followers wait in the context they would otherwise be processed by
+    ImageContext imageContext = this.contextPool.select(request);
+    CompletableFuture<BufferedResponse> leader = imageContext.follow(flight.getResponse(), this.isNewSession(request));
+    if (this.contextPool.isAsynchronous() && request.isAsyncSupported()) {
+      AsyncContext asyncContext = request.startAsync(request, response);
+      asyncContext.setTimeout(0L);
+      leader.whenComplete((shared, failure) ->
+        asyncContext.start(() -> {
+          if (failure != null) {
+            this.sendServiceUnavailable(response);
+            asyncContext.complete();
+          } else {
+            this.followAsynchronously(shared, request, response, asyncContext);
+          }
+        }));
+      return;
+    }
+    BufferedResponse shared;
     try {
-      if (this.waMBean != null && !this.waMBean.isNull()) {
-        this.waMBean.invokeMember("unregister");
+      // the leader always ends the flight
+      shared = leader.join();
+    } catch (CompletionException e) {
+      this.sendServiceUnavailable(response);
+      return;
+    }
+    this.requestCoalescer.followed(shared);
+    if (shared != null) {
+      this.commitShared(shared, request, response);
+    } else {
+      request.setAttribute(RequestCoalescer.NOT_COALESCED_ATTRIBUTE, Boolean.TRUE);
+      this.dispatchToSeaside(request, response);
+    }
+  }
+
+  private void followAsynchronously(BufferedResponse shared, HttpServletRequest request, HttpServletResponse response,
+      AsyncContext asyncContext) {
+    this.requestCoalescer.followed(shared);
+    if (shared == null) {
+      // process like any other request on a new container thread
+      request.setAttribute(RequestCoalescer.NOT_COALESCED_ATTRIBUTE, Boolean.TRUE);
+      asyncContext.dispatch();
+      return;
+    }
+    try {
+      this.commitShared(shared, request, response);
+    } catch (IOException e) {
+      // client is gone, nothing we can do
+    } finally {
+      asyncContext.complete();
+    }
+  }
+
+  private void commitShared(BufferedResponse shared, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // every follower may accept a different encoding
+    BufferedResponse copy = shared.copy();
+    ResponseCompressor compressor = this.responseCompressor;
+    if (compressor != null) {
+      compressor.compress(request.getHeader("Accept-Encoding"), copy);
+    }
+    this.writeResponse(copy, response);
+  }
+
+  private boolean isNewSession(HttpServletRequest request) {
+    if (!this.admissionPolicy.isSessionPriority()) {
+      // all requests are treated the same, save parsing the query string
+      return false;
+    }
+    return ImageContextPool.getSessionKey(request) == null;
+  }
+
+  private void sendServiceUnavailable(HttpServletResponse response) {
+    if (!response.isCommitted()) {
+      response.setHeader("Retry-After", Integer.toString(this.admissionPolicy.getRetryAfterSeconds()));
+    }
+    sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+  }
+
+  /**
+   * Submits a request to the image thread.
+   *
+   * @return whether the request was submitted, in which case the image
+   *         thread ends {@code flight}
+   */
+  private boolean dispatchAsynchronously(ImageContext imageContext, ServletNativeRequest nativeRequest, boolean newSession,
+      RequestCoalescer.Flight flight) throws IOException {
+    HttpServletRequest request = nativeRequest.getRequest();
+    HttpServletResponse response = nativeRequest.getResponse();
+    AsyncContext asyncContext = request.startAsync(request, response);
+    // the queue is bounded, a timeout would only make the container
+    // recycle the response while the image is still writing to it
+    asyncContext.setTimeout(0L);
+    long waitStart = System.nanoTime();
+    try {
+      imageContext.submit(() -> this.processAsynchronously(imageContext, nativeRequest, asyncContext, waitStart, flight), newSession);
+      return true;
+    } catch (RejectedExecutionException e) {
+      this.sendServiceUnavailable(response);
+      asyncContext.complete();
+      return false;
+    }
+  }
+
+  private void processAsynchronously(ImageContext imageContext, ServletNativeRequest nativeRequest, AsyncContext asyncContext, long waitStart,
+      RequestCoalescer.Flight flight) {
+    try {
+      try {
+        if (!imageContext.doProcess(nativeRequest, waitStart)) {
+          this.sendServiceUnavailable(nativeRequest.getResponse());
+          asyncContext.complete();
+          return;
+        }
+      } catch (RuntimeException e) {
+        // there is no container thread to propagate the exception to
+        this.getServletContext().log("could not process request", e);
+        sendError(nativeRequest.getResponse(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        asyncContext.complete();
+        return;
       }
-      this.waMBean = null;
+      this.endFlight(flight, nativeRequest);
     } finally {
-      this.imageLock.unlock();
+      // no effect if the response has already been shared
+      this.endFlight(flight, null);
     }
+    // write to the client on a container thread so that the image thread
+    // can process the next request
+    asyncContext.start(() -> this.commitAsynchronously(nativeRequest, asyncContext));
   }
 
-  private void stopSqueakImage() {
-    this.imageLock.lock();
+  private void commitResponse(ServletNativeRequest nativeRequest) throws IOException {
+    if (nativeRequest.isStreamed()) {
+      // written to the client by the image, nothing to cache either
+      return;
+    }
+    HttpServletRequest request = nativeRequest.getRequest();
+    FileLibraryCache cache = this.fileLibraryCache;
+    if (cache != null && cache.isCacheable(request)) {
+      cache.put(request, nativeRequest.getBufferedResponse());
+    }
+    ResponseCache responseCache = this.responseCache;
+    if (responseCache != null && responseCache.isCacheable(request)
+        && responseCache.commit(request, nativeRequest.getBufferedResponse(), nativeRequest.getRevalidated(),
+            nativeRequest.getResponse())) {
+      // Seaside confirmed the cached response
+      return;
+    }
+    ResponseCompressor compressor = this.responseCompressor;
+    if (compressor != null) {
+      // the image lock has been released, compressing only delays this response
+      compressor.compress(request.getHeader("Accept-Encoding"), nativeRequest.getBufferedResponse());
+    }
+    this.writeResponse(nativeRequest.getBufferedResponse(), nativeRequest.getResponse());
+  }
+
+  private void writeResponse(BufferedResponse bufferedResponse, HttpServletResponse response) throws IOException {
+    ResponseEncoder encoder = this.responseEncoder;
+    if (encoder != null) {
+      // the image handed over characters, encoding them only delays this response
+      encoder.writeTo(bufferedResponse, response);
+    } else {
+      bufferedResponse.writeTo(response);
+    }
+  }
+
+  private void commitAsynchronously(ServletNativeRequest nativeRequest, AsyncContext asyncContext) {
     try {
-      this.graalContext.close();
+      this.commitResponse(nativeRequest);
+    } catch (IOException e) {
+      // client is gone, nothing we can do
     } finally {
-      this.imageLock.unlock();
+      asyncContext.complete();
+    }
+  }
+
+  private static void sendError(HttpServletResponse response, int status) {
+    if (!response.isCommitted()) {
+      try {
+        response.sendError(status);
+      } catch (IOException | IllegalStateException e) {
+        // client is gone, nothing we can do
+      }
+    }
+  }
+
+  private void unregisterMBean() {
+    ImageContextPool pool = this.contextPool;
+    if (pool != null) {
+      for (ImageContext context : pool.getContexts()) {
+        context.unregisterMBean();
+      }
+    }
+  }
+
+  private void stopSqueakImage() {
+    ImageContextPool pool = this.contextPool;
+    if (pool != null) {
+      for (ImageContext context : pool.getContexts()) {
+        context.close();
+      }
+      this.contextPool = null;
+    }
+  }
+
+  private void closeHostCallExecutor() {
+    ExecutorService executor = this.hostCallExecutor;
+    if (executor != null) {
+      // all contexts are closed, nobody waits for the result of a task
+      executor.shutdownNow();
+      this.hostCallExecutor = null;
+    }
+  }
+
+  private void releaseMappedImage() {
+    MappedImage image = this.mappedImage;
+    if (image != null) {
+      image.release();
+      this.mappedImage = null;
+    }
+  }
+
+  private void releaseSharedEngine() {
+    SharedEngine engine = this.sharedEngine;
+    if (engine != null) {
+      engine.release();
+      this.sharedEngine = null;
+    }
+  }
+
+  private void closeRequestProfiler() {
+    RequestProfiler profiler = this.requestProfiler;
+    if (profiler != null) {
+      profiler.close();
+      this.requestProfiler = null;
+    }
+  }
+
+  private void closeMaintenanceScheduler() {
+    MaintenanceScheduler scheduler = this.maintenanceScheduler;
+    if (scheduler != null) {
+      scheduler.close();
+      this.maintenanceScheduler = null;
+    }
+  }
+
+  private void closeResponseCompressor() {
+    ResponseCompressor compressor = this.responseCompressor;
+    if (compressor != null) {
+      compressor.close();
+      this.responseCompressor = null;
+    }
+  }
+
+  private void closeUploadSpool() {
+    UploadSpool spool = this.uploadSpool;
+    if (spool != null) {
+      spool.close();
+      this.uploadSpool = null;
     }
-    this.graalContext = null;
-    this.waMBean = null;
-    this.seasideAdaptor = null;
   }
 
 }
@@ -1,9 +1,10 @@
 package com.github.marschall.seaside.servlet.squeak;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
@@ -23,20 +24,141 @@ import jakarta.servlet.http.Part;
  * Object passed to {@code WAServerAdaptor >> #process:}.
  * Can easily be converted to a {@code WARequest} and from a
  * {@code WAResponse}.
+ * <p>
+ * The request is read before and the response is written after the
+ * image lock is held, see {@link #readRequest()} and {@link #getBufferedResponse()}.
+ * Streamed responses are the exception, they are written while the
+ * image lock is held, see {@link #startStreamedResponse()}.
  */
 public final class ServletNativeRequest {
 
+  private static final String[] NO_STRINGS = new String[0];
+
+  private static final FormPart[] NO_FORM_PARTS = new FormPart[0];
+
   private final HttpServletRequest request;
   private final HttpServletResponse response;
-  private final Value seasideAdaptor;
-
-  ServletNativeRequest(HttpServletRequest request, HttpServletResponse response, Value seasideAdaptor) {
+  private final UploadSpool uploadSpool;
+  private final RequestBodyReader requestBodyReader;
+  private final UrlParser urlParser;
+  private final BufferedResponse bufferedResponse;
+
+  // snapshot of the request, see #readRequest()
+  private String requestMethod;
+  private String urlScheme;
+  private String urlHost;
+  private int urlPort;
+  private String[] contextPath;
+  private String[] urlPath;
+  private boolean trailingSlash;
+  private String[] urlQuery;
+  private String requestVersion;
+  private String requestAddress;
+  private String sslSessionId;
+  // released once decoded, see #getRequestBodyAsString()
+  private byte[] requestBody;
+  private int requestBodySize;
+  private Charset requestBodyCharset;
+  private String decodedRequestBody;
+  private String[] requestHeaders;
+  private String[] cookies;
+  private String[] requestFields;
+  private FormPart[] formParts;
+
+  // built on first access, see #getQueryStringRaw()
+  private String queryStringRaw;
+
+  // set once Seaside streams the response, see #startStreamedResponse()
+  private boolean streamed;
+
+  // set if Seaside is asked to confirm a stale cached response, see ResponseCache
+  private ResponseCache.CachedResponse revalidated;
+
+  ServletNativeRequest(HttpServletRequest request, HttpServletResponse response,
+          UploadSpool uploadSpool, RequestBodyReader requestBodyReader, UrlParser urlParser) {
     Objects.requireNonNull(request, "request");
     Objects.requireNonNull(response, "response");
-    Objects.requireNonNull(seasideAdaptor, "seasideAdaptor");
+    Objects.requireNonNull(uploadSpool, "uploadSpool");
+    Objects.requireNonNull(requestBodyReader, "requestBodyReader");
+    Objects.requireNonNull(urlParser, "urlParser");
     this.request = request;
     this.response = response;
-    this.seasideAdaptor = seasideAdaptor;
+    this.uploadSpool = uploadSpool;
+    this.requestBodyReader = requestBodyReader;
+    this.urlParser = urlParser;
+    this.bufferedResponse = new BufferedResponse();
+  }
+
+  private ServletNativeRequest(UrlParser urlParser) {
+    this.request = null;
+    this.response = null;
+    this.uploadSpool = null;
+    this.requestBodyReader = null;
+    this.urlParser = urlParser;
+    this.bufferedResponse = new BufferedResponse();
+  }
+
+  /**
+   * Creates the snapshot of a {@code GET} request that is not backed by
+   * a servlet request, for example to warm up the image.
+   * <p>
+   * {@link #getRequest()} and {@link #getResponse()} return {@code null},
+   * the response is only available through {@link #getBufferedResponse()}.
+   *
+   * @param url the absolute URL of the request, not decoded
+   * @param urlParser the parser of the URL
+   * @param requestHeaders alternating header names and values
+   * @param cookies alternating cookie names and values
+   * @return the request snapshot
+   */
+  static ServletNativeRequest synthetic(String url, UrlParser urlParser, String[] requestHeaders, String[] cookies) {
+    ServletNativeRequest nativeRequest = new ServletNativeRequest(urlParser);
+    nativeRequest.requestMethod = "GET";
+    nativeRequest.queryStringRaw = url;
+    nativeRequest.readUrl(url);
+    nativeRequest.requestVersion = "HTTP/1.1";
+    nativeRequest.requestAddress = "127.0.0.1";
+    nativeRequest.requestHeaders = requestHeaders;
+    nativeRequest.cookies = cookies;
+    // same as a GET from a client, the query fields are part of the URL
+    nativeRequest.requestFields = NO_STRINGS;
+    nativeRequest.formParts = NO_FORM_PARTS;
+    return nativeRequest;
+  }
+
+  /**
+   * Reads everything Seaside needs from the servlet request into
+   * instance variables.
+   * <p>
+   * Has to be called before the image lock is acquired so that parsing
+   * the request, reading the body and spooling uploads does not happen
+   * while other requests are waiting for the image. Headers, cookies and
+   * fields are stored as flat arrays of alternating names and values that
+   * Squeak can consume without any further calls to the servlet API.
+   *
+   * @throws IOException if reading the body fails
+   * @throws RequestBodyReader.RequestBodyTooLargeException if the body
+   *         is larger than the configured maximum
+   * @throws ServletException if reading the multipart parts fails
+   */
+  void readRequest() throws IOException, ServletException {
+    this.requestMethod = this.request.getMethod();
+    this.readUrl(this.request.getScheme(), this.request.getServerName(), this.request.getServerPort(),
+        this.request.getRequestURI(), this.request.getQueryString());
+    this.requestVersion = this.request.getProtocol();
+    this.requestAddress = this.request.getRemoteAddr();
+    this.sslSessionId = this.readSslSessionId();
+    this.requestHeaders = this.readRequestHeaders();
+    this.cookies = this.readCookies();
+    // has to happen before reading the fields, see #readRequestBody()
+    this.requestBody = this.readRequestBody();
+    this.requestBodySize = this.requestBody == null ? -1 : this.requestBody.length;
+    if (this.requestBody != null && !this.requestBodyReader.isRaw()) {
+      // Seaside will ask for the decoded body, do it before the image lock is held
+      this.getRequestBodyAsString();
+    }
+    this.requestFields = this.readRequestFields();
+    this.formParts = this.readFormParts();
   }
 
   // request methods
@@ -50,10 +172,275 @@ public final class ServletNativeRequest {
   }
 
   public String getRequestMethod() {
-    return this.request.getMethod();
+    return this.requestMethod;
   }
 
+  /**
+   * Returns the absolute URL of the request.
+   * <p>
+   * Built on first access, Seaside uses the parsed components starting
+   * with {@link #getUrlScheme()}.
+   *
+   * @return the absolute URL, not decoded
+   */
   public String getQueryStringRaw() {
+    if (this.queryStringRaw == null) {
+      this.queryStringRaw = this.readQueryStringRaw();
+    }
+    return this.queryStringRaw;
+  }
+
+  public String getUrlScheme() {
+    return this.urlScheme;
+  }
+
+  public String getUrlHost() {
+    return this.urlHost;
+  }
+
+  public int getUrlPort() {
+    return this.urlPort;
+  }
+
+  /**
+   * Returns the context path the URL starts with.
+   *
+   * @return the decoded segments of the context path and servlet
+   *         mapping, empty if the URL is not below them
+   */
+  public String[] getContextPath() {
+    return this.contextPath;
+  }
+
+  /**
+   * Returns the path of the URL following {@link #getContextPath()}.
+   *
+   * @return the decoded segments, see {@link UrlParser#parsePath(String, Charset)}
+   */
+  public String[] getUrlPath() {
+    return this.urlPath;
+  }
+
+  /**
+   * Whether the path of the URL ends with a slash.
+   *
+   * @return {@code true} if the path ends with a slash
+   */
+  public boolean hasTrailingSlash() {
+    return this.trailingSlash;
+  }
+
+  /**
+   * Returns the query of the URL.
+   *
+   * @return alternating decoded keys and values, the value of a key
+   *         without {@code =} is {@code null}
+   */
+  public String[] getUrlQuery() {
+    return this.urlQuery;
+  }
+
+  /**
+   * Returns the body the way it is passed to {@code WARequest}.
+   *
+   * @return the result of {@link #getRequestBodyAsBytes()} if
+   *         {@code seaside.RawRequestBody} is set, otherwise the result
+   *         of {@link #getRequestBodyAsString()}
+   */
+  public String getRequestBody() {
+    if (this.requestBodyReader != null && this.requestBodyReader.isRaw()) {
+      return this.getRequestBodyAsBytes();
+    }
+    return this.getRequestBodyAsString();
+  }
+
+  /**
+   * Returns the body decoded with the character encoding of the request.
+   * <p>
+   * Decoded on first access, the undecoded body is released afterwards
+   * so that only one copy of the body is kept.
+   *
+   * @return the decoded body, {@code null} for form data and {@code GET} requests
+   */
+  public String getRequestBodyAsString() {
+    if (this.decodedRequestBody == null && this.requestBody != null) {
+      this.decodedRequestBody = new String(this.requestBody, this.requestBodyCharset);
+      this.requestBody = null;
+    }
+    return this.decodedRequestBody;
+  }
+
+  /**
+   * Returns the body undecoded.
+   * <p>
+   * Every call copies the body into a new string.
+   *
+   * @return the body as an ISO-8859-1 string, {@code null} for form data,
+   *         {@code GET} requests and once the body has been decoded by
+   *         {@link #getRequestBodyAsString()}
+   */
+  public String getRequestBodyAsBytes() {
+    if (this.requestBody == null) {
+      return null;
+    }
+    return new String(this.requestBody, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the size of the body.
+   *
+   * @return the size of the body in bytes, {@code -1} for form data and
+   *         {@code GET} requests
+   */
+  public int getRequestBodySize() {
+    return this.requestBodySize;
+  }
+
+  public String getRequestAddressString() {
+    return this.requestAddress;
+  }
+
+  /**
+   * Returns the request cookies.
+   *
+   * @return alternating cookie names and values
+   */
+  public String[] getCookies() {
+    return this.cookies;
+  }
+
+  /**
+   * Returns the request headers.
+   *
+   * @return alternating header names and values, a header name with
+   *         several values is repeated for every value
+   */
+  public String[] getRequestHeaders() {
+    return this.requestHeaders;
+  }
+
+  /**
+   * Replaces all values of a header in the snapshot of the request.
+   * <p>
+   * Has to be called after {@link #readRequest()}.
+   *
+   * @param name the header name, case insensitive
+   * @param value the new value
+   */
+  void setRequestHeader(String name, String value) {
+    List<String> headers = new ArrayList<>(this.requestHeaders.length + 2);
+    for (int i = 0; i < this.requestHeaders.length; i += 2) {
+      if (!this.requestHeaders[i].equalsIgnoreCase(name)) {
+        headers.add(this.requestHeaders[i]);
+        headers.add(this.requestHeaders[i + 1]);
+      }
+    }
+    headers.add(name);
+    headers.add(value);
+    this.requestHeaders = headers.toArray(NO_STRINGS);
+  }
+
+  /**
+   * Returns the request fields excluding uploaded files.
+   *
+   * @return alternating field names and values, a field name with
+   *         several values is repeated for every value
+   */
+  public String[] getRequestFields() {
+    return this.requestFields;
+  }
+
+  /**
+   * Returns the uploaded files.
+   *
+   * @return the uploaded files
+   */
+  public FormPart[] getFormParts() {
+    return this.formParts;
+  }
+
+  /**
+   * Joins strings into a single string so that Squeak can read them with
+   * one interop call instead of one call per element, see
+   * {@code WAJavaSupport >> #joined:do:}.
+   * <p>
+   * Every string is prefixed with its length and a colon, {@code null}
+   * is written as a single {@code -}. The length is the number of code
+   * points because Squeak strings have one character per code point, a
+   * character outside the BMP is a surrogate pair in Java.
+   *
+   * @param strings the strings to join, for example the result of {@link #getRequestHeaders()}
+   * @return the joined strings
+   */
+  public String join(String[] strings) {
+    int length = 0;
+    for (String string : strings) {
+      length += string == null ? 1 : string.length() + 4;
+    }
+    StringBuilder buffer = new StringBuilder(length);
+    for (String string : strings) {
+      if (string == null) {
+        buffer.append('-');
+      } else {
+        buffer.append(string.codePointCount(0, string.length())).append(':').append(string);
+      }
+    }
+    return buffer.toString();
+  }
+
+  public String getSslSessionId() {
+    return this.sslSessionId;
+  }
+
+  public String getRequestVersion() {
+    return this.requestVersion;
+  }
+
+  private void readUrl(String url) {
+    int authorityStart = url.indexOf("://");
+    String scheme = authorityStart == -1 ? "http" : url.substring(0, authorityStart);
+    authorityStart = authorityStart == -1 ? 0 : authorityStart + 3;
+    int queryStart = url.indexOf('?', authorityStart);
+    int authorityEnd = url.indexOf('/', authorityStart);
+    if (authorityEnd == -1 || queryStart != -1 && queryStart < authorityEnd) {
+      authorityEnd = queryStart == -1 ? url.length() : queryStart;
+    }
+    int pathEnd = queryStart == -1 ? url.length() : queryStart;
+    // the colons of an IPv6 address are inside brackets
+    int hostEnd = url.startsWith("[", authorityStart) ? url.lastIndexOf(']', authorityEnd - 1) : authorityStart;
+    int portStart = url.lastIndexOf(':', authorityEnd - 1);
+    String host;
+    int port;
+    if (portStart >= authorityStart && portStart > hostEnd) {
+      host = url.substring(authorityStart, portStart);
+      port = Integer.parseInt(url.substring(portStart + 1, authorityEnd));
+    } else {
+      host = url.substring(authorityStart, authorityEnd);
+      port = "https".equals(scheme) ? 443 : 80;
+    }
+    this.readUrl(scheme, host, port, url.substring(authorityEnd, pathEnd),
+        queryStart == -1 ? null : url.substring(queryStart + 1));
+  }
+
+  private void readUrl(String scheme, String host, int port, String rawPath, String rawQuery) {
+    this.urlScheme = scheme;
+    this.urlHost = host;
+    this.urlPort = port;
+    String[] segments = this.urlParser.parsePath(rawPath);
+    int contextPathLength = this.urlParser.contextPathLength(segments);
+    if (contextPathLength == -1) {
+      // WAContextPathHandler answers not found
+      this.contextPath = NO_STRINGS;
+      this.urlPath = segments;
+    } else {
+      this.contextPath = this.urlParser.getContextPath();
+      this.urlPath = UrlParser.stripContextPath(segments, contextPathLength);
+    }
+    this.trailingSlash = rawPath.length() > 1 && rawPath.endsWith("/");
+    this.urlQuery = this.urlParser.parseQuery(rawQuery);
+  }
+
+  private String readQueryStringRaw() {
     // not decoded
     StringBuilder builder = new StringBuilder();
 
@@ -73,11 +460,11 @@ public final class ServletNativeRequest {
     return builder.toString();
   }
 
-  public String getRequestBodyAsString() throws IOException {
+  private byte[] readRequestBody() throws IOException {
     if (this.isFormUrlencoded()) {
       // if the body is URL encoded and we read it here fully
       // the parameters in the body will be missing from getParameterNames()
-      // which is called in getRequestFields() after this method
+      // which is called in readRequestFields() after this method
       return null;
     }
     if (this.isMultipartFormData()) {
@@ -85,75 +472,87 @@ public final class ServletNativeRequest {
       // the parameters in the body will be missing from getServletFiles()
       return null;
     }
-    if (this.getRequestMethod().equals("GET")) {
+    if (this.requestMethod.equals("GET")) {
       // avoid buffer creating on GET
       // TODO generalize
       return null;
     }
-    // TODO read request size
-    StringBuilderWriter builder = new StringBuilderWriter();
-    try (BufferedReader reader = this.request.getReader()) {
-      reader.transferTo(builder);
+    this.requestBodyCharset = this.readRequestBodyCharset();
+    return this.requestBodyReader.read(this.request);
+  }
+
+  private Charset readRequestBodyCharset() throws UnsupportedEncodingException {
+    String characterEncoding = this.request.getCharacterEncoding();
+    if (characterEncoding == null) {
+      // same as #getReader()
+      return StandardCharsets.ISO_8859_1;
+    }
+    try {
+      return Charset.forName(characterEncoding);
+    } catch (IllegalArgumentException e) {
+      // illegal or unsupported charset name
+      throw new UnsupportedEncodingException(characterEncoding);
     }
-    return builder.toString();
   }
 
   private boolean isFormUrlencoded() {
     return Objects.equals(this.request.getContentType(), "application/x-www-form-urlencoded");
   }
 
-  public String getRequestAddressString() {
-    return this.request.getRemoteAddr();
-  }
-
-  public List<Cookie> getCookies() {
-    Cookie[] cookies = this.request.getCookies();
-    if (cookies == null) {
-      return List.of();
-    } else {
-      // avoids the copy of List.of
-      return Arrays.asList(cookies);
+  private String[] readCookies() {
+    Cookie[] servletCookies = this.request.getCookies();
+    if (servletCookies == null) {
+      return NO_STRINGS;
+    }
+    String[] result = new String[servletCookies.length * 2];
+    for (int i = 0; i < servletCookies.length; i++) {
+      Cookie cookie = servletCookies[i];
+      result[i * 2] = cookie.getName();
+      result[i * 2 + 1] = cookie.getValue();
     }
+    return result;
   }
 
-  public List<Entry<String, List<String>>> getRequestHeaders() {
-    List<Entry<String, List<String>>> result = new ArrayList<>();
+  private String[] readRequestHeaders() {
+    List<String> result = new ArrayList<>();
     Enumeration<String> headerNames = this.request.getHeaderNames();
     while (headerNames.hasMoreElements()) {
       String headerName = headerNames.nextElement();
       Enumeration<String> headers = this.request.getHeaders(headerName);
-      result.add(Map.entry(headerName, toList(headers)));
+      while (headers.hasMoreElements()) {
+        result.add(headerName);
+        result.add(headers.nextElement());
+      }
     }
-    return result;
+    return result.toArray(NO_STRINGS);
   }
 
-  public List<Entry<String, List<String>>> getRequestFields() {
-    if (this.request.getMethod().equals("GET")) {
+  private String[] readRequestFields() {
+    if (this.requestMethod.equals("GET")) {
       // URL parameters are returned for a GET, Seaside doesn't expect this
-      return List.of();
-    }
-
-    List<Entry<String, List<String>>> result = new ArrayList<>();
-    Enumeration<String> parameterNames = this.request.getParameterNames();
-    while (parameterNames.hasMoreElements()) {
-      String parameterName = parameterNames.nextElement();
-      String[] parameters = this.request.getParameterValues(parameterName);
-      List<String> parameterList;
-      if (parameters.length== 0) {
-        parameterList = List.of();
-      } else if (parameters.length == 1) {
-        parameterList = List.of(parameters[0]);
-      } else {
-        parameterList = Arrays.asList(parameters);
+      return NO_STRINGS;
+    }
+
+    Map<String, String[]> parameterMap = this.request.getParameterMap();
+    int size = 0;
+    for (String[] parameterValues : parameterMap.values()) {
+      size += parameterValues.length * 2;
+    }
+    String[] result = new String[size];
+    int index = 0;
+    for (Entry<String, String[]> parameter : parameterMap.entrySet()) {
+      String parameterName = parameter.getKey();
+      for (String parameterValue : parameter.getValue()) {
+        result[index++] = parameterName;
+        result[index++] = parameterValue;
       }
-      result.add(Map.entry(parameterName, parameterList));
     }
     return result;
   }
 
-  public List<FormPart> getFormParts() throws IOException, ServletException {
+  private FormPart[] readFormParts() throws IOException, ServletException {
     if (!this.isMultipartFormData()) {
-      return List.of();
+      return NO_FORM_PARTS;
     }
 
     Collection<Part> parts = this.request.getParts();
@@ -167,26 +566,12 @@ public final class ServletNativeRequest {
         // if it is a normal multi part form field
         // it is returned in getRequestFields
         String contentType = part.getContentType();
-        Value contents = this.getContentsAsValue(part);
-        formPart = new FilePart(name, fileName, contentType, contents);
+        formPart = this.uploadSpool.toFilePart(part, name, fileName, contentType);
         formParts.add(formPart);
       }
       part.delete();
     }
-    return formParts;
-  }
-
-  /**
-   * Create a Squeak ByteArray from a {@link Part}. Avoid creating a Java
-   * byte[] and copying to a ByteArray.
-   *
-   * This method has to be invoked from behind the Graal context lock.
-   *
-   * @param part the part to convert
-   * @return the Squeak ByteArray
-   */
-  private Value getContentsAsValue(Part part) {
-    return this.seasideAdaptor.invokeMember("partAsByteArray:", part);
+    return formParts.toArray(NO_FORM_PARTS);
   }
 
   private boolean isMultipartFormData() {
@@ -197,32 +582,102 @@ public final class ServletNativeRequest {
     return contentType.startsWith("multipart/form-data");
   }
 
-  private static <T> List<T> toList(Enumeration<T> enumeration) {
-    List<T> result = new ArrayList<>(2);
-    while (enumeration.hasMoreElements()) {
-      T element =  enumeration.nextElement();
-      result.add(element);
-    }
-    return result;
-  }
-
-  public String getSslSessionId() {
+  private String readSslSessionId() {
     // https://stackoverflow.com/questions/6269416/can-a-servlet-get-https-session-id
     return (String) this.request.getAttribute("javax.servlet.request.ssl_session_id");
   }
 
-  public String getRequestVersion() {
-    return this.request.getProtocol();
+  // caching
+
+  ResponseCache.CachedResponse getRevalidated() {
+    return this.revalidated;
+  }
+
+  void setRevalidated(ResponseCache.CachedResponse revalidated) {
+    this.revalidated = revalidated;
   }
 
   // response methods
 
+  BufferedResponse getBufferedResponse() {
+    return this.bufferedResponse;
+  }
+
+  /**
+   * Whether Seaside has written the response directly to the client.
+   *
+   * @return {@code true} if {@link #startStreamedResponse()} has been called
+   */
+  boolean isStreamed() {
+    return this.streamed;
+  }
+
+  /**
+   * Writes the status, headers and cookies set so far to the client and
+   * switches to writing the body in chunks with
+   * {@link #writeResponseChunk(String)} or
+   * {@link #writeResponseChunkAsByteString(String)}.
+   * <p>
+   * Called by {@code WAServletStreamedResponse >> #commit}. Unlike a
+   * buffered response the body is written while the image lock is held
+   * so that large responses do not have to be built in the image first.
+   * For synthetic requests the body is discarded.
+   */
+  public void startStreamedResponse() {
+    this.streamed = true;
+    if (this.response != null) {
+      this.bufferedResponse.writeHeadersTo(this.response);
+    }
+  }
+
+  /**
+   * Writes a chunk of a streamed response.
+   * <p>
+   * The chunk is written to the buffer of the servlet container which
+   * sends it to the client when it is full or on {@link #flushResponse()}.
+   *
+   * @param chunk the chunk, encoded like {@link #setResponseContentsAsString(String)}
+   * @throws IOException if writing to the client fails
+   */
+  public void writeResponseChunk(String chunk) throws IOException {
+    if (this.response != null) {
+      this.response.getWriter().write(chunk);
+    }
+  }
+
+  /**
+   * Writes a chunk of a binary streamed response.
+   * <p>
+   * A streamed response is written either with this method or with
+   * {@link #writeResponseChunk(String)}, not both.
+   *
+   * @param chunk the bytes of the chunk as ISO-8859-1 characters, like
+   *              {@link #setResponseContentsAsByteString(String)}
+   * @throws IOException if writing to the client fails
+   */
+  public void writeResponseChunkAsByteString(String chunk) throws IOException {
+    if (this.response != null) {
+      this.response.getOutputStream().write(chunk.getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  /**
+   * Sends all chunks written so far to the client.
+   *
+   * @throws IOException if writing to the client fails
+   */
+  public void flushResponse() throws IOException {
+    if (this.response != null) {
+      this.response.flushBuffer();
+    }
+  }
+
   public void setResponseStatus(int status, String message) {
-    this.response.setStatus(status);
+    this.bufferedResponse.setStatus(status);
   }
 
   public void addHeader(String key, String value) {
-    this.response.addHeader(key, value);
+    this.bufferedResponse.addHeader(key, value);
   }
 
   public Cookie newCookie(String name, String value) {
@@ -230,21 +685,28 @@ public final class ServletNativeRequest {
   }
 
   public void addCookie(Cookie cookie) {
-    this.response.addCookie(cookie);
+    this.bufferedResponse.addCookie(cookie);
   }
 
-  public void setResponseContentsAsString(String contents) throws IOException {
-    this.response.getWriter().append(contents);
+  public void setResponseContentsAsString(String contents) {
+    this.bufferedResponse.setTextBody(contents);
   }
 
-  public void setResponseContentsAsByteArray(Value contents) throws IOException {
-    // TODO fixed in RC4
-    int arraySize = Math.toIntExact(contents.getArraySize());
-    byte[] value = new byte[arraySize];
-    for (int i = 0; i < arraySize; i++) {
-      value[i] = (byte) contents.getArrayElement(i).asInt();
-    }
-    this.response.getOutputStream().write(value);
+  /**
+   * Sets a binary body.
+   * <p>
+   * Seaside passes its ByteArray as a ByteString with the same bytes,
+   * a guest string is converted in a single polyglot call while an array
+   * needs one call per element.
+   * <p>
+   * This is not zero-copy, the bytes are copied three times: by
+   * {@code asString} in the image, when the guest string is converted to
+   * a {@link String} and by {@link String#getBytes(Charset)}.
+   *
+   * @param contents the bytes of the body as ISO-8859-1 characters
+   */
+  public void setResponseContentsAsByteString(String contents) {
+    this.bufferedResponse.setBinaryBody(contents.getBytes(StandardCharsets.ISO_8859_1));
   }
 
 }
@@ -0,0 +1,98 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.graalvm.polyglot.Engine;
+
+/**
+ * A polyglot {@link Engine} shared by all image contexts in the JVM that
+ * are configured with the same engine options.
+ * <p>
+ * Contexts created from the same engine share parsed ASTs and compiled
+ * code so additional contexts and servlets warm up faster and use less
+ * memory. The engine is reference counted. When the last reference is
+ * released the engine is closed unless this class has been loaded by a
+ * class loader that outlives the web application, for example when the
+ * jar is in the lib folder of the container. In that case the engine and
+ * its compiled code survive a redeploy of the web application.
+ */
+final class SharedEngine {
+
+  /**
+   * All open engines by their options, guarded by itself.
+   */
+  private static final Map<Map<String, String>, SharedEngine> ENGINES = new HashMap<>();
+
+  private final Map<String, String> options;
+
+  private final Engine engine;
+
+  /**
+   * Number of servlets using {@link #engine}, guarded by {@link #ENGINES}.
+   */
+  private int references;
+
+  private SharedEngine(Map<String, String> options, Engine engine) {
+    this.options = options;
+    this.engine = engine;
+  }
+
+  /**
+   * Returns the shared engine for the given options, creates it if necessary.
+   * <p>
+   * Every call has to be balanced with a call to {@link #release()}.
+   *
+   * @param options the engine options
+   * @return the shared engine
+   */
+  static SharedEngine acquire(Map<String, String> options) {
+    Objects.requireNonNull(options, "options");
+    synchronized (ENGINES) {
+      SharedEngine sharedEngine = ENGINES.get(options);
+      if (sharedEngine == null) {
+        Map<String, String> key = Map.copyOf(options);
+        Engine engine = Engine.newBuilder()
+            .options(key)
+            .build();
+        sharedEngine = new SharedEngine(key, engine);
+        ENGINES.put(key, sharedEngine);
+      }
+      sharedEngine.references += 1;
+      return sharedEngine;
+    }
+  }
+
+  Engine getEngine() {
+    return this.engine;
+  }
+
+  /**
+   * Releases a reference obtained from {@link #acquire(Map)}.
+   * <p>
+   * All contexts created from the engine by the caller have to be closed.
+   */
+  void release() {
+    synchronized (ENGINES) {
+      this.references -= 1;
+      if (this.references == 0 && !outlivesWebApplication()) {
+        ENGINES.remove(this.options);
+        this.engine.close();
+      }
+    }
+  }
+
+  /**
+   * Whether this class has been loaded by a class loader other than the
+   * one of the current web application.
+   * <p>
+   * Keeping an engine alive in a class loaded by the web application
+   * would leak the class loader on redeploy.
+   */
+  private static boolean outlivesWebApplication() {
+    ClassLoader webApplicationLoader = Thread.currentThread().getContextClassLoader();
+    return webApplicationLoader != null && SharedEngine.class.getClassLoader() != webApplicationLoader;
+  }
+
+}
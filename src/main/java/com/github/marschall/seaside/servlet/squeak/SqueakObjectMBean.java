@@ -4,8 +4,11 @@ import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 
 import javax.management.Attribute;
@@ -25,6 +28,14 @@ import org.graalvm.polyglot.Value;
 
 /**
  * Exposes a Squeak Object in a {@link Value} as a {@link DynamicMBean}.
+ * <p>
+ * Attributes with a {@code currencyTimeLimit} descriptor field are
+ * cached, see {@link AttributeCache}.
+ * <p>
+ * Operations returning {@code void} with a {@code deferred} descriptor
+ * field of {@code true} are not run right away but handed to a
+ * maintenance executor that runs them while no request is waiting for
+ * the image.
  */
 public final class SqueakObjectMBean implements DynamicMBean {
 
@@ -34,9 +45,15 @@ public final class SqueakObjectMBean implements DynamicMBean {
    * Lock through which all access to Squeak objects happens because GraalSqueak is not thread safe.
    */
   private final Lock lock;
+
+  /**
+   * Runs deferred operations with {@link #lock} held, {@code null} to run them right away.
+   */
+  private final Executor maintenance;
   private final MBeanInfo mBeanInfo;
   private final Map<String, MBeanAttributeInfo> attributes;
   private final Map<String, MBeanOperationInfo> operations;
+  private final AttributeCache cache;
 
   /**
    * Constructs a new {@link SqueakObjectMBean}.
@@ -46,14 +63,30 @@ public final class SqueakObjectMBean implements DynamicMBean {
    * @param lock the lock to guard access to the Graal context
    */
   public SqueakObjectMBean(Value squeakObject, MBeanInfo mBeanInfo, Value lock) {
+    this(squeakObject, mBeanInfo, lock, null);
+  }
+
+  /**
+   * Constructs a new {@link SqueakObjectMBean} that defers operations.
+   *
+   * @param squeakObject the Squeak object, not {@code null}
+   * @param mBeanInfo the MBeanInfo describing {@code squeakObject}, not {@code null}
+   * @param lock the lock to guard access to the Graal context
+   * @param maintenance the {@link Executor} running deferred operations with
+   *                    {@code lock} held, {@code null} or {@code nil} to run
+   *                    them right away
+   */
+  public SqueakObjectMBean(Value squeakObject, MBeanInfo mBeanInfo, Value lock, Value maintenance) {
     Objects.requireNonNull(squeakObject, "squeakObject");
     Objects.requireNonNull(mBeanInfo, "mBeanInfo");
     Objects.requireNonNull(lock, "lock");
     this.squeakObject = squeakObject;
     this.mBeanInfo = mBeanInfo;
     this.lock = lock.asHostObject();
+    this.maintenance = maintenance == null || maintenance.isNull() ? null : maintenance.asHostObject();
     this.attributes = toFeatureInfoMap(mBeanInfo.getAttributes());
     this.operations = toFeatureInfoMap(mBeanInfo.getOperations());
+    this.cache = new AttributeCache(mBeanInfo.getAttributes(), this.lock);
   }
 
   private static <I extends MBeanFeatureInfo> Map<String, I> toFeatureInfoMap(I[] mBeanAttributeInfos) {
@@ -70,12 +103,7 @@ public final class SqueakObjectMBean implements DynamicMBean {
   public Object getAttribute(String attributeName)
           throws AttributeNotFoundException, MBeanException, ReflectionException {
 
-    this.lock.lock();
-    try {
-      return this.doGetAttributeValue(attributeName);
-    } finally {
-      this.lock.unlock();
-    }
+    return this.cache.get(attributeName, this::doGetAttributeValue, System.nanoTime());
   }
 
   @Override
@@ -88,17 +116,24 @@ public final class SqueakObjectMBean implements DynamicMBean {
     } finally {
       this.lock.unlock();
     }
+    this.cache.remove(attribute.getName());
   }
 
   @Override
   public AttributeList getAttributes(String[] attributeNames) {
+    Map<String, Object> values = this.cache.getAll(attributeNames, this::doGetAttributes, System.nanoTime());
+    return toAttributeList(attributeNames, values);
+  }
 
-    this.lock.lock();
-    try {
-      return this.getGetAttributes(attributeNames);
-    } finally {
-      this.lock.unlock();
+  private static AttributeList toAttributeList(String[] attributeNames, Map<String, Object> values) {
+    AttributeList result = new AttributeList(attributeNames.length);
+    for (String attributeName : attributeNames) {
+      if (values.containsKey(attributeName)) {
+        result.add(new Attribute(attributeName, values.get(attributeName)));
+      }
+      // apparently spec says it's fine to ignore attributes that can not be read
     }
+    return result;
   }
 
   @Override
@@ -116,14 +151,35 @@ public final class SqueakObjectMBean implements DynamicMBean {
   public Object invoke(String actionName, Object[] params, String[] signature)
       throws MBeanException, ReflectionException {
 
+    if (this.maintenance != null && this.isDeferred(actionName)) {
+      this.maintenance.execute(() -> {
+        try {
+          this.doInvoke(actionName, params);
+        } catch (MBeanException | ReflectionException e) {
+          throw new IllegalStateException("could not invoke: " + actionName, e);
+        } finally {
+          this.cache.clear();
+        }
+      });
+      return null;
+    }
     this.lock.lock();
     try {
       return this.doInvoke(actionName, params);
     } finally {
       this.lock.unlock();
+      // an operation may change any attribute
+      this.cache.clear();
     }
   }
 
+  private boolean isDeferred(String actionName) {
+    MBeanOperationInfo operationInfo = this.operations.get(actionName);
+    return operationInfo != null
+        && operationInfo.getReturnType().equals("void")
+        && "true".equals(operationInfo.getDescriptor().getFieldValue("deferred"));
+  }
+
   private Object doGetAttributeValue(String attributeName)
           throws AttributeNotFoundException, MBeanException, ReflectionException {
 
@@ -160,18 +216,45 @@ public final class SqueakObjectMBean implements DynamicMBean {
     }
   }
 
-  private AttributeList getGetAttributes(String[] attributeNames) {
-    AttributeList result = new AttributeList(attributeNames.length);
-    for (String attributeName : attributeNames) {
+  /**
+   * Reads attributes with a single call to {@code WAMBean >> #attributeValues:failed:}
+   * or, for other Squeak objects, one call per attribute.
+   */
+  private Map<String, Object> doGetAttributes(List<String> attributeNames) {
+    Map<String, Object> values = new HashMap<>(attributeNames.size() * 2);
+    if (!this.squeakObject.canInvokeMember("attributeValues:failed:")) {
+      for (String attributeName : attributeNames) {
+        try {
+          values.put(attributeName, this.doGetAttributeValue(attributeName));
+        } catch (AttributeNotFoundException | MBeanException | ReflectionException e) {
+          // apparently spec says it's fine to ignore
+          // TODO file RFE for public JMRuntimeException constructor
+        }
+      }
+      return values;
+    }
+    // nil is a valid attribute value, failures are reported separately
+    boolean[] failed = new boolean[attributeNames.size()];
+    Value attributeValues;
+    try {
+      attributeValues = this.squeakObject.invokeMember("attributeValues:failed:",
+          attributeNames.toArray(new String[0]), failed);
+    } catch (PolyglotException e) {
+      // keep the stale values
+      return values;
+    }
+    for (int i = 0; i < attributeNames.size(); i++) {
+      if (failed[i]) {
+        continue;
+      }
+      String attributeName = attributeNames.get(i);
       try {
-        Object attributeValue = this.doGetAttributeValue(attributeName);
-        result.add(new Attribute(attributeName, attributeValue));
-      } catch (AttributeNotFoundException | MBeanException | ReflectionException e) {
+        values.put(attributeName, getHostValue(this.attributes.get(attributeName).getType(), attributeValues.getArrayElement(i)));
+      } catch (ReflectionException | ClassCastException | IllegalStateException | NullPointerException e) {
         // apparently spec says it's fine to ignore
-        // TODO file RFE for public JMRuntimeException constructor
       }
     }
-    return result;
+    return values;
   }
 
   private AttributeList doSetAttributes(AttributeList attributes) {
@@ -179,10 +262,12 @@ public final class SqueakObjectMBean implements DynamicMBean {
     for (Object each : attributes) {
       Attribute attribute = (Attribute) each;
       try {
-        this.setAttribute(attribute);
+        this.doSetAttribute(attribute);
         String attributeName = attribute.getName();
-        result.add(new Attribute(attributeName, this.doGetAttributeValue(attributeName)));
-      } catch (AttributeNotFoundException | InvalidAttributeValueException  | MBeanException | ReflectionException e) {
+        Object hostValue = this.doGetAttributeValue(attributeName);
+        this.cache.put(attributeName, hostValue, System.nanoTime());
+        result.add(new Attribute(attributeName, hostValue));
+      } catch (AttributeNotFoundException | MBeanException | ReflectionException e) {
         // apparently spec says it's fine to ignore
       }
     }
@@ -0,0 +1,115 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.Part;
+
+/**
+ * Converts uploaded {@link Part}s to {@link FilePart}s, keeping large
+ * ones on disk.
+ * <p>
+ * Spilled files are owned by the spool and deleted once their
+ * {@link FilePart} is no longer referenced from Squeak or when the spool
+ * is closed. No cleaner thread is used, the servlet deletes stale files
+ * at the start of every request.
+ */
+final class UploadSpool {
+
+  private final Path directory;
+
+  private final long threshold;
+
+  private final AtomicLong fileCounter;
+
+  private final ReferenceQueue<FilePart> queue;
+
+  private final Set<SpilledFileReference> spilledFiles;
+
+  /**
+   * Constructs a new {@link UploadSpool}.
+   *
+   * @param directory the directory to spill to, has to exist, will be deleted on {@link #close()}
+   * @param threshold the size in bytes from which on parts are spilled to disk
+   */
+  UploadSpool(Path directory, long threshold) {
+    Objects.requireNonNull(directory, "directory");
+    this.directory = directory;
+    this.threshold = threshold;
+    this.fileCounter = new AtomicLong();
+    this.queue = new ReferenceQueue<>();
+    this.spilledFiles = ConcurrentHashMap.newKeySet();
+  }
+
+  FilePart toFilePart(Part part, String partName, String fileName, String contentType) throws IOException {
+    long size = part.getSize();
+    if (size < this.threshold) {
+      byte[] contents;
+      try (InputStream inputStream = part.getInputStream()) {
+        contents = inputStream.readAllBytes();
+      }
+      return FilePart.inMemory(partName, fileName, contentType, contents);
+    }
+    this.deleteStaleFiles();
+    Path spilledFile = this.directory.resolve("upload-" + this.fileCounter.incrementAndGet() + ".part");
+    // most containers move the file they already buffered the part in
+    part.write(spilledFile.toString());
+    FilePart filePart = FilePart.spilled(partName, fileName, contentType, size, spilledFile);
+    this.spilledFiles.add(new SpilledFileReference(filePart, this.queue));
+    return filePart;
+  }
+
+  /**
+   * Deletes the files of {@link FilePart}s that have been garbage collected.
+   * Cheap if there are none.
+   */
+  void deleteStaleFiles() {
+    Reference<? extends FilePart> reference = this.queue.poll();
+    while (reference != null) {
+      SpilledFileReference spilledFileReference = (SpilledFileReference) reference;
+      this.spilledFiles.remove(spilledFileReference);
+      spilledFileReference.delete();
+      reference = this.queue.poll();
+    }
+  }
+
+  /**
+   * Deletes all spilled files and the spool directory.
+   */
+  void close() {
+    for (SpilledFileReference spilledFile : this.spilledFiles) {
+      spilledFile.delete();
+    }
+    this.spilledFiles.clear();
+    try {
+      Files.deleteIfExists(this.directory);
+    } catch (IOException e) {
+      // ignore, the container cleans up its temp directory
+    }
+  }
+
+  static final class SpilledFileReference extends PhantomReference<FilePart> {
+
+    private final FilePart.SpilledFile spilledFile;
+
+    SpilledFileReference(FilePart referent, ReferenceQueue<? super FilePart> queue) {
+      super(referent, queue);
+      this.spilledFile = referent.getSpilledFile();
+    }
+
+    void delete() {
+      this.spilledFile.delete();
+    }
+
+  }
+
+}
@@ -0,0 +1,200 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses and decodes request URLs in Java so that the image can fill in
+ * a {@code WAUrl} without parsing the URL again.
+ * <p>
+ * The path is split into decoded segments with
+ * {@link #parsePath(String, Charset)} and the
+ * segments of the context path of the servlet are split off, this way
+ * {@code WAContextPathHandler} does not have to compare them. The query
+ * is split into decoded keys and values. Both are decoded with the
+ * character encoding of the codec of the image.
+ */
+final class UrlParser {
+
+  private static final String[] NO_STRINGS = new String[0];
+
+  /**
+   * The decoded segments of the context path and servlet mapping.
+   */
+  private final String[] contextPath;
+
+  private final Charset charset;
+
+  /**
+   * Constructs a new {@link UrlParser}.
+   *
+   * @param contextPath the context path including the servlet mapping, not decoded
+   * @param charset the charset of escaped bytes
+   */
+  UrlParser(String contextPath, Charset charset) {
+    this.contextPath = parsePath(contextPath, charset);
+    this.charset = charset;
+  }
+
+  /**
+   * Returns the decoded segments of the context path.
+   *
+   * @return the decoded segments of the context path and servlet mapping
+   */
+  String[] getContextPath() {
+    return this.contextPath;
+  }
+
+  /**
+   * Splits a path into decoded segments.
+   *
+   * @param rawPath the path, not decoded
+   * @return the decoded segments of the path including the context path
+   */
+  String[] parsePath(String rawPath) {
+    return parsePath(rawPath, this.charset);
+  }
+
+  /**
+   * Splits a path into decoded segments.
+   * <p>
+   * The path is split before it is decoded, an escaped slash is decoded
+   * to a slash inside a segment.
+   *
+   * @param rawPath the path, not decoded
+   * @param charset the charset of the escaped bytes
+   * @return the decoded segments, without empty segments
+   */
+  static String[] parsePath(String rawPath, Charset charset) {
+    List<String> segments = new ArrayList<>();
+    int start = 0;
+    while (start < rawPath.length()) {
+      int end = rawPath.indexOf('/', start);
+      if (end == -1) {
+        end = rawPath.length();
+      }
+      if (end > start) {
+        segments.add(decode(rawPath.substring(start, end), charset));
+      }
+      start = end + 1;
+    }
+    return segments.toArray(NO_STRINGS);
+  }
+
+  /**
+   * Checks whether a path starts with the context path.
+   *
+   * @param segments the decoded segments of a path
+   * @return the number of segments of the context path, {@code -1} if
+   *         the path does not start with the context path
+   */
+  int contextPathLength(String[] segments) {
+    if (segments.length < this.contextPath.length) {
+      return -1;
+    }
+    for (int i = 0; i < this.contextPath.length; i++) {
+      if (!this.contextPath[i].equals(segments[i])) {
+        return -1;
+      }
+    }
+    return this.contextPath.length;
+  }
+
+  /**
+   * Splits off the segments of the context path.
+   *
+   * @param segments the decoded segments of a path starting with the context path
+   * @param contextPathLength the result of {@link #contextPathLength(String[])}
+   * @return the segments following the context path
+   */
+  static String[] stripContextPath(String[] segments, int contextPathLength) {
+    if (contextPathLength == 0) {
+      return segments;
+    }
+    return Arrays.copyOfRange(segments, contextPathLength, segments.length);
+  }
+
+  /**
+   * Splits a query into decoded keys and values, the same way {@code WAUrl} does.
+   *
+   * @param rawQuery the query without the leading {@code ?}, not decoded, may be {@code null}
+   * @return alternating keys and values, the value of a key without
+   *         {@code =} is {@code null}
+   */
+  String[] parseQuery(String rawQuery) {
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return NO_STRINGS;
+    }
+    List<String> keysAndValues = new ArrayList<>();
+    int start = 0;
+    while (start <= rawQuery.length()) {
+      int end = rawQuery.indexOf('&', start);
+      if (end == -1) {
+        end = rawQuery.length();
+      }
+      if (end > start) {
+        int equals = rawQuery.indexOf('=', start);
+        if (equals == -1 || equals > end) {
+          keysAndValues.add(this.decodeQueryComponent(rawQuery.substring(start, end)));
+          keysAndValues.add(null);
+        } else {
+          keysAndValues.add(this.decodeQueryComponent(rawQuery.substring(start, equals)));
+          keysAndValues.add(this.decodeQueryComponent(rawQuery.substring(equals + 1, end)));
+        }
+      }
+      start = end + 1;
+    }
+    return keysAndValues.toArray(NO_STRINGS);
+  }
+
+  private String decodeQueryComponent(String component) {
+    // an escaped plus is decoded after the spaces
+    return decode(component.replace('+', ' '), this.charset);
+  }
+
+  /**
+   * Decodes percent escapes, malformed escapes are kept.
+   *
+   * @param encoded the string to decode
+   * @param charset the charset of the escaped bytes
+   * @return the decoded string
+   */
+  static String decode(String encoded, Charset charset) {
+    if (encoded.indexOf('%') == -1) {
+      // the common case
+      return encoded;
+    }
+    StringBuilder decoded = new StringBuilder(encoded.length());
+    byte[] bytes = null;
+    int i = 0;
+    while (i < encoded.length()) {
+      char c = encoded.charAt(i);
+      if (c == '%' && isEscape(encoded, i)) {
+        if (bytes == null) {
+          bytes = new byte[encoded.length() / 3];
+        }
+        // consecutive escapes form a multi byte character
+        int length = 0;
+        while (i < encoded.length() && encoded.charAt(i) == '%' && isEscape(encoded, i)) {
+          bytes[length++] = (byte) (Character.digit(encoded.charAt(i + 1), 16) << 4
+              | Character.digit(encoded.charAt(i + 2), 16));
+          i += 3;
+        }
+        decoded.append(new String(bytes, 0, length, charset));
+      } else {
+        decoded.append(c);
+        i += 1;
+      }
+    }
+    return decoded.toString();
+  }
+
+  private static boolean isEscape(String encoded, int index) {
+    return index + 2 < encoded.length()
+        && Character.digit(encoded.charAt(index + 1), 16) != -1
+        && Character.digit(encoded.charAt(index + 2), 16) != -1;
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.http.Cookie;
+
+/**
+ * Replays synthetic requests against a context until the compiler has
+ * caught up.
+ * <p>
+ * Every iteration requests every URL once. Redirects are followed in the
+ * next iteration and cookies are kept so that after the first iteration
+ * the requests stay in the same Seaside session instead of creating a new
+ * one every time. Warm up stops after a maximum number of iterations, a
+ * time budget, or once the duration of an iteration no longer improves.
+ * The polyglot API does not expose the state of the compilation queue,
+ * a latency plateau is the closest observable signal.
+ */
+final class WarmUp {
+
+  /**
+   * Number of iterations over which durations are averaged to detect a plateau.
+   */
+  private static final int WINDOW = 10;
+
+  /**
+   * Maximum relative difference between two windows to be considered a plateau.
+   */
+  private static final double TOLERANCE = 0.05d;
+
+  private static final String ORIGIN = "http://localhost:80";
+
+  private static final String[] NO_STRINGS = new String[0];
+
+  private final List<String> paths;
+
+  private final UrlParser urlParser;
+
+  private final int maxIterations;
+
+  private final long maxNanos;
+
+  /**
+   * Constructs a new {@link WarmUp}.
+   *
+   * @param paths the request URIs to replay including the context path, may include a query string
+   * @param urlParser the parser of the request URLs
+   * @param maxIterations the maximum number of times every URI is requested
+   * @param maxNanos the maximum time warm up may take per context in nanoseconds
+   */
+  WarmUp(List<String> paths, UrlParser urlParser, int maxIterations, long maxNanos) {
+    Objects.requireNonNull(paths, "paths");
+    Objects.requireNonNull(urlParser, "urlParser");
+    this.paths = paths;
+    this.urlParser = urlParser;
+    this.maxIterations = maxIterations;
+    this.maxNanos = maxNanos;
+  }
+
+  /**
+   * Warms up a context.
+   *
+   * @param context the context to warm up
+   * @return a description of the outcome suitable for logging
+   */
+  String run(ImageContext context) {
+    List<Target> targets = new ArrayList<>(this.paths.size());
+    for (String path : this.paths) {
+      targets.add(new Target(ORIGIN + path));
+    }
+    long[] durations = new long[this.maxIterations];
+    long start = System.nanoTime();
+    int iterations = 0;
+    String reason = "iteration budget exhausted";
+    while (iterations < this.maxIterations) {
+      if (System.nanoTime() - start >= this.maxNanos) {
+        reason = "time budget exhausted";
+        break;
+      }
+      long iterationStart = System.nanoTime();
+      for (Target target : targets) {
+        target.request(context, this.urlParser);
+      }
+      durations[iterations] = System.nanoTime() - iterationStart;
+      iterations += 1;
+      if (isPlateau(durations, iterations)) {
+        reason = "latency settled";
+        break;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (iterations == 0) {
+      return "warm up of " + context + " did not run, " + reason;
+    }
+    return "warm up of " + context + " finished after " + iterations + " iterations in "
+        + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, " + reason
+        + ", first iteration " + TimeUnit.NANOSECONDS.toMillis(durations[0]) + " ms"
+        + ", last iteration " + TimeUnit.NANOSECONDS.toMillis(durations[iterations - 1]) + " ms";
+  }
+
+  static boolean isPlateau(long[] durations, int count) {
+    if (count < 2 * WINDOW) {
+      return false;
+    }
+    double previous = mean(durations, count - 2 * WINDOW, count - WINDOW);
+    double current = mean(durations, count - WINDOW, count);
+    return Math.abs(previous - current) <= previous * TOLERANCE;
+  }
+
+  private static double mean(long[] durations, int from, int to) {
+    long sum = 0L;
+    for (int i = from; i < to; i++) {
+      sum += durations[i];
+    }
+    return sum / (double) (to - from);
+  }
+
+  static String resolve(String url, String location) {
+    if (location.startsWith("http://") || location.startsWith("https://")) {
+      return location;
+    }
+    if (location.startsWith("/")) {
+      return ORIGIN + location;
+    }
+    int queryStart = url.indexOf('?');
+    String withoutQuery = queryStart == -1 ? url : url.substring(0, queryStart);
+    if (location.startsWith("?")) {
+      return withoutQuery + location;
+    }
+    return withoutQuery.substring(0, withoutQuery.lastIndexOf('/') + 1) + location;
+  }
+
+  /**
+   * A sequence of requests that starts at one URL.
+   */
+  static final class Target {
+
+    private String url;
+
+    private final Map<String, String> cookies;
+
+    Target(String url) {
+      this.url = url;
+      this.cookies = new LinkedHashMap<>();
+    }
+
+    void request(ImageContext context, UrlParser urlParser) {
+      String[] headers = {"Host", "localhost", "User-Agent", "seaside-warm-up"};
+      ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic(this.url, urlParser, headers, this.getCookies());
+      context.process(nativeRequest, false);
+      BufferedResponse response = nativeRequest.getBufferedResponse();
+      for (Cookie cookie : response.getCookies()) {
+        if (cookie.getMaxAge() == 0) {
+          this.cookies.remove(cookie.getName());
+        } else {
+          this.cookies.put(cookie.getName(), cookie.getValue());
+        }
+      }
+      int status = response.getStatus();
+      String location = response.getHeader("Location");
+      if (status >= 300 && status < 400 && location != null) {
+        this.url = resolve(this.url, location);
+      }
+    }
+
+    private String[] getCookies() {
+      if (this.cookies.isEmpty()) {
+        return NO_STRINGS;
+      }
+      String[] namesAndValues = new String[this.cookies.size() * 2];
+      int i = 0;
+      for (Map.Entry<String, String> cookie : this.cookies.entrySet()) {
+        namesAndValues[i++] = cookie.getKey();
+        namesAndValues[i++] = cookie.getValue();
+      }
+      return namesAndValues;
+    }
+
+  }
+
+}
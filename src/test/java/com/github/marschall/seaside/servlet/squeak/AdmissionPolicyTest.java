@@ -0,0 +1,36 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionPolicyTest {
+
+  @Test
+  void unlimited() {
+    AdmissionPolicy policy = AdmissionPolicy.unlimited();
+    assertTrue(policy.admits(Integer.MAX_VALUE, true));
+    assertTrue(policy.admits(Integer.MAX_VALUE, false));
+    assertFalse(policy.hasMaxWait());
+  }
+
+  @Test
+  void maxQueueDepth() {
+    AdmissionPolicy policy = new AdmissionPolicy(4, AdmissionPolicy.UNLIMITED, 1, false);
+    assertTrue(policy.admits(5, true));
+    assertTrue(policy.admits(5, false));
+    assertFalse(policy.admits(6, true));
+    assertFalse(policy.admits(6, false));
+  }
+
+  @Test
+  void sessionPriority() {
+    AdmissionPolicy policy = new AdmissionPolicy(4, AdmissionPolicy.UNLIMITED, 1, true);
+    assertTrue(policy.admits(3, true));
+    assertFalse(policy.admits(4, true));
+    assertTrue(policy.admits(5, false));
+    assertFalse(policy.admits(6, false));
+  }
+
+}
@@ -0,0 +1,170 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.Descriptor;
+import javax.management.ImmutableDescriptor;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+
+import org.junit.jupiter.api.Test;
+
+class AttributeCacheTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final AttributeCache cache = new AttributeCache(new MBeanAttributeInfo[] {
+      attribute("sessionCount", new ImmutableDescriptor("currencyTimeLimit=5")),
+      attribute("version", new ImmutableDescriptor("currencyTimeLimit=-1")),
+      attribute("name", ImmutableDescriptor.EMPTY_DESCRIPTOR)}, this.lock);
+
+  private final List<String> reads = new ArrayList<>();
+
+  private int sessionCount;
+
+  @Test
+  void fresh() throws JMException {
+    assertEquals(1, this.cache.get("sessionCount", this::read, 0L));
+    assertEquals(1, this.cache.get("sessionCount", this::read, 4L * SECOND));
+    assertEquals(List.of("sessionCount"), this.reads);
+  }
+
+  @Test
+  void refreshed() throws JMException {
+    assertEquals(1, this.cache.get("sessionCount", this::read, 0L));
+    assertEquals(2, this.cache.get("sessionCount", this::read, 5L * SECOND));
+    assertEquals(2, this.cache.get("sessionCount", this::read, 6L * SECOND));
+    assertEquals(List.of("sessionCount", "sessionCount"), this.reads);
+  }
+
+  @Test
+  void staleWhileLocked() throws JMException, InterruptedException {
+    assertEquals(1, this.cache.get("sessionCount", this::read, 0L));
+    this.whileLocked(() -> {
+      assertEquals(1, this.cache.get("sessionCount", this::read, 10L * SECOND));
+      assertEquals(Map.of("sessionCount", 1), this.cache.getAll(new String[] {"sessionCount"}, this::readAll, 10L * SECOND));
+    });
+    assertEquals(List.of("sessionCount"), this.reads);
+    assertEquals(2, this.cache.get("sessionCount", this::read, 10L * SECOND));
+  }
+
+  @Test
+  void notCached() throws JMException {
+    assertEquals("name", this.cache.get("name", this::read, 0L));
+    assertEquals("name", this.cache.get("name", this::read, 0L));
+    assertEquals(List.of("name", "name"), this.reads);
+  }
+
+  @Test
+  void forever() throws JMException {
+    assertEquals("version", this.cache.get("version", this::read, 0L));
+    assertEquals("version", this.cache.get("version", this::read, 365L * 24L * 3600L * SECOND));
+    assertEquals(List.of("version"), this.reads);
+  }
+
+  @Test
+  void removeAndClear() throws JMException {
+    this.cache.get("sessionCount", this::read, 0L);
+    this.cache.remove("sessionCount");
+    assertEquals(2, this.cache.get("sessionCount", this::read, 0L));
+    this.cache.clear();
+    assertEquals(3, this.cache.get("sessionCount", this::read, 0L));
+  }
+
+  @Test
+  void getAll() {
+    String[] attributeNames = {"sessionCount", "version", "name", "unknown"};
+    Map<String, Object> values = this.cache.getAll(attributeNames, this::readAll, 0L);
+    assertEquals(Map.of("sessionCount", 1, "version", "version", "name", "name"), values);
+    // unknown attributes are not read
+    assertEquals(List.of("[sessionCount, version, name]"), this.reads);
+
+    // only the attributes without a fresh value are read, with a single call
+    values = this.cache.getAll(attributeNames, this::readAll, 5L * SECOND);
+    assertEquals(Map.of("sessionCount", 2, "version", "version", "name", "name"), values);
+    assertEquals(List.of("[sessionCount, version, name]", "[sessionCount, name]"), this.reads);
+  }
+
+  @Test
+  void getAllMissingWaitsForLock() throws JMException, InterruptedException {
+    Thread reader = new Thread(() -> this.cache.getAll(new String[] {"sessionCount"}, this::readAll, 0L));
+    this.whileLocked(() -> {
+      reader.start();
+      reader.join(100L);
+      // a missing value is not skipped, the reader waits for the lock
+      assertEquals(List.of(), this.reads);
+    });
+    reader.join();
+    assertEquals(List.of("[sessionCount]"), this.reads);
+  }
+
+  private Object read(String attributeName) {
+    this.reads.add(attributeName);
+    return this.value(attributeName);
+  }
+
+  private Map<String, Object> readAll(List<String> attributeNames) {
+    assertFalse(attributeNames.isEmpty());
+    this.reads.add(attributeNames.toString());
+    Map<String, Object> values = new HashMap<>();
+    for (String attributeName : attributeNames) {
+      values.put(attributeName, this.value(attributeName));
+    }
+    return values;
+  }
+
+  private Object value(String attributeName) {
+    if (attributeName.equals("sessionCount")) {
+      this.sessionCount += 1;
+      return this.sessionCount;
+    }
+    return attributeName;
+  }
+
+  private void whileLocked(Assertions assertions) throws JMException, InterruptedException {
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder = new Thread(() -> {
+      this.lock.lock();
+      try {
+        locked.countDown();
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        this.lock.unlock();
+      }
+    });
+    holder.start();
+    locked.await();
+    try {
+      assertions.run();
+    } finally {
+      release.countDown();
+      holder.join();
+    }
+  }
+
+  private static MBeanAttributeInfo attribute(String name, Descriptor descriptor) {
+    return new MBeanAttributeInfo(name, "int", name, true, false, false, descriptor);
+  }
+
+  @FunctionalInterface
+  interface Assertions {
+
+    void run() throws JMException, InterruptedException;
+
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+
+class BufferedResponseTest {
+
+  @Test
+  void writeTextTo() throws IOException {
+    BufferedResponse response = new BufferedResponse();
+    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+    response.addHeader("Content-Type", "text/html;charset=utf-8");
+    response.addHeader("Cache-Control", "no-cache");
+    response.addHeader("Cache-Control", "no-store");
+    response.addCookie(new Cookie("session", "1234"));
+    response.setTextBody("Zürich");
+
+    ServletStubs.RecordingResponse recording = new ServletStubs.RecordingResponse();
+    response.writeTo(recording.asResponse());
+
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, recording.status);
+    assertEquals(List.of("Content-Type", "text/html;charset=utf-8",
+        "Cache-Control", "no-cache", "Cache-Control", "no-store"), recording.headers);
+    assertEquals(1, recording.cookies.size());
+    assertEquals("session", recording.cookies.get(0).getName());
+    assertEquals("1234", recording.cookies.get(0).getValue());
+    assertEquals("Zürich", recording.getText());
+  }
+
+  @Test
+  void writeBinaryTo() throws IOException {
+    byte[] body = {0x00, 0x7F, (byte) 0x80, (byte) 0xFF};
+    BufferedResponse response = new BufferedResponse();
+    response.setTextBody("replaced");
+    response.setBinaryBody(body);
+    assertNull(response.getTextBody());
+
+    ServletStubs.RecordingResponse recording = new ServletStubs.RecordingResponse();
+    response.writeTo(recording.asResponse());
+
+    assertEquals(HttpServletResponse.SC_OK, recording.status);
+    assertEquals(List.of(), recording.headers);
+    assertArrayEquals(body, recording.body.toByteArray());
+  }
+
+  @Test
+  void setHeader() {
+    BufferedResponse response = new BufferedResponse();
+    response.addHeader("Vary", "Cookie");
+    response.addHeader("vary", "Accept-Language");
+    response.setHeader("VARY", "Accept-Encoding");
+    assertEquals(List.of("VARY", "Accept-Encoding"), response.getHeaders());
+    assertEquals("Accept-Encoding", response.getHeader("vary"));
+  }
+
+}
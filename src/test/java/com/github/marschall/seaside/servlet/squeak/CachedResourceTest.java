@@ -0,0 +1,135 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+class CachedResourceTest {
+
+  @Test
+  void acceptsGzip() {
+    assertTrue(CachedResource.acceptsGzip("gzip, deflate, br"));
+    assertTrue(CachedResource.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+    assertTrue(CachedResource.acceptsGzip("*"));
+    assertFalse(CachedResource.acceptsGzip("gzip;q=0"));
+    assertFalse(CachedResource.acceptsGzip("deflate, br"));
+    assertFalse(CachedResource.acceptsGzip(null));
+  }
+
+  @Test
+  void entityTag() {
+    String tag = CachedResource.entityTag("body { }".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(34, tag.length());
+    assertTrue(tag.startsWith("\"") && tag.endsWith("\""));
+    assertEquals(tag, CachedResource.entityTag("body { }".getBytes(StandardCharsets.US_ASCII)));
+    assertNotEquals(tag, CachedResource.entityTag("body {}".getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  @Test
+  void matches() {
+    CachedResource resource = new CachedResource(new String[0], new byte[0], "\"a1\"", new byte[0], "\"a1-gzip\"");
+    assertTrue(resource.matches("\"a1\""));
+    assertTrue(resource.matches("W/\"a1-gzip\""));
+    assertTrue(resource.matches("\"b2\", \"a1\""));
+    assertTrue(resource.matches("*"));
+    assertFalse(resource.matches("\"b2\""));
+    assertFalse(resource.matches(null));
+  }
+
+  @Test
+  void matchesWholeTags() {
+    CachedResource resource = new CachedResource(new String[0], new byte[0], "\"a1\"", new byte[0], "\"a1-gzip\"");
+    // a tag containing the entity tag is a different tag
+    assertFalse(resource.matches("\"xa1\", \"a1x\""));
+    assertFalse(resource.matches("\"\"a1\"\""));
+    assertFalse(resource.matches("a1, W/a1-gzip"));
+    assertFalse(resource.matches("\"a1"));
+    assertFalse(resource.matches(""));
+    assertTrue(resource.matches("W/\"b2\",W/\"a1\""));
+    assertTrue(resource.matches("\"b,2\" , \"a1-gzip\""));
+    assertTrue(resource.matches("\"b2\", *"));
+    assertTrue(resource.matches(" * "));
+  }
+
+  @Test
+  void isCompressible() {
+    assertTrue(CachedResource.isCompressible("text/css; charset=utf-8"));
+    assertTrue(CachedResource.isCompressible("application/javascript"));
+    assertFalse(CachedResource.isCompressible("image/png"));
+    assertFalse(CachedResource.isCompressible(null));
+  }
+
+  @Test
+  void replayGzipVariant() throws IOException {
+    BufferedResponse generated = new BufferedResponse();
+    generated.setStatus(HttpServletResponse.SC_OK);
+    generated.addHeader("Content-Type", "text/css");
+    generated.addHeader("Vary", "Accept-Language");
+    generated.addHeader("Date", "Sun, 18 Oct 2026 10:00:00 GMT");
+    generated.setTextBody("body { color: black; }\n".repeat(100));
+    CachedResource resource = CachedResource.from(generated, StandardCharsets.UTF_8, true);
+
+    ServletStubs.RecordingResponse compressed = new ServletStubs.RecordingResponse();
+    resource.writeTo(ServletStubs.get("/files/style.css", Map.of("Accept-Encoding", "gzip")), compressed.asResponse());
+    assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+    assertEquals("Accept-Language, Accept-Encoding", compressed.getHeader("Vary"));
+    assertTrue(compressed.getHeader("ETag").endsWith("-gzip\""));
+    assertNull(compressed.getHeader("Date"));
+
+    ServletStubs.RecordingResponse identity = new ServletStubs.RecordingResponse();
+    resource.writeTo(ServletStubs.get("/files/style.css", Map.of()), identity.asResponse());
+    assertNull(identity.getHeader("Content-Encoding"));
+    assertEquals("Accept-Language, Accept-Encoding", identity.getHeader("Vary"));
+  }
+
+  @Test
+  void replayEncodedBySeaside() throws IOException {
+    BufferedResponse generated = new BufferedResponse();
+    generated.setStatus(HttpServletResponse.SC_OK);
+    generated.addHeader("Content-Type", "text/css");
+    generated.addHeader("Content-Encoding", "br");
+    generated.setBinaryBody(new byte[] {1, 2, 3});
+    CachedResource resource = CachedResource.from(generated, StandardCharsets.UTF_8, true);
+
+    ServletStubs.RecordingResponse replayed = new ServletStubs.RecordingResponse();
+    resource.writeTo(ServletStubs.get("/files/style.css", Map.of("Accept-Encoding", "gzip")), replayed.asResponse());
+    assertEquals("br", replayed.getHeader("Content-Encoding"));
+    assertNull(replayed.getHeader("Vary"));
+  }
+
+  @Test
+  void withHeaders() throws IOException {
+    CachedResource resource = new CachedResource(new String[] {"Cache-Control", "max-age=60", "Content-Type", "text/css"},
+        new byte[0], "\"a1\"", null, null);
+    BufferedResponse notModified = new BufferedResponse();
+    notModified.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    notModified.addHeader("cache-control", "max-age=120");
+    notModified.addHeader("ETag", "\"b2\"");
+
+    ServletStubs.RecordingResponse replayed = new ServletStubs.RecordingResponse();
+    resource.withHeaders(notModified).writeTo(ServletStubs.get("/files/style.css", Map.of()), replayed.asResponse());
+    assertEquals("max-age=120", replayed.getHeader("Cache-Control"));
+    assertEquals("text/css", replayed.getHeader("Content-Type"));
+    // the body did not change
+    assertEquals("\"a1\"", replayed.getHeader("ETag"));
+  }
+
+  @Test
+  void addAcceptEncoding() {
+    assertEquals("Accept-Encoding", CachedResource.addAcceptEncoding(null));
+    assertEquals("Accept-Language, Accept-Encoding", CachedResource.addAcceptEncoding("Accept-Language"));
+    assertEquals("accept-encoding", CachedResource.addAcceptEncoding("accept-encoding"));
+    assertEquals("*", CachedResource.addAcceptEncoding("*"));
+  }
+
+}
@@ -0,0 +1,71 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+class FileLibraryCacheTest {
+
+  private final FileLibraryCache cache = new FileLibraryCache("/app/seaside/files/", UTF_8, false, 2);
+
+  @Test
+  void normalize() {
+    assertEquals("", FileLibraryCache.normalize("/", UTF_8));
+    assertEquals("/app/files/style.css", FileLibraryCache.normalize("//app/files//style.css", UTF_8));
+    assertEquals("/app/files/zürich.css", FileLibraryCache.normalize("/app/files/z%C3%BCrich.css", UTF_8));
+    // an escaped slash is not a separator
+    assertEquals("/app/files/a%2Fb.css", FileLibraryCache.normalize("/app/files/a%2fb.css", UTF_8));
+    assertEquals("/app/files/a%252Fb.css", FileLibraryCache.normalize("/app/files/a%252Fb.css", UTF_8));
+  }
+
+  @Test
+  void variantsShareEntry() throws IOException {
+    this.cache.put(request("/app/seaside/files/WAFileLibrary/style.css"), style());
+    assertEquals(1, this.cache.getEntryCount());
+
+    HttpServletRequest variant = request("/app//seaside/files/WAFileLibrary/%73tyle.css");
+    assertTrue(this.cache.isCacheable(variant));
+    this.cache.put(variant, style());
+    assertEquals(1, this.cache.getEntryCount());
+    assertTrue(this.cache.serve(variant, new ServletStubs.RecordingResponse().asResponse()));
+  }
+
+  @Test
+  void maxEntries() throws IOException {
+    this.cache.put(request("/app/seaside/files/WAFileLibrary/a.css"), style());
+    this.cache.put(request("/app/seaside/files/WAFileLibrary/b.css"), style());
+    HttpServletRequest third = request("/app/seaside/files/WAFileLibrary/c.css");
+    this.cache.put(third, style());
+    assertEquals(2, this.cache.getEntryCount());
+    assertFalse(this.cache.serve(third, new ServletStubs.RecordingResponse().asResponse()));
+  }
+
+  @Test
+  void isCacheable() {
+    assertTrue(this.cache.isCacheable(request("/app/seaside/files/WAFileLibrary/style.css")));
+    assertFalse(this.cache.isCacheable(request("/app/seaside/filesystem/style.css")));
+    assertFalse(this.cache.isCacheable(request("/app/seaside/examples")));
+  }
+
+  private static HttpServletRequest request(String requestUri) {
+    return ServletStubs.get(requestUri, Map.of());
+  }
+
+  private static BufferedResponse style() {
+    BufferedResponse response = new BufferedResponse();
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.addHeader("Content-Type", "text/css");
+    response.setTextBody("body { }");
+    return response;
+  }
+
+}
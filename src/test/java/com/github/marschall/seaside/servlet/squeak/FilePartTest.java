@@ -0,0 +1,79 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FilePartTest {
+
+  private static final byte[] CONTENTS = {'a', 'b', 'c', (byte) 0xE4, (byte) 0xFF, 0x00, 'z'};
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void inMemory() throws IOException {
+    FilePart part = FilePart.inMemory("file", "a.bin", "application/octet-stream", CONTENTS);
+    assertFalse(part.isSpilled());
+    assertEquals(CONTENTS.length, part.getSize());
+    assertEquals(new String(CONTENTS, ISO_8859_1), part.getContents());
+    assertEquals("cäÿ", part.readChunk(2L, 3));
+  }
+
+  @Test
+  void spilled() throws IOException {
+    Path file = Files.write(this.directory.resolve("upload-1.part"), CONTENTS);
+    FilePart part = FilePart.spilled("file", "a.bin", "application/octet-stream", CONTENTS.length, file);
+    assertTrue(part.isSpilled());
+    assertThrows(IllegalStateException.class, part::getContents);
+    assertEquals("cäÿ", part.readChunk(2L, 3));
+  }
+
+  @Test
+  void spilledKeptOpenUntilLastChunk() throws IOException {
+    Path file = Files.write(this.directory.resolve("upload-1.part"), CONTENTS);
+    FilePart part = FilePart.spilled("file", "a.bin", "application/octet-stream", CONTENTS.length, file);
+    assertEquals("abc", part.readChunk(0L, 3));
+    assertTrue(part.getSpilledFile().isOpen());
+    assertEquals("äÿ\u0000", part.readChunk(3L, 3));
+    assertTrue(part.getSpilledFile().isOpen());
+    assertEquals("z", part.readChunk(6L, 3));
+    assertFalse(part.getSpilledFile().isOpen());
+
+    assertEquals("abc", part.readChunk(0L, 3));
+    part.getSpilledFile().delete();
+    assertFalse(part.getSpilledFile().isOpen());
+    assertFalse(Files.exists(file));
+  }
+
+  @Test
+  void readChunkBounds() throws IOException {
+    FilePart part = FilePart.inMemory("file", "a.bin", "application/octet-stream", CONTENTS);
+    // shorter at the end of the contents
+    assertEquals("\u0000z", part.readChunk(5L, 10));
+    assertEquals("", part.readChunk(CONTENTS.length, 10));
+    assertThrows(IndexOutOfBoundsException.class, () -> part.readChunk(-1L, 1));
+    assertThrows(IndexOutOfBoundsException.class, () -> part.readChunk(CONTENTS.length + 1L, 1));
+    assertThrows(IndexOutOfBoundsException.class, () -> part.readChunk(0L, -1));
+  }
+
+  @Test
+  void truncatedSpilledFile() throws IOException {
+    Path file = Files.write(this.directory.resolve("upload-1.part"), new byte[] {'a', 'b'});
+    FilePart part = FilePart.spilled("file", "a.bin", "application/octet-stream", CONTENTS.length, file);
+    assertEquals("ab", part.readChunk(0L, 2));
+    assertThrows(EOFException.class, () -> part.readChunk(0L, CONTENTS.length));
+    assertFalse(part.getSpilledFile().isOpen());
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HostCallsTest {
+
+  private final ReentrantLock imageLock = new ReentrantLock();
+
+  private final AtomicInteger pendingRequests = new AtomicInteger();
+
+  private final ImageLockStatistics statistics = new ImageLockStatistics(this.pendingRequests::get);
+
+  private final ExecutorService executor = HostCalls.newExecutor();
+
+  private final ExecutorService requestThread = Executors.newSingleThreadExecutor();
+
+  private final HostCalls hostCalls = new HostCalls(this.imageLock, this.pendingRequests, this.statistics, this.executor);
+
+  @AfterEach
+  void tearDown() {
+    this.requestThread.shutdownNow();
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  void releasesLockDuringCall() throws Exception {
+    CountDownLatch taskStarted = new CountDownLatch(1);
+    CountDownLatch otherRequestDone = new CountDownLatch(1);
+    Semaphore signal = new Semaphore(0);
+    Future<HostCalls.HostCall> request = this.requestThread.submit(() -> this.processRequest(() -> {
+      taskStarted.countDown();
+      assertTrue(otherRequestDone.await(1L, TimeUnit.MINUTES));
+      return "result";
+    }, signal));
+
+    assertTrue(taskStarted.await(1L, TimeUnit.MINUTES));
+    // another request can use the image while the task runs
+    assertTrue(this.imageLock.tryLock(1L, TimeUnit.MINUTES));
+    try {
+      assertEquals(0, this.pendingRequests.get());
+      assertEquals(0, this.statistics.getQueueLength());
+    } finally {
+      this.imageLock.unlock();
+    }
+    otherRequestDone.countDown();
+
+    HostCalls.HostCall hostCall = request.get(1L, TimeUnit.MINUTES);
+    assertTrue(hostCall.isDone());
+    assertEquals("result", hostCall.result());
+    assertEquals(1L, this.statistics.getHostCallCount());
+    assertEquals(0, this.pendingRequests.get());
+  }
+
+  @Test
+  void exceptionOfTask() throws Exception {
+    IOException failure = new IOException("connection refused");
+    Future<HostCalls.HostCall> request = this.requestThread.submit(() -> this.processRequest(() -> {
+      throw failure;
+    }, new Semaphore(0)));
+    HostCalls.HostCall hostCall = request.get(1L, TimeUnit.MINUTES);
+    assertSame(failure, assertThrows(IOException.class, hostCall::result));
+  }
+
+  @Test
+  void pollsWithoutHostCall() throws Exception {
+    this.imageLock.lock();
+    try {
+      long released = this.hostCalls.await(new Semaphore(0), false);
+      assertTrue(released >= TimeUnit.MILLISECONDS.toNanos(HostCalls.POLL_MILLIS));
+      assertTrue(this.imageLock.isHeldByCurrentThread());
+    } finally {
+      this.imageLock.unlock();
+    }
+  }
+
+  /**
+   * Processes a request the way {@link ImageContext} does, the request
+   * process calls the task.
+   */
+  private HostCalls.HostCall processRequest(Callable<?> task, Semaphore signal) {
+    this.pendingRequests.incrementAndGet();
+    this.imageLock.lock();
+    long acquired = this.statistics.lockAcquired(System.nanoTime());
+    try {
+      HostCalls.HostCall hostCall = this.hostCalls.submit(task, signal);
+      acquired += this.hostCalls.await(signal, true);
+      assertTrue(this.imageLock.isHeldByCurrentThread());
+      assertEquals(1, this.pendingRequests.get());
+      return hostCall;
+    } finally {
+      this.statistics.lockReleased(acquired);
+      this.imageLock.unlock();
+      this.pendingRequests.decrementAndGet();
+    }
+  }
+
+}
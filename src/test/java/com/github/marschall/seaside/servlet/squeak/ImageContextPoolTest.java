@@ -0,0 +1,105 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.graalvm.polyglot.Context;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ImageContextPoolTest {
+
+  private final CountDownLatch busy = new CountDownLatch(1);
+
+  private ImageContextPool pool;
+
+  @BeforeEach
+  void setUp() {
+    ImageContext[] contexts = new ImageContext[3];
+    ImageLockStatistics statistics = new ImageLockStatistics(() -> 0);
+    for (int i = 0; i < contexts.length; i++) {
+      // a host only context, the image is never entered
+      Context graalContext = Context.newBuilder()
+          .option("engine.WarnInterpreterOnly", "false")
+          .build();
+      contexts[i] = new ImageContext(i, graalContext, graalContext.asValue(new Object()), 10, statistics,
+          AdmissionPolicy.unlimited(), null, null);
+    }
+    this.pool = new ImageContextPool(contexts);
+    // contexts 0 and 2 have a pending request, 1 is the least loaded
+    this.occupy(contexts[0]);
+    this.occupy(contexts[2]);
+  }
+
+  private void occupy(ImageContext context) {
+    context.submit(() -> {
+      try {
+        this.busy.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, false);
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.busy.countDown();
+    for (ImageContext context : this.pool.getContexts()) {
+      context.close();
+    }
+  }
+
+  @Test
+  void parseIndex() {
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, ImageContextPool.parseIndex(ImageContextPool.keyPrefix(i) + "eYKKM3Gl3XzVM5T"));
+    }
+  }
+
+  @Test
+  void parseIndexNoPrefix() {
+    assertEquals(-1, ImageContextPool.parseIndex("_eYKKM3Gl3XzVM5T"));
+    assertEquals(-1, ImageContextPool.parseIndex("eYKKM3Gl3XzVM5T"));
+    assertEquals(-1, ImageContextPool.parseIndex("12345_eYKKM3Gl3XzVM5T"));
+    assertEquals(-1, ImageContextPool.parseIndex("12"));
+    assertEquals(-1, ImageContextPool.parseIndex(""));
+  }
+
+  @Test
+  void selectSessionInQuery() {
+    ImageContext selected = this.pool.select(ServletStubs.get("/app?_s=2_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob", Map.of()));
+    assertSame(this.pool.getContexts().get(2), selected);
+  }
+
+  @Test
+  void selectSessionInCookie() {
+    ImageContext selected = this.pool.select(ServletStubs.get("/app?_k=JIp_6FO_QQ26nQob",
+        Map.of("Cookie", "other=1; _s=0_eYKKM3Gl3XzVM5T")));
+    assertSame(this.pool.getContexts().get(0), selected);
+  }
+
+  @Test
+  void selectLeastLoaded() {
+    ImageContext leastLoaded = this.pool.getContexts().get(1);
+    assertSame(leastLoaded, this.pool.select(ServletStubs.get("/app", Map.of())));
+    // out of range
+    assertSame(leastLoaded, this.pool.select(ServletStubs.get("/app?_s=7_eYKKM3Gl3XzVM5T", Map.of())));
+    // not generated by a pool
+    assertSame(leastLoaded, this.pool.select(ServletStubs.get("/app?_s=eYKKM3Gl3XzVM5T", Map.of())));
+  }
+
+  @Test
+  void getSessionKey() {
+    assertEquals("2_abc", ImageContextPool.getSessionKey(ServletStubs.get("/app?x_s=0_def&_s=2_abc", Map.of())));
+    assertEquals("2_abc", ImageContextPool.getSessionKey(ServletStubs.get("/app?_sx=0_def&_s=2_abc", Map.of())));
+    assertEquals("", ImageContextPool.getSessionKey(ServletStubs.get("/app?_s=&_k=def", Map.of())));
+    assertNull(ImageContextPool.getSessionKey(ServletStubs.get("/app?a=_s%3D0_def&_s", Map.of())));
+    assertNull(ImageContextPool.getSessionKey(ServletStubs.get("/app?__s=0_def", Map.of())));
+  }
+
+}
@@ -0,0 +1,74 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.graalvm.polyglot.Context;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ImageContextTest {
+
+  private ImageContext context;
+
+  @BeforeEach
+  void setUp() {
+    // a host only context, the image is never entered
+    Context graalContext = Context.newBuilder()
+        .option("engine.WarnInterpreterOnly", "false")
+        .build();
+    // one request may wait, for at most 50 ms
+    AdmissionPolicy admissionPolicy = new AdmissionPolicy(1, 50, 1, false);
+    this.context = new ImageContext(0, graalContext, graalContext.asValue(new Object()), 0, new ImageLockStatistics(() -> 0),
+        admissionPolicy, null, null);
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.context.close();
+  }
+
+  @Test
+  void followCountsAsPending() {
+    CompletableFuture<String> leader = new CompletableFuture<>();
+    CompletableFuture<String> first = this.context.follow(leader, true);
+    CompletableFuture<String> second = this.context.follow(leader, true);
+    assertEquals(2, this.context.getPendingRequests());
+
+    leader.complete("shared");
+    assertSame("shared", first.join());
+    assertSame("shared", second.join());
+    assertEquals(0, this.context.getPendingRequests());
+  }
+
+  @Test
+  void followQueueDepth() {
+    CompletableFuture<String> leader = new CompletableFuture<>();
+    this.context.follow(leader, true);
+    this.context.follow(leader, true);
+    CompletionException exception = assertThrows(CompletionException.class, () -> this.context.follow(leader, true).join());
+    assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+    assertEquals(2, this.context.getPendingRequests());
+    leader.complete(null);
+    assertEquals(0, this.context.getPendingRequests());
+  }
+
+  @Test
+  void followMaxWait() {
+    CompletableFuture<String> leader = new CompletableFuture<>();
+    CompletionException exception = assertThrows(CompletionException.class, () -> this.context.follow(leader, true).join());
+    assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+    assertEquals(0, this.context.getPendingRequests());
+    // the other followers still get the response
+    assertFalse(leader.isDone());
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+class ImageLockStatisticsTest {
+
+  @Test
+  void histogramBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(500L);
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(1L));
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(3L));
+    histogram.record(TimeUnit.DAYS.toNanos(1L));
+
+    long[] counts = histogram.getCounts();
+    assertEquals(1L, counts[0]);
+    assertEquals(1L, counts[1]);
+    assertEquals(1L, counts[2]);
+    assertEquals(1L, counts[LatencyHistogram.BUCKET_COUNT - 1]);
+    assertEquals(4L, histogram.getCount());
+    assertEquals(0.004d, histogram.getPercentileMillis(0.75d));
+    assertEquals(TimeUnit.DAYS.toMillis(1L), histogram.getMaxMillis());
+
+    histogram.reset();
+    assertArrayEquals(new long[LatencyHistogram.BUCKET_COUNT], histogram.getCounts());
+  }
+
+  @Test
+  void registerMBean() throws Exception {
+    ImageLockStatistics statistics = new ImageLockStatistics(() -> 3);
+    long acquired = statistics.lockAcquired(System.nanoTime());
+    statistics.lockReleased(acquired);
+    statistics.lockAcquired(System.nanoTime());
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("Seaside:type=ImageLock,context=\"/test\",servlet=\"test\"");
+    server.registerMBean(statistics, name);
+    try {
+      assertEquals(2, server.getAttribute(name, "QueueLength"));
+      assertEquals(1L, server.getAttribute(name, "RequestCount"));
+      server.invoke(name, "reset", null, null);
+      assertEquals(0L, server.getAttribute(name, "RequestCount"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  void requestsPerSecond() {
+    ImageLockStatistics statistics = new ImageLockStatistics(() -> 0);
+    for (int i = 0; i < 90; i++) {
+      statistics.recordRate(100L);
+    }
+    for (int i = 0; i < 30; i++) {
+      statistics.recordRate(101L);
+    }
+    // the current second is not complete
+    assertEquals(1.5d, statistics.getRequestsPerSecond(101L));
+    assertEquals(2.0d, statistics.getRequestsPerSecond(102L));
+    assertEquals(0.5d, statistics.getRequestsPerSecond(161L));
+
+    // replaces second 100
+    statistics.recordRate(160L);
+    assertEquals(31.0d / 60.0d, statistics.getRequestsPerSecond(161L));
+  }
+
+  @Test
+  void concurrentRequestsPerSecond() throws InterruptedException {
+    ImageLockStatistics statistics = new ImageLockStatistics(() -> 0);
+    // an entry from a minute ago that every thread tries to replace
+    statistics.recordRate(40L);
+    int threadCount = 8;
+    int requestsPerThread = 15_000;
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int j = 0; j < requestsPerThread; j++) {
+          statistics.recordRate(100L);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threadCount * requestsPerThread / 60.0d, statistics.getRequestsPerSecond(101L));
+  }
+
+}
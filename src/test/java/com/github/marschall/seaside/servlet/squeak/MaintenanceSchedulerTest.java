@@ -0,0 +1,80 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.marschall.seaside.servlet.squeak.MaintenanceScheduler.MaintenanceTask;
+
+class MaintenanceSchedulerTest {
+
+  private final List<String> errors = new ArrayList<>();
+
+  private final MaintenanceScheduler scheduler = new MaintenanceScheduler(TimeUnit.MINUTES.toNanos(1L),
+      TimeUnit.MINUTES.toNanos(1L), (message, exception) -> this.errors.add(message));
+
+  @AfterEach
+  void tearDown() {
+    this.scheduler.close();
+  }
+
+  @Test
+  void runAllWhileIdle() {
+    List<Integer> run = new ArrayList<>();
+    Queue<MaintenanceTask> queue = tasks(run, 3);
+    assertEquals(3, this.scheduler.runTasks(queue, () -> false));
+    assertEquals(List.of(0, 1, 2), run);
+    assertEquals(3L, this.scheduler.getCompletedTaskCount());
+  }
+
+  @Test
+  void stopWhenRequestsWaiting() {
+    List<Integer> run = new ArrayList<>();
+    Queue<MaintenanceTask> queue = tasks(run, 3);
+    assertEquals(1, this.scheduler.runTasks(queue, () -> true));
+    assertEquals(List.of(0), run);
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  void stopWhenSliceUsedUp() {
+    MaintenanceScheduler noSlice = new MaintenanceScheduler(0L, 0L, (message, exception) -> { });
+    try {
+      Queue<MaintenanceTask> queue = tasks(new ArrayList<>(), 2);
+      assertEquals(1, noSlice.runTasks(queue, () -> false));
+      assertEquals(1, queue.size());
+    } finally {
+      noSlice.close();
+    }
+  }
+
+  @Test
+  void failedTask() {
+    Queue<MaintenanceTask> queue = new ArrayDeque<>();
+    queue.add(new MaintenanceTask(() -> {
+      throw new IllegalStateException();
+    }, System.nanoTime()));
+    queue.add(new MaintenanceTask(() -> { }, System.nanoTime()));
+    assertEquals(2, this.scheduler.runTasks(queue, () -> false));
+    assertEquals(2L, this.scheduler.getCompletedTaskCount());
+    assertEquals(1L, this.scheduler.getFailedTaskCount());
+    assertEquals(1, this.errors.size());
+  }
+
+  private static Queue<MaintenanceTask> tasks(List<Integer> run, int count) {
+    Queue<MaintenanceTask> queue = new ArrayDeque<>();
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      queue.add(new MaintenanceTask(() -> run.add(index), System.nanoTime()));
+    }
+    return queue;
+  }
+
+}
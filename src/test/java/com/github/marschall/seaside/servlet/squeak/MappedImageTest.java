@@ -0,0 +1,110 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedImageTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void readWholeImage() throws IOException {
+    byte[] contents = "squeak image contents".getBytes(US_ASCII);
+    Path imagePath = Files.write(this.directory.resolve("seaside.image"), contents);
+    MappedImage image = MappedImage.acquire(imagePath);
+    try {
+      assertEquals(contents.length, image.getSize());
+      assertTrue(image.isImage(imagePath.toAbsolutePath()));
+      assertFalse(image.isImage(this.directory.resolve("seaside.changes")));
+      try (InputStream stream = Channels.newInputStream(image.newChannel())) {
+        assertArrayEquals(contents, stream.readAllBytes());
+      }
+    } finally {
+      image.release();
+    }
+  }
+
+  @Test
+  void seek() throws IOException {
+    Path imagePath = Files.write(this.directory.resolve("seaside.image"), "0123456789".getBytes(US_ASCII));
+    MappedImage image = MappedImage.acquire(imagePath);
+    try (SeekableByteChannel channel = image.newChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+      channel.position(3L);
+      assertEquals(4, channel.read(buffer));
+      assertEquals("3456", new String(buffer.array(), US_ASCII));
+      assertEquals(7L, channel.position());
+      assertEquals(10L, channel.size());
+
+      buffer.clear();
+      assertEquals(3, channel.read(buffer));
+      assertEquals(-1, channel.read(buffer));
+
+      channel.position(20L);
+      assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+      assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+    } finally {
+      image.release();
+    }
+  }
+
+  @Test
+  void channelsAreIndependent() throws IOException {
+    Path imagePath = Files.write(this.directory.resolve("seaside.image"), "0123456789".getBytes(US_ASCII));
+    MappedImage image = MappedImage.acquire(imagePath);
+    try {
+      SeekableByteChannel first = image.newChannel();
+      SeekableByteChannel second = image.newChannel();
+      first.position(5L);
+      assertEquals(0L, second.position());
+      first.close();
+      assertThrows(ClosedChannelException.class, () -> first.read(ByteBuffer.allocate(1)));
+      assertTrue(second.isOpen());
+    } finally {
+      image.release();
+    }
+  }
+
+  @Test
+  void sharedUntilModified() throws IOException {
+    Path imagePath = Files.write(this.directory.resolve("seaside.image"), "first".getBytes(US_ASCII));
+    MappedImage first = MappedImage.acquire(imagePath);
+    MappedImage second = MappedImage.acquire(imagePath);
+    try {
+      assertSame(first, second);
+
+      Files.setLastModifiedTime(imagePath, FileTime.fromMillis(Files.getLastModifiedTime(imagePath).toMillis() + 10_000L));
+      MappedImage third = MappedImage.acquire(imagePath);
+      try {
+        assertNotSame(first, third);
+      } finally {
+        third.release();
+      }
+    } finally {
+      second.release();
+      first.release();
+    }
+  }
+
+}
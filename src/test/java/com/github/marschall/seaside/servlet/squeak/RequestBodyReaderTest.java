@@ -0,0 +1,86 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.marschall.seaside.servlet.squeak.RequestBodyReader.RequestBodyTooLargeException;
+
+class RequestBodyReaderTest {
+
+  private static final byte[] BODY = {'{', '}', (byte) 0xC3, (byte) 0xA4};
+
+  @Test
+  void contentLength() throws IOException {
+    assertArrayEquals(BODY, RequestBodyReader.read(body(), BODY.length, RequestBodyReader.UNLIMITED));
+    assertArrayEquals(BODY, RequestBodyReader.read(body(), BODY.length, BODY.length));
+    assertArrayEquals(new byte[0], RequestBodyReader.read(body(), 0L, 1));
+  }
+
+  @Test
+  void contentLengthTooLarge() {
+    InputStream unread = new InputStream() {
+
+      @Override
+      public int read() {
+        throw new AssertionError("body should not be read");
+      }
+
+    };
+    assertThrows(RequestBodyTooLargeException.class, () -> RequestBodyReader.read(unread, BODY.length, BODY.length - 1));
+  }
+
+  @Test
+  void truncated() {
+    assertThrows(EOFException.class, () -> RequestBodyReader.read(body(), BODY.length + 1, RequestBodyReader.UNLIMITED));
+  }
+
+  @Test
+  void largeContentLength() throws IOException {
+    byte[] large = new byte[RequestBodyReader.INITIAL_BUFFER_SIZE * 3 + 1];
+    Arrays.fill(large, (byte) 'a');
+    large[large.length - 1] = 'z';
+    assertArrayEquals(large, RequestBodyReader.read(new ByteArrayInputStream(large), large.length, RequestBodyReader.UNLIMITED));
+  }
+
+  @Test
+  void truncatedLargeContentLength() {
+    // a forged Content-Length fails once the body ends instead of allocating it up front
+    EOFException exception = assertThrows(EOFException.class,
+        () -> RequestBodyReader.read(body(), RequestBodyReader.MAX_ARRAY_SIZE, RequestBodyReader.UNLIMITED));
+    assertEquals("expected " + RequestBodyReader.MAX_ARRAY_SIZE + " bytes but got " + BODY.length, exception.getMessage());
+  }
+
+  @Test
+  void chunked() throws IOException {
+    assertArrayEquals(BODY, RequestBodyReader.read(body(), -1L, RequestBodyReader.UNLIMITED));
+    assertArrayEquals(BODY, RequestBodyReader.read(body(), -1L, BODY.length));
+  }
+
+  @Test
+  void chunkedTooLarge() {
+    assertThrows(RequestBodyTooLargeException.class, () -> RequestBodyReader.read(body(), -1L, BODY.length - 1));
+  }
+
+  @Test
+  void chunkedLimit() throws IOException {
+    // the same check applies to the array size limit of an unlimited body
+    assertArrayEquals(BODY, RequestBodyReader.readChunked(body(), BODY.length));
+    RequestBodyTooLargeException exception = assertThrows(RequestBodyTooLargeException.class,
+        () -> RequestBodyReader.readChunked(body(), BODY.length - 1));
+    assertEquals("request body exceeds maximum of " + (BODY.length - 1) + " bytes", exception.getMessage());
+  }
+
+  private static InputStream body() {
+    return new ByteArrayInputStream(BODY);
+  }
+
+}
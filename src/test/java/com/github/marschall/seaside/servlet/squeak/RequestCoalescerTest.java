@@ -0,0 +1,129 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+
+class RequestCoalescerTest {
+
+  private final RequestCoalescer coalescer = new RequestCoalescer(new String[] {"Accept-Language"});
+
+  @Test
+  void followersShareResponse() {
+    HttpServletRequest request = ServletStubs.get("/app", Map.of());
+    RequestCoalescer.Flight leader = this.coalescer.join(request);
+    RequestCoalescer.Flight follower = this.coalescer.join(request);
+    assertTrue(leader.isLeader());
+    assertFalse(follower.isLeader());
+    assertFalse(follower.getResponse().isDone());
+    assertEquals(1, this.coalescer.getInFlightCount());
+
+    BufferedResponse generated = new BufferedResponse();
+    generated.addHeader("Content-Type", "text/html");
+    generated.setTextBody("<html></html>");
+    this.coalescer.complete(leader, generated);
+    // the leader may now change its own response
+    generated.setHeader("Content-Encoding", "gzip");
+
+    BufferedResponse shared = follower.getResponse().join();
+    assertNotNull(shared);
+    assertNotSame(generated, shared);
+    assertEquals("<html></html>", shared.getTextBody());
+    assertNull(shared.getHeader("Content-Encoding"));
+    assertEquals(0, this.coalescer.getInFlightCount());
+
+    // a later request starts a new flight
+    assertTrue(this.coalescer.join(request).isLeader());
+  }
+
+  @Test
+  void newSessionNotShared() {
+    HttpServletRequest request = ServletStubs.get("/app", Map.of());
+    RequestCoalescer.Flight leader = this.coalescer.join(request);
+    RequestCoalescer.Flight follower = this.coalescer.join(request);
+
+    BufferedResponse generated = new BufferedResponse();
+    generated.setStatus(302);
+    generated.addHeader("Location", "/app?_s=0_eYKKM3Gl3XzVM5T&_k=JIp_6FO_QQ26nQob");
+    this.coalescer.complete(leader, generated);
+    assertNull(follower.getResponse().join());
+  }
+
+  @Test
+  void failedLeader() {
+    HttpServletRequest request = ServletStubs.get("/app", Map.of());
+    RequestCoalescer.Flight leader = this.coalescer.join(request);
+    RequestCoalescer.Flight follower = this.coalescer.join(request);
+    this.coalescer.complete(leader, null);
+    // ending a flight twice has no effect
+    this.coalescer.complete(leader, new BufferedResponse());
+    assertNull(follower.getResponse().join());
+  }
+
+  @Test
+  void isShareable() {
+    BufferedResponse ok = new BufferedResponse();
+    assertTrue(RequestCoalescer.isShareable(ok));
+
+    BufferedResponse cookie = new BufferedResponse();
+    cookie.addCookie(new Cookie("_s", "0_eYKKM3Gl3XzVM5T"));
+    assertFalse(RequestCoalescer.isShareable(cookie));
+
+    BufferedResponse privateResponse = new BufferedResponse();
+    privateResponse.addHeader("Cache-Control", "private, max-age=60");
+    assertFalse(RequestCoalescer.isShareable(privateResponse));
+
+    BufferedResponse notFound = new BufferedResponse();
+    notFound.setStatus(404);
+    assertFalse(RequestCoalescer.isShareable(notFound));
+
+    BufferedResponse publicResponse = new BufferedResponse();
+    publicResponse.addHeader("Cache-Control", "public, max-age=60");
+    assertTrue(RequestCoalescer.isShareable(publicResponse));
+  }
+
+  @Test
+  void newQueryFieldSessionNotShared() {
+    // a page with a new session in the links, the way Seaside sends it
+    BufferedResponse noCache = new BufferedResponse();
+    noCache.addHeader("Cache-Control", "no-cache, must-revalidate");
+    assertFalse(RequestCoalescer.isShareable(noCache));
+
+    BufferedResponse noStore = new BufferedResponse();
+    noStore.addHeader("Cache-Control", "No-Store");
+    assertFalse(RequestCoalescer.isShareable(noStore));
+
+    BufferedResponse noCacheField = new BufferedResponse();
+    noCacheField.addHeader("Cache-Control", "max-age=0, no-cache=\"Set-Cookie\"");
+    assertFalse(RequestCoalescer.isShareable(noCacheField));
+  }
+
+  @Test
+  void keyIncludesHeaders() {
+    String german = this.coalescer.key(ServletStubs.get("/app", Map.of("Accept-Language", "de")));
+    String english = this.coalescer.key(ServletStubs.get("/app", Map.of("Accept-Language", "en")));
+    String other = this.coalescer.key(ServletStubs.get("/app", Map.of("User-Agent", "curl")));
+    String none = this.coalescer.key(ServletStubs.get("/app", Map.of()));
+    assertNotEquals(german, english);
+    assertEquals(none, other);
+  }
+
+  @Test
+  void isCoalescable() {
+    assertTrue(this.coalescer.isCoalescable(ServletStubs.get("/app", Map.of())));
+    assertFalse(this.coalescer.isCoalescable(ServletStubs.get("/app", Map.of("Authorization", "Basic YTpi"))));
+    assertFalse(this.coalescer.isCoalescable(ServletStubs.get("/app", Map.of("If-None-Match", "\"1\""))));
+  }
+
+}
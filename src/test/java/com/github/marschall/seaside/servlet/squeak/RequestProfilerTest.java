@@ -0,0 +1,42 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RequestProfilerTest {
+
+  private final RequestProfiler profiler = new RequestProfiler(10L, (message, exception) -> { });
+
+  @Test
+  void topMethods() {
+    this.profiler.record("/app", List.of("WAHtmlCanvas>>text:", "WAComponent>>renderContentOn:", "WAComponent>>renderContentOn:"));
+    this.profiler.record("/app", List.of("WAComponent>>renderContentOn:"));
+    this.profiler.record("/app", List.of("WAHtmlCanvas>>text:", "WAComponent>>renderContentOn:"));
+    this.profiler.record("/app", List.of("WASession>>handle:"));
+    assertArrayEquals(new String[] {
+        " 50.0% self  50.0% total WAHtmlCanvas>>text:",
+        " 25.0% self  75.0% total WAComponent>>renderContentOn:"},
+        this.profiler.topMethods("/app", 2));
+  }
+
+  @Test
+  void paths() {
+    this.profiler.record("/app", List.of("WASession>>handle:"));
+    this.profiler.record("/other", List.of("WASession>>handle:"));
+    this.profiler.record("/other", List.of("WASession>>handle:"));
+    this.profiler.record("/empty", List.of());
+    assertArrayEquals(new String[] {"/other 2", "/app 1"}, this.profiler.getPaths());
+    assertEquals(3L, this.profiler.getSampleCount());
+    assertArrayEquals(new String[] {"100.0% self 100.0% total WASession>>handle:"}, this.profiler.getTopMethods());
+    assertArrayEquals(new String[0], this.profiler.topMethods("/unknown", 10));
+
+    this.profiler.reset();
+    assertEquals(0L, this.profiler.getSampleCount());
+    assertArrayEquals(new String[0], this.profiler.getPaths());
+  }
+
+}
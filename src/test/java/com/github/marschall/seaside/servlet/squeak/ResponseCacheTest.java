@@ -0,0 +1,185 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+class ResponseCacheTest {
+
+  private static final String STYLE = "body { color: black; }\n".repeat(100);
+
+  private final ResponseCache cache = new ResponseCache(1024L * 1024L, UTF_8);
+
+  @Test
+  void replayContentEncoding() throws IOException {
+    BufferedResponse generated = style("public, max-age=60");
+    generated.addHeader("ETag", "\"1\"");
+    // compressed by Seaside
+    generated.addHeader("Content-Encoding", "gzip");
+    generated.addHeader("Vary", "Accept-Encoding");
+    generated.setBinaryBody(gzip(STYLE));
+    HttpServletRequest request = ServletStubs.get("/seaside/style.css", Map.of("Accept-Encoding", "gzip"));
+    assertFalse(this.cache.commit(request, generated, null, new ServletStubs.RecordingResponse().asResponse()));
+
+    ServletStubs.RecordingResponse replayed = new ServletStubs.RecordingResponse();
+    assertTrue(this.cache.serve(this.cache.lookup(request), request, replayed.asResponse()));
+    assertEquals(HttpServletResponse.SC_OK, replayed.status);
+    assertEquals("gzip", replayed.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", replayed.getHeader("Vary"));
+    assertEquals("\"1\"", replayed.getHeader("ETag"));
+    assertArrayEquals(generated.getBinaryBody(), replayed.body.toByteArray());
+
+    // the identity variant is a different entry
+    assertNull(this.cache.lookup(ServletStubs.get("/seaside/style.css", Map.of())));
+  }
+
+  @Test
+  void replayCompressed() throws IOException {
+    BufferedResponse generated = style("public, max-age=60");
+    generated.addHeader("ETag", "\"1\"");
+    ResponseCompressor compressor = new ResponseCompressor(256, Set.of("text/css"), UTF_8, 1);
+    try {
+      assertTrue(compressor.compress("gzip", generated));
+    } finally {
+      compressor.close();
+    }
+    HttpServletRequest request = ServletStubs.get("/seaside/style.css", Map.of("Accept-Encoding", "gzip"));
+    assertFalse(this.cache.commit(request, generated, null, new ServletStubs.RecordingResponse().asResponse()));
+
+    ServletStubs.RecordingResponse replayed = new ServletStubs.RecordingResponse();
+    assertTrue(this.cache.serve(this.cache.lookup(request), request, replayed.asResponse()));
+    assertEquals("gzip", replayed.getHeader("Content-Encoding"));
+    // the compressed representation has its own tag
+    assertEquals("\"1-gzip\"", replayed.getHeader("ETag"));
+    assertArrayEquals(generated.getBinaryBody(), replayed.body.toByteArray());
+  }
+
+  @Test
+  void relayClientRevalidation() throws IOException {
+    HttpServletRequest request = ServletStubs.get("/seaside/style.css", Map.of("If-None-Match", "\"1\""));
+    BufferedResponse notModified = new BufferedResponse();
+    notModified.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    notModified.addHeader("Cache-Control", "public, max-age=60");
+
+    ServletStubs.RecordingResponse response = new ServletStubs.RecordingResponse();
+    assertFalse(this.cache.commit(request, notModified, null, response.asResponse()));
+    assertTrue(response.headers.isEmpty());
+    assertEquals(0L, this.cache.getRevalidationCount());
+    assertEquals(0, this.cache.getEntryCount());
+  }
+
+  @Test
+  void revalidate() throws IOException {
+    HttpServletRequest request = ServletStubs.get("/seaside/style.css", Map.of());
+    BufferedResponse generated = style("public, max-age=60");
+    generated.addHeader("ETag", "\"1\"");
+    generated.addHeader("Expires", "Sun, 18 Oct 2026 10:00:00 GMT");
+    this.cache.commit(request, generated, null, new ServletStubs.RecordingResponse().asResponse());
+    ResponseCache.CachedResponse stale = this.cache.lookup(request);
+    assertNotNull(stale);
+    assertTrue(stale.hasValidators());
+
+    BufferedResponse notModified = new BufferedResponse();
+    notModified.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    notModified.addHeader("Cache-Control", "public, max-age=120");
+    notModified.addHeader("Expires", "Sun, 18 Oct 2026 10:02:00 GMT");
+    ServletStubs.RecordingResponse response = new ServletStubs.RecordingResponse();
+    assertTrue(this.cache.commit(request, notModified, stale, response.asResponse()));
+    assertEquals(HttpServletResponse.SC_OK, response.status);
+    assertEquals("public, max-age=120", response.getHeader("Cache-Control"));
+    assertEquals("Sun, 18 Oct 2026 10:02:00 GMT", response.getHeader("Expires"));
+    assertEquals("text/css", response.getHeader("Content-Type"));
+    assertEquals(STYLE, response.body.toString(UTF_8));
+    assertEquals(1L, this.cache.getRevalidationCount());
+
+    ResponseCache.CachedResponse refreshed = this.cache.lookup(request);
+    assertEquals(120L, refreshed.maxAge);
+    assertEquals(List.of("Expires"), expiresHeaders(refreshed));
+  }
+
+  @Test
+  void revalidateUncacheable() throws IOException {
+    HttpServletRequest request = ServletStubs.get("/seaside/style.css", Map.of());
+    BufferedResponse generated = style("public, max-age=60");
+    generated.addHeader("Last-Modified", "Sun, 18 Oct 2026 09:00:00 GMT");
+    this.cache.commit(request, generated, null, new ServletStubs.RecordingResponse().asResponse());
+
+    BufferedResponse notModified = new BufferedResponse();
+    notModified.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    notModified.addHeader("Cache-Control", "no-store");
+    assertTrue(this.cache.commit(request, notModified, this.cache.lookup(request),
+        new ServletStubs.RecordingResponse().asResponse()));
+    assertNull(this.cache.lookup(request));
+    assertEquals(0L, this.cache.getSize());
+  }
+
+  @Test
+  void hasValidators() {
+    CachedResource resource = new CachedResource(new String[0], new byte[0], "\"a1\"", null, null);
+    assertFalse(new ResponseCache.CachedResponse(new String[0], resource, null, null, 60L, 0L).hasValidators());
+    assertTrue(new ResponseCache.CachedResponse(new String[0], resource, "\"1\"", null, 60L, 0L).hasValidators());
+  }
+
+  @Test
+  void getMaxAge() {
+    assertEquals(60L, ResponseCache.getMaxAge("public, max-age=60"));
+    assertEquals(60L, ResponseCache.getMaxAge("max-age=\"60\""));
+    assertEquals(300L, ResponseCache.getMaxAge("max-age=60, s-maxage=300"));
+    assertEquals(0L, ResponseCache.getMaxAge("private, max-age=60"));
+    assertEquals(0L, ResponseCache.getMaxAge("no-store"));
+    assertEquals(0L, ResponseCache.getMaxAge("no-cache=\"Set-Cookie\", max-age=60"));
+    assertEquals(0L, ResponseCache.getMaxAge("max-age=abc"));
+    assertEquals(0L, ResponseCache.getMaxAge(null));
+  }
+
+  @Test
+  void parseVary() {
+    assertArrayEquals(new String[0], ResponseCache.parseVary(null));
+    assertArrayEquals(new String[] {"accept", "accept-language"}, ResponseCache.parseVary("Accept-Language, Accept"));
+    assertArrayEquals(new String[] {"accept"}, ResponseCache.parseVary("Accept, accept"));
+    assertNull(ResponseCache.parseVary("Accept, *"));
+  }
+
+  private static List<String> expiresHeaders(ResponseCache.CachedResponse cached) throws IOException {
+    ServletStubs.RecordingResponse response = new ServletStubs.RecordingResponse();
+    cached.writeTo(ServletStubs.get("/seaside/style.css", Map.of()), response.asResponse());
+    return response.headers.stream()
+        .filter("Expires"::equalsIgnoreCase)
+        .collect(Collectors.toList());
+  }
+
+  private static BufferedResponse style(String cacheControl) {
+    BufferedResponse response = new BufferedResponse();
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.addHeader("Content-Type", "text/css");
+    response.addHeader("Cache-Control", cacheControl);
+    response.setTextBody(STYLE);
+    return response;
+  }
+
+  private static byte[] gzip(String body) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipStream = new GZIPOutputStream(buffer)) {
+      gzipStream.write(body.getBytes(UTF_8));
+    }
+    return buffer.toByteArray();
+  }
+
+}
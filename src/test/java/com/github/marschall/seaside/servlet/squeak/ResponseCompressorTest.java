@@ -0,0 +1,109 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+class ResponseCompressorTest {
+
+  private static final String PAGE = "<p>Grüße</p>".repeat(100);
+
+  private final ResponseCompressor compressor = new ResponseCompressor(256,
+      Set.of("text/html", "application/*"), ISO_8859_1, 1);
+
+  @Test
+  void compress() throws IOException {
+    BufferedResponse response = page("text/html;charset=utf-8");
+    response.addHeader("ETag", "\"1\"");
+    assertTrue(this.compressor.compress("gzip, deflate", response));
+    assertNull(response.getTextBody());
+    assertEquals(PAGE, gunzip(response.getBinaryBody()));
+    assertEquals("gzip", response.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    assertEquals("\"1-gzip\"", response.getHeader("ETag"));
+  }
+
+  @Test
+  void removesContentLength() throws IOException {
+    BufferedResponse response = page("text/html;charset=utf-8");
+    response.addHeader("Content-Length", Integer.toString(PAGE.length()));
+    assertTrue(this.compressor.compress("gzip", response));
+    assertNull(response.getHeader("Content-Length"));
+    assertEquals(PAGE, gunzip(response.getBinaryBody()));
+  }
+
+  @Test
+  void pooledDeflater() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      BufferedResponse response = page("text/html;charset=utf-8");
+      assertTrue(this.compressor.compress("gzip", response));
+      assertEquals(PAGE, gunzip(response.getBinaryBody()));
+    }
+  }
+
+  @Test
+  void close() throws IOException {
+    assertTrue(this.compressor.compress("gzip", page("text/html;charset=utf-8")));
+    assertEquals(1, this.compressor.getPooledDeflaterCount());
+    this.compressor.close();
+    assertEquals(0, this.compressor.getPooledDeflaterCount());
+
+    // still works, but the deflater is ended instead of pooled
+    BufferedResponse response = page("text/html;charset=utf-8");
+    assertTrue(this.compressor.compress("gzip", response));
+    assertEquals(PAGE, gunzip(response.getBinaryBody()));
+    assertEquals(0, this.compressor.getPooledDeflaterCount());
+  }
+
+  @Test
+  void notAccepted() {
+    BufferedResponse response = page("text/html;charset=utf-8");
+    response.addHeader("Vary", "Cookie");
+    assertFalse(this.compressor.compress("gzip;q=0, identity", response));
+    assertEquals(PAGE, response.getTextBody());
+    assertEquals("Cookie, Accept-Encoding", response.getHeader("Vary"));
+    assertNull(response.getHeader("Content-Encoding"));
+  }
+
+  @Test
+  void tooSmall() {
+    BufferedResponse response = new BufferedResponse();
+    response.addHeader("Content-Type", "text/html");
+    response.setTextBody("<p>small</p>");
+    assertFalse(this.compressor.compress("gzip", response));
+    assertNull(response.getHeader("Vary"));
+  }
+
+  @Test
+  void notAllowed() {
+    assertFalse(this.compressor.compress("gzip", page("text/plain")));
+    assertTrue(this.compressor.isAllowed("application/json"));
+    assertTrue(this.compressor.isAllowed("Text/HTML; charset=utf-8"));
+    assertFalse(this.compressor.isAllowed(null));
+  }
+
+  private static BufferedResponse page(String contentType) {
+    BufferedResponse response = new BufferedResponse();
+    response.addHeader("Content-Type", contentType);
+    response.setTextBody(PAGE);
+    return response;
+  }
+
+  private static String gunzip(byte[] compressed) throws IOException {
+    try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return new String(inputStream.readAllBytes(), UTF_8);
+    }
+  }
+
+}
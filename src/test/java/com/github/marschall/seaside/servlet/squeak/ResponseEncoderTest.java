@@ -0,0 +1,65 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class ResponseEncoderTest {
+
+  private final ResponseEncoder encoder = new ResponseEncoder(ISO_8859_1, 2);
+
+  @Test
+  void encodeWithContentTypeCharset() throws IOException {
+    String text = "<p>Grüße € 😀</p>";
+    ServletStubs.RecordingResponse recording = this.write("text/html;charset=utf-8", text);
+    assertArrayEquals(text.getBytes(UTF_8), recording.body.toByteArray());
+    assertEquals(text.getBytes(UTF_8).length, recording.contentLength);
+    assertEquals("text/html;charset=utf-8", recording.getHeader("Content-Type"));
+    assertEquals(1, this.encoder.getPooledBufferCount());
+  }
+
+  @Test
+  void encodeWithDefaultCharset() throws IOException {
+    ServletStubs.RecordingResponse recording = this.write("text/plain", "Grüße €");
+    // unmappable characters are replaced
+    assertArrayEquals("Grüße ?".getBytes(ISO_8859_1), recording.body.toByteArray());
+  }
+
+  @Test
+  void encodeLargeBody() throws IOException {
+    StringBuilder text = new StringBuilder();
+    while (text.length() < ResponseEncoder.BUFFER_SIZE * 3) {
+      // a surrogate pair crosses every chunk boundary
+      text.append("ab😀ä");
+    }
+    ServletStubs.RecordingResponse recording = this.write("text/html;charset=utf-8", text.toString());
+    assertArrayEquals(text.toString().getBytes(UTF_8), recording.body.toByteArray());
+    // written in several chunks, the length is not known up front
+    assertEquals(-1, recording.contentLength);
+  }
+
+  @Test
+  void binaryBodyUnchanged() throws IOException {
+    BufferedResponse response = new BufferedResponse();
+    response.addHeader("Content-Type", "image/png");
+    response.setBinaryBody(new byte[] {1, 2, 3});
+    ServletStubs.RecordingResponse recording = new ServletStubs.RecordingResponse();
+    this.encoder.writeTo(response, recording.asResponse());
+    assertArrayEquals(new byte[] {1, 2, 3}, recording.body.toByteArray());
+  }
+
+  private ServletStubs.RecordingResponse write(String contentType, String text) throws IOException {
+    BufferedResponse response = new BufferedResponse();
+    response.addHeader("Content-Type", contentType);
+    response.setTextBody(text);
+    ServletStubs.RecordingResponse recording = new ServletStubs.RecordingResponse();
+    this.encoder.writeTo(response, recording.asResponse());
+    return recording;
+  }
+
+}
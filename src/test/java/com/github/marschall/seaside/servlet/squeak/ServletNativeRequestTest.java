@@ -0,0 +1,118 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ServletNativeRequestTest {
+
+  private final UrlParser urlParser = new UrlParser("/app", StandardCharsets.UTF_8);
+
+  @Test
+  void synthetic() {
+    String url = "http://localhost:80/app/counter?q=z%C3%BCrich&_s=abc";
+    ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic(url, this.urlParser, new String[0], new String[0]);
+    assertEquals("GET", nativeRequest.getRequestMethod());
+    assertEquals(url, nativeRequest.getQueryStringRaw());
+    assertEquals("http", nativeRequest.getUrlScheme());
+    assertEquals("localhost", nativeRequest.getUrlHost());
+    assertEquals(80, nativeRequest.getUrlPort());
+    assertArrayEquals(new String[] {"app"}, nativeRequest.getContextPath());
+    assertArrayEquals(new String[] {"counter"}, nativeRequest.getUrlPath());
+    assertFalse(nativeRequest.hasTrailingSlash());
+    assertArrayEquals(new String[] {"q", "zürich", "_s", "abc"}, nativeRequest.getUrlQuery());
+    // same as a GET from a client, the query fields are part of the URL
+    assertArrayEquals(new String[0], nativeRequest.getRequestFields());
+  }
+
+  @Test
+  void syntheticWithoutPath() {
+    ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic("https://localhost?_s=abc", this.urlParser,
+        new String[0], new String[0]);
+    assertEquals("https", nativeRequest.getUrlScheme());
+    assertEquals("localhost", nativeRequest.getUrlHost());
+    assertEquals(443, nativeRequest.getUrlPort());
+    // not below the context path
+    assertArrayEquals(new String[0], nativeRequest.getContextPath());
+    assertArrayEquals(new String[0], nativeRequest.getUrlPath());
+    assertArrayEquals(new String[] {"_s", "abc"}, nativeRequest.getUrlQuery());
+  }
+
+  @Test
+  void syntheticIpv6() {
+    ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic("http://[::1]/app/a%2Fb", this.urlParser,
+        new String[0], new String[0]);
+    assertEquals("[::1]", nativeRequest.getUrlHost());
+    assertEquals(80, nativeRequest.getUrlPort());
+    assertArrayEquals(new String[] {"a/b"}, nativeRequest.getUrlPath());
+
+    nativeRequest = ServletNativeRequest.synthetic("https://[::1]:8443?_s=abc", this.urlParser,
+        new String[0], new String[0]);
+    assertEquals("[::1]", nativeRequest.getUrlHost());
+    assertEquals(8443, nativeRequest.getUrlPort());
+  }
+
+  @Test
+  void join() {
+    ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic("http://localhost/app", this.urlParser,
+        new String[0], new String[0]);
+    assertEquals("", nativeRequest.join(new String[0]));
+    assertEquals("1:q10:a:b-c:12:3-0:", nativeRequest.join(new String[] {"q", "a:b-c:12:3", null, ""}));
+  }
+
+  @Test
+  void joinOutsideBmp() {
+    ServletNativeRequest nativeRequest = ServletNativeRequest.synthetic("http://localhost/app?q=%F0%9F%98%80", this.urlParser,
+        new String[0], new String[0]);
+    String grinning = new String(Character.toChars(0x1F600));
+    assertArrayEquals(new String[] {"q", grinning}, nativeRequest.getUrlQuery());
+    // Squeak counts the emoji as one character, not as a surrogate pair
+    assertEquals("1:q1:" + grinning, nativeRequest.join(nativeRequest.getUrlQuery()));
+    assertEquals("3:a" + grinning + "b1:c", nativeRequest.join(new String[] {"a" + grinning + "b", "c"}));
+  }
+
+  @Test
+  void decodedBodyReleasesBytes(@TempDir Path spoolDirectory) throws Exception {
+    ServletNativeRequest nativeRequest = new ServletNativeRequest(ServletStubs.post("/app/api", "application/json", "{\"q\":\"zürich\"}"),
+        new ServletStubs.RecordingResponse().asResponse(), new UploadSpool(spoolDirectory, 1024L),
+        new RequestBodyReader(RequestBodyReader.UNLIMITED, false), this.urlParser);
+    nativeRequest.readRequest();
+    assertEquals("{\"q\":\"zürich\"}", nativeRequest.getRequestBody());
+    // the size is still known once only the decoded body is kept
+    assertEquals(15, nativeRequest.getRequestBodySize());
+    assertNull(nativeRequest.getRequestBodyAsBytes());
+  }
+
+  @Test
+  void rawBody(@TempDir Path spoolDirectory) throws Exception {
+    ServletNativeRequest nativeRequest = new ServletNativeRequest(ServletStubs.post("/app/api", "application/json", "{\"q\":\"zürich\"}"),
+        new ServletStubs.RecordingResponse().asResponse(), new UploadSpool(spoolDirectory, 1024L),
+        new RequestBodyReader(RequestBodyReader.UNLIMITED, true), this.urlParser);
+    nativeRequest.readRequest();
+    assertEquals("{\"q\":\"z\u00C3\u00BCrich\"}", nativeRequest.getRequestBody());
+    assertEquals(15, nativeRequest.getRequestBodySize());
+  }
+
+  @Test
+  void writeResponseChunkAsByteString(@TempDir Path spoolDirectory) throws IOException {
+    ServletStubs.RecordingResponse recording = new ServletStubs.RecordingResponse();
+    ServletNativeRequest nativeRequest = new ServletNativeRequest(ServletStubs.get("/app/download", Map.of()),
+        recording.asResponse(), new UploadSpool(spoolDirectory, 1024L),
+        new RequestBodyReader(RequestBodyReader.UNLIMITED, false), this.urlParser);
+    nativeRequest.startStreamedResponse();
+    nativeRequest.writeResponseChunkAsByteString("\u0000\u007F\u0080");
+    nativeRequest.writeResponseChunkAsByteString("\u00C3\u00BC\u00FF");
+    assertArrayEquals(new byte[] {0x00, 0x7F, (byte) 0x80, (byte) 0xC3, (byte) 0xBC, (byte) 0xFF},
+        recording.body.toByteArray());
+  }
+
+}
@@ -0,0 +1,261 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet request and response stubs.
+ */
+final class ServletStubs {
+
+  private ServletStubs() {
+    throw new AssertionError("not instantiable");
+  }
+
+  /**
+   * Creates a {@code GET} request.
+   *
+   * @param requestUri the request URI, may include a query string
+   * @param headers the request headers, a {@code Cookie} header is also returned by {@code getCookies()}
+   * @return the request
+   */
+  static HttpServletRequest get(String requestUri, Map<String, String> headers) {
+    int queryStart = requestUri.indexOf('?');
+    String path = queryStart == -1 ? requestUri : requestUri.substring(0, queryStart);
+    String queryString = queryStart == -1 ? null : requestUri.substring(queryStart + 1);
+    return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, (proxy, method, arguments) -> {
+          switch (method.getName()) {
+            case "getQueryString":
+              return queryString;
+            case "getCookies":
+              return parseCookies(headers.get("Cookie"));
+            case "getMethod":
+              return "GET";
+            case "getScheme":
+              return "http";
+            case "getServerName":
+              return "localhost";
+            case "getServerPort":
+              return 8080;
+            case "getRequestURI":
+              return path;
+            case "getHeader":
+              for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase((String) arguments[0])) {
+                  return header.getValue();
+                }
+              }
+              return null;
+            default:
+              return null;
+          }
+        });
+  }
+
+  /**
+   * Creates a {@code POST} request without headers and form fields.
+   *
+   * @param requestUri the request URI
+   * @param contentType the content type of the body
+   * @param body the body, encoded in UTF-8
+   * @return the request
+   */
+  static HttpServletRequest post(String requestUri, String contentType, String body) {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+        new Class<?>[] {HttpServletRequest.class}, (proxy, method, arguments) -> {
+          switch (method.getName()) {
+            case "getMethod":
+              return "POST";
+            case "getScheme":
+              return "http";
+            case "getServerName":
+              return "localhost";
+            case "getServerPort":
+              return 8080;
+            case "getRequestURI":
+              return requestUri;
+            case "getHeaderNames":
+              return Collections.emptyEnumeration();
+            case "getParameterMap":
+              return Map.of();
+            case "getContentType":
+              return contentType;
+            case "getCharacterEncoding":
+              return "UTF-8";
+            case "getContentLengthLong":
+              return (long) bytes.length;
+            case "getInputStream":
+              return inputStream(bytes);
+            default:
+              return null;
+          }
+        });
+  }
+
+  private static ServletInputStream inputStream(byte[] bytes) {
+    ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
+    return new ServletInputStream() {
+
+      @Override
+      public int read() {
+        return inputStream.read();
+      }
+
+      @Override
+      public boolean isFinished() {
+        return inputStream.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        throw new UnsupportedOperationException();
+      }
+
+    };
+  }
+
+  private static Cookie[] parseCookies(String cookieHeader) {
+    if (cookieHeader == null) {
+      return null;
+    }
+    List<Cookie> cookies = new ArrayList<>();
+    for (String cookie : cookieHeader.split(";\\s*")) {
+      int equals = cookie.indexOf('=');
+      cookies.add(new Cookie(cookie.substring(0, equals), cookie.substring(equals + 1)));
+    }
+    return cookies.toArray(new Cookie[0]);
+  }
+
+  /**
+   * Records the status, headers, cookies and body written to a {@link HttpServletResponse}.
+   */
+  static final class RecordingResponse {
+
+    int status;
+
+    /**
+     * Alternating header names and values.
+     */
+    final List<String> headers = new ArrayList<>();
+
+    final List<Cookie> cookies = new ArrayList<>();
+
+    /**
+     * The content length set, {@code -1} if none.
+     */
+    int contentLength = -1;
+
+    /**
+     * The body, text is written in UTF-8.
+     */
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(this.body, StandardCharsets.UTF_8));
+
+    HttpServletResponse asResponse() {
+      ServletOutputStream outputStream = new ServletOutputStream() {
+
+        @Override
+        public void write(int b) {
+          RecordingResponse.this.body.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+          throw new UnsupportedOperationException();
+        }
+
+      };
+      return (HttpServletResponse) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+          new Class<?>[] {HttpServletResponse.class}, (proxy, method, arguments) -> {
+            switch (method.getName()) {
+              case "setStatus":
+                this.status = (Integer) arguments[0];
+                return null;
+              case "setHeader":
+                this.removeHeader((String) arguments[0]);
+                this.headers.add((String) arguments[0]);
+                this.headers.add((String) arguments[1]);
+                return null;
+              case "addHeader":
+                this.headers.add((String) arguments[0]);
+                this.headers.add((String) arguments[1]);
+                return null;
+              case "setContentLength":
+                this.contentLength = (Integer) arguments[0];
+                return null;
+              case "addCookie":
+                this.cookies.add((Cookie) arguments[0]);
+                return null;
+              case "getOutputStream":
+                return outputStream;
+              case "getWriter":
+                return this.writer;
+              case "isCommitted":
+                return false;
+              default:
+                return null;
+            }
+          });
+    }
+
+    /**
+     * Returns the body written through the writer, like the container does
+     * when the response is completed.
+     *
+     * @return the body decoded as UTF-8
+     */
+    String getText() {
+      this.writer.flush();
+      return this.body.toString(StandardCharsets.UTF_8);
+    }
+
+    String getHeader(String name) {
+      for (int i = 0; i < this.headers.size(); i += 2) {
+        if (this.headers.get(i).equalsIgnoreCase(name)) {
+          return this.headers.get(i + 1);
+        }
+      }
+      return null;
+    }
+
+    private void removeHeader(String name) {
+      for (int i = this.headers.size() - 2; i >= 0; i -= 2) {
+        if (this.headers.get(i).equalsIgnoreCase(name)) {
+          this.headers.remove(i + 1);
+          this.headers.remove(i);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SqueakObjectMBeanTest {
+
+  private Context context;
+
+  private SqueakObjectMBean mBean;
+
+  @BeforeEach
+  void setUp() {
+    this.context = Context.newBuilder()
+        .allowAllAccess(true)
+        .option("engine.WarnInterpreterOnly", "false")
+        .build();
+    MBeanInfo mBeanInfo = new MBeanInfo(WAMBean.class.getName(), "test", new MBeanAttributeInfo[] {
+        attribute("name", "java.lang.String"),
+        attribute("size", "int"),
+        attribute("broken", "java.lang.String")}, null, null, null);
+    this.mBean = new SqueakObjectMBean(this.context.asValue(new WAMBean()), mBeanInfo,
+        this.context.asValue(new ReentrantLock()));
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.context.close();
+  }
+
+  @Test
+  void getAttributesWithNil() throws Exception {
+    assertNull(this.mBean.getAttribute("name"));
+    AttributeList attributes = this.mBean.getAttributes(new String[] {"name", "broken", "size"});
+    // nil is a value, only the attribute that can not be read is left out
+    assertEquals(List.of(new Attribute("name", null), new Attribute("size", 3)), attributes.asList());
+  }
+
+  private static MBeanAttributeInfo attribute(String name, String type) {
+    return new MBeanAttributeInfo(name, type, name, true, false, false);
+  }
+
+  /**
+   * Stands in for a {@code WAMBean} with a {@code nil} attribute and one that fails.
+   */
+  static final class WAMBean implements ProxyObject {
+
+    private final Map<String, ProxyExecutable> members = Map.of(
+        "name", arguments -> null,
+        "size", arguments -> 3,
+        "broken", arguments -> {
+          throw new IllegalStateException("broken");
+        },
+        "attributeValues:failed:", this::attributeValues);
+
+    private Object attributeValues(Value... arguments) {
+      Value attributeNames = arguments[0];
+      Value failed = arguments[1];
+      List<Object> values = new ArrayList<>();
+      for (int i = 0; i < attributeNames.getArraySize(); i++) {
+        try {
+          values.add(this.members.get(attributeNames.getArrayElement(i).asString()).execute());
+        } catch (RuntimeException e) {
+          failed.setArrayElement(i, true);
+          values.add(null);
+        }
+      }
+      return ProxyArray.fromList(values);
+    }
+
+    @Override
+    public Object getMember(String key) {
+      return this.members.get(key);
+    }
+
+    @Override
+    public Object getMemberKeys() {
+      return ProxyArray.fromArray(this.members.keySet().toArray());
+    }
+
+    @Override
+    public boolean hasMember(String key) {
+      return this.members.containsKey(key);
+    }
+
+    @Override
+    public void putMember(String key, Value value) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
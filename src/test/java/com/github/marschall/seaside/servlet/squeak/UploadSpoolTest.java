@@ -0,0 +1,83 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.servlet.http.Part;
+
+class UploadSpoolTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void belowThreshold() throws IOException {
+    UploadSpool spool = new UploadSpool(this.spoolDirectory(), 4L);
+    try {
+      FilePart filePart = spool.toFilePart(part("abc"), "file", "a.txt", "text/plain");
+      assertFalse(filePart.isSpilled());
+      assertEquals("abc", filePart.getContents());
+      assertEquals("file", filePart.getPartName());
+      assertEquals("a.txt", filePart.getFileName());
+      assertEquals("text/plain", filePart.getContentType());
+    } finally {
+      spool.close();
+    }
+  }
+
+  @Test
+  void spilled() throws IOException {
+    Path spoolDirectory = this.spoolDirectory();
+    UploadSpool spool = new UploadSpool(spoolDirectory, 4L);
+    FilePart filePart = spool.toFilePart(part("abcd"), "file", "a.txt", "text/plain");
+    assertTrue(filePart.isSpilled());
+    assertEquals(4L, filePart.getSize());
+    assertEquals("abcd", filePart.readChunk(0L, 4));
+    assertEquals(1L, countFiles(spoolDirectory));
+
+    spool.close();
+    assertFalse(Files.exists(spoolDirectory));
+  }
+
+  private Path spoolDirectory() throws IOException {
+    return Files.createDirectory(this.directory.resolve("seaside-uploads"));
+  }
+
+  private static long countFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  private static Part part(String contents) {
+    byte[] bytes = contents.getBytes(ISO_8859_1);
+    return (Part) Proxy.newProxyInstance(UploadSpoolTest.class.getClassLoader(), new Class<?>[] {Part.class},
+        (proxy, method, arguments) -> {
+          switch (method.getName()) {
+            case "getSize":
+              return (long) bytes.length;
+            case "getInputStream":
+              return new ByteArrayInputStream(bytes);
+            case "write":
+              Files.write(Paths.get((String) arguments[0]), bytes);
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class UrlParserTest {
+
+  private final UrlParser parser = new UrlParser("/seaside/app", UTF_8);
+
+  @Test
+  void contextPath() {
+    assertArrayEquals(new String[] {"seaside", "app"}, this.parser.getContextPath());
+    String[] segments = this.parser.parsePath("/seaside/app/tests/a%20b");
+    assertEquals(2, this.parser.contextPathLength(segments));
+    assertArrayEquals(new String[] {"tests", "a b"}, UrlParser.stripContextPath(segments, 2));
+
+    assertEquals(-1, this.parser.contextPathLength(this.parser.parsePath("/seaside")));
+    assertEquals(-1, this.parser.contextPathLength(this.parser.parsePath("/seaside/other/app")));
+  }
+
+  @Test
+  void parsePathEscapedSlash() {
+    // split before decoding, the escaped slash is part of the segment
+    assertArrayEquals(new String[] {"files", "a/b", "c%d"}, UrlParser.parsePath("/files/a%2fb/c%25d", UTF_8));
+    assertArrayEquals(new String[] {"a", "b"}, UrlParser.parsePath("//a//b/", UTF_8));
+  }
+
+  @Test
+  void decode() {
+    assertEquals("zürich", UrlParser.decode("z%C3%BCrich", UTF_8));
+    assertEquals("100%", UrlParser.decode("100%", UTF_8));
+    assertEquals("%zz", UrlParser.decode("%zz", UTF_8));
+  }
+
+  @Test
+  void rootContextPath() {
+    UrlParser root = new UrlParser("", UTF_8);
+    String[] segments = root.parsePath("/tests");
+    assertEquals(0, root.contextPathLength(segments));
+    assertArrayEquals(new String[] {"tests"}, UrlParser.stripContextPath(segments, 0));
+  }
+
+  @Test
+  void parseQuery() {
+    assertArrayEquals(new String[] {"_s", "abc", "_k", "def", "12", null},
+        this.parser.parseQuery("_s=abc&_k=def&12"));
+    assertArrayEquals(new String[] {"q", "zürich a+b", "empty", ""},
+        this.parser.parseQuery("q=z%C3%BCrich+a%2Bb&&empty="));
+    assertArrayEquals(new String[] {"a", "b=c"}, this.parser.parseQuery("a=b=c"));
+    assertArrayEquals(new String[0], this.parser.parseQuery(null));
+  }
+
+}
@@ -0,0 +1,32 @@
+package com.github.marschall.seaside.servlet.squeak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class WarmUpTest {
+
+  @Test
+  void resolve() {
+    String url = "http://localhost:80/tests/functional/WALotsaLinksFunctionalTest";
+    assertEquals("http://localhost:8080/other", WarmUp.resolve(url, "http://localhost:8080/other"));
+    assertEquals("http://localhost:80/other?_s=abc", WarmUp.resolve(url, "/other?_s=abc"));
+    assertEquals(url + "?_s=abc&_k=def", WarmUp.resolve(url + "?_s=old", "?_s=abc&_k=def"));
+    assertEquals("http://localhost:80/tests/functional/other", WarmUp.resolve(url, "other"));
+  }
+
+  @Test
+  void isPlateau() {
+    long[] durations = new long[40];
+    Arrays.fill(durations, 0, 10, 100L);
+    Arrays.fill(durations, 10, 40, 10L);
+    assertFalse(WarmUp.isPlateau(durations, 19));
+    assertFalse(WarmUp.isPlateau(durations, 20));
+    assertTrue(WarmUp.isPlateau(durations, 30));
+  }
+
+}